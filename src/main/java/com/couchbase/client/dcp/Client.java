@@ -11,6 +11,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 
 import com.couchbase.client.core.config.BucketCapabilities;
 import com.couchbase.client.core.config.CouchbaseBucketConfig;
@@ -33,12 +39,16 @@ import com.couchbase.client.dcp.message.DcpMutationMessage;
 import com.couchbase.client.dcp.message.DcpSnapshotMarkerRequest;
 import com.couchbase.client.dcp.message.MessageUtil;
 import com.couchbase.client.dcp.message.RollbackMessage;
+import com.couchbase.client.dcp.metrics.MetricsRegistry;
 import com.couchbase.client.dcp.state.SessionState;
 import com.couchbase.client.dcp.state.StreamPartitionState;
 import com.couchbase.client.dcp.state.StreamRequest;
 import com.couchbase.client.dcp.state.StreamState;
 import com.couchbase.client.dcp.util.FlowControlCallback;
+import com.couchbase.client.dcp.util.StallListener;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
 import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
 import com.couchbase.client.deps.io.netty.channel.nio.NioEventLoopGroup;
 
@@ -90,13 +100,22 @@ public class Client {
                 .setDcpControl(builder.dcpControl()).setEventLoopGroup(eventLoopGroup, builder.eventLoopGroup() == null)
                 .setBufferAckWatermark(builder.bufferAckWatermark()).setBufferPooling(builder.poolBuffers())
                 .setConfigProviderAttemptTimeout(builder.configProviderAttemptTimeout())
-                .setConfigProviderReconnectDelay(builder.configProviderReconnectDelay())
+                .setConfigProviderRetryPolicy(builder.configProviderRetryPolicy())
                 .setConfigProviderTotalTimeout(builder.configProviderTotalTimeout())
                 .setDcpChannelAttemptTimeout(builder.dcpChannelAttemptTimeout())
-                .setDcpChannelsReconnectDelay(builder.dcpChannelsReconnectDelay())
+                .setDcpChannelsRetryPolicy(builder.dcpChannelsRetryPolicy())
                 .setDcpChannelTotalTimeout(builder.dcpChannelTotalTimeout()).setEventBus(builder.eventBus())
+                .setMaxBackfillingStreamsPerNode(builder.maxBackfillingStreamsPerNode())
+                .setConnectionsPerNode(builder.connectionsPerNode())
+                .setXattrsEnabled(builder.xattrs()).setValueMode(builder.valueMode())
+                .setStallListener(builder.stallListener()).setStallThreshold(builder.stallThreshold())
+                .setDataEventFilter(builder.dataEventFilter())
+                .setMetricsRegistry(builder.metricsRegistry()).setAllocator(builder.allocator())
+                .setRecoveryScheduler(builder.recoveryScheduler()).setRecoveryExecutor(builder.recoveryExecutor())
+                .setConfigFetchPermits(builder.configFetchPermits())
                 .setSslEnabled(builder.sslEnabled()).setSslKeystoreFile(builder.sslKeystoreFile())
                 .setSslKeystorePassword(builder.sslKeystorePassword()).setSslKeystore(builder.sslKeystore())
+                .setSslPreferOpenSsl(builder.sslPreferOpenSsl())
                 .setBootstrapHttpDirectPort(builder.configPort()).setBootstrapHttpSslPort(builder.sslConfigPort())
                 .setVbuckets(builder.vbuckets()).setClusterAt(builder.clusterAt())
                 .setFlowControlCallback(builder.flowControlCallback()).setUuid(builder.uuid())
@@ -133,6 +152,22 @@ public class Client {
         conductor.waitForSeqnos(streamId);
     }
 
+    /**
+     * Requests the current sequence numbers from all partitions for the specified stream without blocking.
+     *
+     * The returned future completes once all partitions have replied, or fails with a
+     * {@link java.util.concurrent.TimeoutException} after the partition requests timeout. The request is
+     * independent of {@link #requestSequenceNumbers(int)} and {@link #waitForSequenceNumbers(int)}, which it may
+     * overlap with.
+     *
+     * @param streamId
+     * @return a future completed with the stream state holding the current sequence numbers
+     */
+    public CompletableFuture<StreamState> getSequenceNumbersAsync(int streamId) {
+        return conductor.withPartitionRequestTimeout(conductor.fetchSeqnos(streamId),
+                "sequence numbers for sid " + streamId);
+    }
+
     /**
      * Requests the current sequence numbers from all partitions for the specified stream
      *
@@ -224,8 +259,9 @@ public class Client {
                 case MessageUtil.DCP_DELETION_OPCODE:
                 case MessageUtil.DCP_EXPIRATION_OPCODE:
                     short partition = MessageUtil.getVbucket(event);
-                    StreamPartitionState ps = MessageUtil.streamState(event, sessionState()).get(partition);
-                    ps.setSeqno(DcpDataMessage.bySeqno(event));
+                    StreamState ss = MessageUtil.streamState(event, sessionState());
+                    ss.get(partition).setSeqno(DcpDataMessage.bySeqno(event));
+                    ss.dataEventReceived(event.readableBytes());
                     break;
                 default:
                     LOGGER.error("unrecognized data event {}", MessageUtil.humanize(event));
@@ -249,6 +285,28 @@ public class Client {
         conductor.connect();
     }
 
+    /**
+     * Initializes the underlying connections on the given executor.
+     *
+     * This is not a non-blocking connect: it runs the blocking {@link #connect()} on a thread of the supplied
+     * executor, which is held for the whole bootstrap, including the config and channel connection retries up to
+     * their total timeouts. Supply an executor which can afford that, never an event loop nor a pool shared with
+     * short tasks.
+     *
+     * @param executor
+     *            the executor to bootstrap on.
+     * @return a future completed once the client is connected
+     */
+    public CompletableFuture<Void> connectAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                connect();
+            } catch (Throwable th) {
+                throw new CompletionException(th);
+            }
+        }, executor);
+    }
+
     private void validateStream() {
         if (env.dataEventHandler() == null) {
             throw new IllegalArgumentException("A DataEventHandler needs to be provided!");
@@ -293,10 +351,70 @@ public class Client {
         vbids = partitionsForVbids(numPartitions, vbids);
         ensureInitialized(streamState, vbids);
         LOGGER.debug("Stream {} start against {} partitions: {}", streamId, vbids.length, Arrays.toString(vbids));
+        conductor.startStreamsForPartitions(streamRequests(streamState, vbids));
+    }
+
+    /**
+     * Start DCP streams for the given partition IDs (vbids) without blocking on failover logs.
+     *
+     * Partitions without a prepared stream request are initialized once their failover logs arrive;
+     * the streams are opened when all partitions are initialized.
+     *
+     * The open stream requests are sent from the {@link ForkJoinPool#commonPool() common pool}, see
+     * {@link #startStreamingAsync(Executor, int, short...)}.
+     *
+     * @param streamId
+     * @param vbids
+     *            the partition ids (0-indexed) to start streaming for.
+     * @return a future completed once all open stream requests have been sent
+     */
+    public CompletableFuture<Void> startStreamingAsync(int streamId, short... vbids) {
+        return startStreamingAsync(ForkJoinPool.commonPool(), streamId, vbids);
+    }
+
+    /**
+     * Start DCP streams for the given partition IDs (vbids) without blocking on failover logs.
+     *
+     * Partitions without a prepared stream request are initialized once their failover logs arrive;
+     * the streams are then opened on the supplied executor, rather than on the IO thread which delivered the
+     * last failover log, since opening them takes the channel locks and writes to the sockets.
+     *
+     * @param executor
+     *            the executor the open stream requests are sent from.
+     * @param streamId
+     * @param vbids
+     *            the partition ids (0-indexed) to start streaming for.
+     * @return a future completed once all open stream requests have been sent
+     */
+    public CompletableFuture<Void> startStreamingAsync(Executor executor, int streamId, short... vbids) {
+        final StreamState streamState = sessionState().streamState(streamId);
+        validateStream();
+        final short[] partitions = partitionsForVbids(numPartitions(), vbids);
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (short vbid : partitions) {
+            final StreamPartitionState ps = streamState.get(vbid);
+            if (ps.getStreamRequest() == null) {
+                if (!sessionState().get(vbid).hasFailoverLogs()) {
+                    ps.prepareNextStreamRequest(sessionState(), streamState);
+                } else {
+                    pending.add(requestFailoverLogAsync(vbid)
+                            .thenRun(() -> ps.prepareNextStreamRequest(sessionState(), streamState)));
+                }
+            }
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).thenRunAsync(() -> {
+            LOGGER.debug("Stream {} start against {} partitions: {}", streamId, partitions.length,
+                    Arrays.toString(partitions));
+            conductor.startStreamsForPartitions(streamRequests(streamState, partitions));
+        }, executor);
+    }
+
+    private static List<StreamRequest> streamRequests(StreamState streamState, short[] vbids) {
+        List<StreamRequest> requests = new ArrayList<>(vbids.length);
         for (short vbid : vbids) {
-            StreamRequest request = streamState.get(vbid).getStreamRequest();
-            conductor.startStreamForPartition(request);
+            requests.add(streamState.get(vbid).getStreamRequest());
         }
+        return requests;
     }
 
     private void ensureInitialized(StreamState streamState, short[] vbids) throws Throwable {
@@ -321,6 +439,19 @@ public class Client {
         }
     }
 
+    /**
+     * Requests the collections manifest without blocking. Buckets which are not collection capable
+     * complete immediately with {@link CollectionsManifest#DEFAULT}.
+     *
+     * @return a future completed with the current collections manifest
+     */
+    public CompletableFuture<CollectionsManifest> getCollectionsManifestAsync() {
+        if (!isCollectionCapable()) {
+            return CompletableFuture.completedFuture(CollectionsManifest.DEFAULT);
+        }
+        return conductor.withPartitionRequestTimeout(conductor.requestCollectionsManifest(), "collections manifest");
+    }
+
     public CollectionsManifest getCollectionsManifest() throws Throwable {
         if (!config().capabilities().contains(BucketCapabilities.COLLECTIONS)) {
             return CollectionsManifest.DEFAULT;
@@ -378,6 +509,33 @@ public class Client {
         failoverLogs(env.vbuckets());
     }
 
+    /**
+     * Requests the failover logs for the given partitions (vbids) without blocking.
+     *
+     * If the list is empty, the failover logs for all partitions will be requested. The returned future
+     * completes once all failover logs are received, or fails with the first failure or timeout.
+     *
+     * @param vbids
+     *            the partitions to request the failover logs from.
+     * @return a future completed once all the failover logs are in the session state
+     */
+    public CompletableFuture<Void> failoverLogsAsync(short... vbids) {
+        vbids = partitionsForVbids(numPartitions(), vbids);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Asking asynchronously for failover logs on partitions {}", Arrays.toString(vbids));
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[vbids.length];
+        for (int i = 0; i < vbids.length; i++) {
+            futures[i] = requestFailoverLogAsync(vbids[i]);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private CompletableFuture<?> requestFailoverLogAsync(short vbid) {
+        return conductor.withPartitionRequestTimeout(conductor.requestFailoverLog(vbid),
+                "failover log for vbid " + vbid);
+    }
+
     /**
      * Returns the number of partitions on the remote cluster.
      *
@@ -460,6 +618,7 @@ public class Client {
         private String sslKeystoreFile;
         private String sslKeystorePassword;
         private KeyStore sslKeystore;
+        private boolean sslPreferOpenSsl;
         private int configPort = ClientEnvironment.BOOTSTRAP_HTTP_DIRECT_PORT;
         private int sslConfigPort = ClientEnvironment.BOOTSTRAP_HTTP_SSL_PORT;
         private short[] vbuckets;
@@ -468,10 +627,22 @@ public class Client {
         // Total timeouts, attempt timeouts, and delays
         private long configProviderAttemptTimeout = ClientEnvironment.DEFAULT_CONFIG_PROVIDER_ATTEMPT_TIMEOUT;
         private long configProviderTotalTimeout = ClientEnvironment.DEFAULT_CONFIG_PROVIDER_TOTAL_TIMEOUT;
-        private Delay configProviderReconnectDelay = ClientEnvironment.DEFAULT_CONFIG_PROVIDER_RECONNECT_DELAY;
+        private RetryPolicy configProviderRetryPolicy = ClientEnvironment.DEFAULT_CONFIG_PROVIDER_RETRY_POLICY;
         private long dcpChannelAttemptTimeout = ClientEnvironment.DEFAULT_DCP_CHANNEL_ATTEMPT_TIMEOUT;
         private long dcpChannelTotalTimeout = ClientEnvironment.DEFAULT_DCP_CHANNEL_TOTAL_TIMEOUT;
-        private Delay dcpChannelsReconnectDelay = ClientEnvironment.DEFAULT_DCP_CHANNELS_RECONNECT_DELAY;
+        private RetryPolicy dcpChannelsRetryPolicy = ClientEnvironment.DEFAULT_DCP_CHANNELS_RETRY_POLICY;
+        private int maxBackfillingStreamsPerNode = ClientEnvironment.DEFAULT_MAX_BACKFILLING_STREAMS_PER_NODE;
+        private int connectionsPerNode = ClientEnvironment.DEFAULT_CONNECTIONS_PER_NODE;
+        private boolean xattrs;
+        private ValueMode valueMode = ValueMode.FULL;
+        private StallListener stallListener;
+        private long stallThreshold = ClientEnvironment.DEFAULT_STALL_THRESHOLD;
+        private DataEventFilter dataEventFilter;
+        private MetricsRegistry metricsRegistry;
+        private ByteBufAllocator allocator;
+        private ScheduledExecutorService recoveryScheduler;
+        private Executor recoveryExecutor;
+        private Semaphore configFetchPermits;
         private IntList cids = IntLists.EMPTY_LIST;
 
         /**
@@ -666,6 +837,163 @@ public class Client {
             return this;
         }
 
+        /**
+         * Limits how many streams per node may be backfilling at once. Streams opened beyond the limit are
+         * queued and opened as earlier streams finish their backfill.
+         *
+         * @param maxBackfillingStreamsPerNode
+         *            the admission window per node, 0 for no limit.
+         */
+        public Builder maxBackfillingStreamsPerNode(int maxBackfillingStreamsPerNode) {
+            if (maxBackfillingStreamsPerNode < 0) {
+                throw new IllegalArgumentException("maxBackfillingStreamsPerNode cannot be negative");
+            }
+            this.maxBackfillingStreamsPerNode = maxBackfillingStreamsPerNode;
+            return this;
+        }
+
+        /**
+         * Opens several DCP connections against each node and stripes the vbuckets of the node across them, so
+         * that a node with a high mutation rate is not served by a single connection and event loop thread. The
+         * backfill admission window of {@link #maxBackfillingStreamsPerNode(int)} is split between the connections.
+         *
+         * @param connectionsPerNode
+         *            the number of connections per node, 1 by default.
+         */
+        public Builder connectionsPerNode(int connectionsPerNode) {
+            if (connectionsPerNode < 1) {
+                throw new IllegalArgumentException("connectionsPerNode must be at least 1");
+            }
+            this.connectionsPerNode = connectionsPerNode;
+            return this;
+        }
+
+        /**
+         * Asks the producer to include the extended attributes of the documents in the values of the data events,
+         * see {@link com.couchbase.client.dcp.message.XattrReader}.
+         */
+        public Builder xattrs(boolean xattrs) {
+            this.xattrs = xattrs;
+            return this;
+        }
+
+        /**
+         * Which parts of the documents the producer sends: the full values, only the keys and metadata, or only the
+         * extended attributes. The mode is negotiated when the connections are opened, so it applies to all the
+         * streams of the client; use one client per mode, e.g. through a {@link DcpClientManager}.
+         *
+         * @param valueMode
+         *            the value mode, {@link ValueMode#FULL} by default.
+         */
+        public Builder valueMode(ValueMode valueMode) {
+            if (valueMode == null) {
+                throw new IllegalArgumentException("valueMode cannot be null");
+            }
+            this.valueMode = valueMode;
+            return this;
+        }
+
+        /**
+         * Watches the event loops of the channels and reports the IO threads which stop responding, typically
+         * because a data or control event handler blocks; see {@link StallListener#LOGGING} for a listener which logs
+         * the stalls with their stacks.
+         *
+         * @param stallListener
+         *            the listener of the stalls, null by default to not watch the event loops.
+         */
+        public Builder stallListener(StallListener stallListener) {
+            this.stallListener = stallListener;
+            return this;
+        }
+
+        /**
+         * How long an IO thread can be unresponsive before it is reported to the stall listener.
+         *
+         * @param stallThreshold
+         *            the threshold in milliseconds, {@value ClientEnvironment#DEFAULT_STALL_THRESHOLD} by default.
+         */
+        public Builder stallThreshold(long stallThreshold) {
+            if (stallThreshold <= 0) {
+                throw new IllegalArgumentException("stallThreshold must be positive");
+            }
+            this.stallThreshold = stallThreshold;
+            return this;
+        }
+
+        /**
+         * Filters the data events on the IO threads before they are dispatched; events which are not accepted are
+         * acked and released at once.
+         *
+         * @param dataEventFilter
+         *            the filter, null to accept all the events.
+         */
+        public Builder dataEventFilter(DataEventFilter dataEventFilter) {
+            this.dataEventFilter = dataEventFilter;
+            return this;
+        }
+
+        /**
+         * The registry the client metrics are recorded in, e.g. to share one between clients or to plug in another
+         * implementation; see {@link com.couchbase.client.dcp.metrics.JmxMetricsBinding} to expose it.
+         *
+         * @param metricsRegistry
+         *            the registry, null for a new {@link com.couchbase.client.dcp.metrics.DefaultMetricsRegistry}.
+         */
+        public Builder metricsRegistry(MetricsRegistry metricsRegistry) {
+            this.metricsRegistry = metricsRegistry;
+            return this;
+        }
+
+        /**
+         * The allocator of the channel buffers, e.g. to share one between the clients of a process.
+         *
+         * @param allocator
+         *            the allocator, null for the default one selected by {@link #poolBuffers(boolean)}.
+         */
+        public Builder allocator(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            return this;
+        }
+
+        /**
+         * Times the recovery of dropped channels and streams on a scheduler shared with other clients, instead of on
+         * a fixer thread of the client's own; see {@link DcpClientManager}. Only the wakeups run on the scheduler,
+         * the fixes themselves run on the {@link #recoveryExecutor(Executor) recovery executor}, and both must be set
+         * for the fixer to be shared. Neither is shut down by the client.
+         *
+         * @param recoveryScheduler
+         *            the scheduler, null for a fixer thread per client.
+         */
+        public Builder recoveryScheduler(ScheduledExecutorService recoveryScheduler) {
+            this.recoveryScheduler = recoveryScheduler;
+            return this;
+        }
+
+        /**
+         * Runs the fixes woken up by the {@link #recoveryScheduler(ScheduledExecutorService) recovery scheduler}.
+         * The fixes block on configuration fetches and connects, so the executor must grow with the number of
+         * clients recovering at once, e.g. a cached thread pool.
+         *
+         * @param recoveryExecutor
+         *            the executor, null for a fixer thread per client.
+         */
+        public Builder recoveryExecutor(Executor recoveryExecutor) {
+            this.recoveryExecutor = recoveryExecutor;
+            return this;
+        }
+
+        /**
+         * Bounds the concurrent configuration fetches of the clients sharing the permits, e.g. the clients of the
+         * buckets of one cluster.
+         *
+         * @param configFetchPermits
+         *            the shared permits, null for no bound.
+         */
+        public Builder configFetchPermits(Semaphore configFetchPermits) {
+            this.configFetchPermits = configFetchPermits;
+            return this;
+        }
+
         /**
          * Time to wait for first configuration during a fetch attempt
          *
@@ -688,24 +1016,48 @@ public class Client {
             return this;
         }
 
+        /**
+         * Backoff and retry budget for configuration provider reconnection attempts
+         *
+         * @param configProviderRetryPolicy
+         */
+        public Builder configProviderRetryPolicy(RetryPolicy configProviderRetryPolicy) {
+            this.configProviderRetryPolicy = configProviderRetryPolicy;
+            return this;
+        }
+
+        /**
+         * Backoff and retry budget for DCP channel reconnection attempts
+         *
+         * @param dcpChannelsRetryPolicy
+         */
+        public Builder dcpChannelsRetryPolicy(RetryPolicy dcpChannelsRetryPolicy) {
+            this.dcpChannelsRetryPolicy = dcpChannelsRetryPolicy;
+            return this;
+        }
+
         /**
          * Delay between retry attempts for configuration provider
          *
          * @param configProviderReconnectDelay
+         * @deprecated use {@link #configProviderRetryPolicy(RetryPolicy)}; the delay is adapted with
+         *             {@link RetryPolicy#of(Delay)}.
          */
+        @Deprecated
         public Builder configProviderReconnectDelay(Delay configProviderReconnectDelay) {
-            this.configProviderReconnectDelay = configProviderReconnectDelay;
-            return this;
+            return configProviderRetryPolicy(RetryPolicy.of(configProviderReconnectDelay));
         }
 
         /**
          * Delay between retry attempts for DCP channels
          *
          * @param dcpChannelsReconnectDelay
+         * @deprecated use {@link #dcpChannelsRetryPolicy(RetryPolicy)}; the delay is adapted with
+         *             {@link RetryPolicy#of(Delay)}.
          */
+        @Deprecated
         public Builder dcpChannelsReconnectDelay(Delay dcpChannelsReconnectDelay) {
-            this.dcpChannelsReconnectDelay = dcpChannelsReconnectDelay;
-            return this;
+            return dcpChannelsRetryPolicy(RetryPolicy.of(dcpChannelsReconnectDelay));
         }
 
         /**
@@ -762,6 +1114,16 @@ public class Client {
             return this;
         }
 
+        /**
+         * Uses an OpenSSL engine instead of the JDK one when netty finds OpenSSL available (default false).
+         *
+         * @param sslPreferOpenSsl
+         */
+        public Builder sslPreferOpenSsl(final boolean sslPreferOpenSsl) {
+            this.sslPreferOpenSsl = sslPreferOpenSsl;
+            return this;
+        }
+
         /**
          * Sets the Port that will be used to get bucket configurations.
          *
@@ -842,12 +1204,28 @@ public class Client {
             return configProviderTotalTimeout;
         }
 
+        public RetryPolicy configProviderRetryPolicy() {
+            return configProviderRetryPolicy;
+        }
+
+        public RetryPolicy dcpChannelsRetryPolicy() {
+            return dcpChannelsRetryPolicy;
+        }
+
+        /**
+         * @deprecated the delay the retry policy was adapted from, null if it was not.
+         */
+        @Deprecated
         public Delay configProviderReconnectDelay() {
-            return configProviderReconnectDelay;
+            return configProviderRetryPolicy.delay();
         }
 
+        /**
+         * @deprecated the delay the retry policy was adapted from, null if it was not.
+         */
+        @Deprecated
         public Delay dcpChannelsReconnectDelay() {
-            return dcpChannelsReconnectDelay;
+            return dcpChannelsRetryPolicy.delay();
         }
 
         public long dcpChannelAttemptTimeout() {
@@ -858,6 +1236,54 @@ public class Client {
             return dcpChannelTotalTimeout;
         }
 
+        public int maxBackfillingStreamsPerNode() {
+            return maxBackfillingStreamsPerNode;
+        }
+
+        public int connectionsPerNode() {
+            return connectionsPerNode;
+        }
+
+        public boolean xattrs() {
+            return xattrs;
+        }
+
+        public ValueMode valueMode() {
+            return valueMode;
+        }
+
+        public StallListener stallListener() {
+            return stallListener;
+        }
+
+        public long stallThreshold() {
+            return stallThreshold;
+        }
+
+        public DataEventFilter dataEventFilter() {
+            return dataEventFilter;
+        }
+
+        public MetricsRegistry metricsRegistry() {
+            return metricsRegistry;
+        }
+
+        public ByteBufAllocator allocator() {
+            return allocator;
+        }
+
+        public ScheduledExecutorService recoveryScheduler() {
+            return recoveryScheduler;
+        }
+
+        public Executor recoveryExecutor() {
+            return recoveryExecutor;
+        }
+
+        public Semaphore configFetchPermits() {
+            return configFetchPermits;
+        }
+
         public EventBus eventBus() {
             return eventBus;
         }
@@ -878,6 +1304,10 @@ public class Client {
             return sslKeystore;
         }
 
+        public boolean sslPreferOpenSsl() {
+            return sslPreferOpenSsl;
+        }
+
         public int configPort() {
             return configPort;
         }
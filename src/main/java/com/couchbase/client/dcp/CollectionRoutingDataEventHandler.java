@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.message.CollectionDropped;
+import com.couchbase.client.dcp.message.DcpSystemEvent;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.transport.netty.DcpMessageHandler;
+import com.couchbase.client.dcp.util.CollectionsUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Routes the data events of a collection aware connection to a handler per collection id.
+ *
+ * The cid is decoded once per message and looked up in a primitive map; the map is copied on write, so routing
+ * is lock free. When a {@link CollectionDropped} system event is seen by the handler returned from
+ * {@link #controlEventHandler(ControlEventHandler)} the route of the collection is removed and its later events
+ * go to the unrouted handler.
+ */
+public class CollectionRoutingDataEventHandler implements ClientDataEventHandler {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ClientDataEventHandler ACK_AND_RELEASE = (ackHandle, event) -> {
+        ackHandle.ack(event);
+        DcpMessageHandler.release(event);
+    };
+
+    private final ClientDataEventHandler unroutedHandler;
+    private volatile Int2ObjectMap<Route> routes = Int2ObjectMaps.emptyMap();
+
+    /**
+     * Creates a router which acks and releases the events of unrouted collections.
+     */
+    public CollectionRoutingDataEventHandler() {
+        this(ACK_AND_RELEASE);
+    }
+
+    public CollectionRoutingDataEventHandler(ClientDataEventHandler unroutedHandler) {
+        this.unroutedHandler = unroutedHandler;
+    }
+
+    public synchronized void route(int cid, ClientDataEventHandler handler) {
+        Int2ObjectMap<Route> newRoutes = new Int2ObjectOpenHashMap<>(routes);
+        newRoutes.put(cid, new Route(handler));
+        routes = newRoutes;
+    }
+
+    /**
+     * Stops routing the collection.
+     *
+     * @return true if the collection was routed
+     */
+    public synchronized boolean unroute(int cid) {
+        if (!routes.containsKey(cid)) {
+            return false;
+        }
+        Int2ObjectMap<Route> newRoutes = new Int2ObjectOpenHashMap<>(routes);
+        newRoutes.remove(cid);
+        routes = newRoutes;
+        return true;
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        Route route = routes.get(MessageUtil.getCid(event));
+        if (route == null) {
+            unroutedHandler.onEvent(ackHandle, event);
+            return;
+        }
+        route.messages.incrementAndGet();
+        route.bytes.addAndGet(event.readableBytes());
+        route.handler.onEvent(ackHandle, event);
+    }
+
+    /**
+     * Wraps the control event handler of the client so that dropped collections stop being routed.
+     */
+    public ControlEventHandler controlEventHandler(ControlEventHandler next) {
+        return (ackHandle, event) -> {
+            if (event.getByte(1) == MessageUtil.DCP_SYSTEM_EVENT_OPCODE) {
+                DcpSystemEvent systemEvent = DcpSystemEvent.parse(event);
+                if (systemEvent instanceof CollectionDropped) {
+                    int cid = ((CollectionDropped) systemEvent).getCollectionId();
+                    if (unroute(cid)) {
+                        LOGGER.info("collection {} was dropped, routing to it stopped",
+                                CollectionsUtil.displayCid(cid));
+                    }
+                }
+            }
+            next.onEvent(ackHandle, event);
+        };
+    }
+
+    public long messages(int cid) {
+        Route route = routes.get(cid);
+        return route == null ? 0 : route.messages.get();
+    }
+
+    public long bytes(int cid) {
+        Route route = routes.get(cid);
+        return route == null ? 0 : route.bytes.get();
+    }
+
+    private static class Route {
+        private final ClientDataEventHandler handler;
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Route(ClientDataEventHandler handler) {
+            this.handler = handler;
+        }
+    }
+}
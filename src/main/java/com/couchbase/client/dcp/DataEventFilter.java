@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.util.CollectionsUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Decides on the IO thread, directly on the raw message, whether a data event (mutation, deletion or expiration)
+ * is handed to the {@link DataEventHandler}. Events which are not accepted are acked and released right away,
+ * after their seqno is recorded in the stream state.
+ *
+ * Filters are called concurrently from the event loops of all the channels and must not block.
+ */
+@FunctionalInterface
+public interface DataEventFilter {
+
+    /**
+     * @param event
+     *            the data event, which must neither be released nor retained.
+     * @param collectionsEnabled
+     *            whether the keys of the event carry a collection id prefix.
+     * @return true if the event is handed to the data event handler
+     */
+    boolean accept(ByteBuf event, boolean collectionsEnabled);
+
+    default DataEventFilter and(DataEventFilter other) {
+        return (event, collectionsEnabled) -> accept(event, collectionsEnabled)
+                && other.accept(event, collectionsEnabled);
+    }
+
+    default DataEventFilter or(DataEventFilter other) {
+        return (event, collectionsEnabled) -> accept(event, collectionsEnabled)
+                || other.accept(event, collectionsEnabled);
+    }
+
+    default DataEventFilter negate() {
+        return (event, collectionsEnabled) -> !accept(event, collectionsEnabled);
+    }
+
+    /**
+     * Accepts the events whose key starts with the given prefix; the key bytes are compared in place.
+     */
+    static DataEventFilter keyPrefix(String prefix) {
+        final byte[] prefixBytes = prefix.getBytes(UTF_8);
+        return (event, collectionsEnabled) -> {
+            int offset = MessageUtil.getHeaderSize(event) + event.getByte(MessageUtil.EXTRAS_LENGTH_OFFSET);
+            int keyLength = event.getUnsignedByte(MessageUtil.FLEX_KEY_LENGTH_OFFSET);
+            if (collectionsEnabled) {
+                // skip the unsigned LEB128 collection id
+                int cidLength = 1;
+                while ((event.getByte(offset + cidLength - 1) & 0x80) != 0) {
+                    cidLength++;
+                }
+                offset += cidLength;
+                keyLength -= cidLength;
+            }
+            if (keyLength < prefixBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < prefixBytes.length; i++) {
+                if (event.getByte(offset + i) != prefixBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Accepts the events whose key matches the given regular expression. The key is decoded for every event; prefer
+     * {@link #keyPrefix(String)} where possible.
+     */
+    static DataEventFilter keyMatches(Pattern pattern) {
+        return (event, collectionsEnabled) -> pattern
+                .matcher(MessageUtil.getKeyAsString(event, collectionsEnabled)).matches();
+    }
+
+    /**
+     * Accepts the events of the given collections; without collections every event is in the default collection.
+     */
+    static DataEventFilter collections(int... cids) {
+        final IntSet accepted = new IntOpenHashSet(cids);
+        return (event, collectionsEnabled) -> accepted
+                .contains(collectionsEnabled ? MessageUtil.getCid(event) : CollectionsUtil.DEFAULT_COLLECTION_ID);
+    }
+
+    /**
+     * Accepts the mutations whose expiry (seconds since epoch, 0 for none) matches the predicate; deletions and
+     * expirations are always accepted.
+     */
+    static DataEventFilter mutationExpiry(IntPredicate predicate) {
+        return (event, collectionsEnabled) -> !DcpMutationMessage.is(event)
+                || predicate.test(DcpMutationMessage.expiry(event));
+    }
+}
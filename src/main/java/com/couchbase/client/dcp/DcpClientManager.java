@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
+import com.couchbase.client.deps.io.netty.buffer.PooledByteBufAllocator;
+import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
+import com.couchbase.client.deps.io.netty.channel.nio.NioEventLoopGroup;
+
+/**
+ * Hosts the clients of many buckets in one process on shared infrastructure: one {@link EventLoopGroup}, one
+ * buffer allocator, one bound on the concurrent configuration fetches per cluster, and one recovery pool which runs
+ * the fixers of all the clients instead of a fixer thread per client. The pool keeps a few threads and grows while
+ * more clients are recovering at once, since a fix blocks on config fetches and connects; the wakeups of the fixers
+ * are timed by a separate scheduler thread, so a client which cannot reconnect does not delay the others.
+ *
+ * Every client keeps its own environment, session state, channels and flow control, so a slow or failing bucket
+ * does not affect the state of the others; only threads and pooled memory are shared.
+ */
+public class DcpClientManager implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final int DEFAULT_RECOVERY_THREADS = 2;
+    public static final int DEFAULT_CONFIG_FETCHES_PER_CLUSTER = 2;
+    private static final long RECOVERY_KEEP_ALIVE_SECONDS = 60;
+
+    private final EventLoopGroup eventLoopGroup;
+    private final boolean eventLoopGroupIsPrivate;
+    private final ByteBufAllocator allocator;
+    private final ScheduledThreadPoolExecutor recoveryScheduler;
+    private final ThreadPoolExecutor recoveryExecutor;
+    private final int configFetchesPerCluster;
+    private final Map<Set<InetSocketAddress>, Semaphore> configFetchPermits = new ConcurrentHashMap<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a manager with its own event loop group and the default pooled allocator.
+     */
+    public DcpClientManager() {
+        this(new NioEventLoopGroup(), true, PooledByteBufAllocator.DEFAULT, DEFAULT_RECOVERY_THREADS,
+                DEFAULT_CONFIG_FETCHES_PER_CLUSTER);
+    }
+
+    /**
+     * Creates a manager on an event loop group managed by the caller, which must shut it down after closing the
+     * manager.
+     *
+     * @param eventLoopGroup
+     *            the event loop group of all the clients.
+     * @param allocator
+     *            the allocator of the channel buffers of all the clients.
+     * @param recoveryThreads
+     *            the number of threads kept to run the fixers of all the clients; more are started while needed.
+     * @param configFetchesPerCluster
+     *            the maximum number of concurrent configuration fetches of the clients of one cluster.
+     */
+    public DcpClientManager(EventLoopGroup eventLoopGroup, ByteBufAllocator allocator, int recoveryThreads,
+            int configFetchesPerCluster) {
+        this(eventLoopGroup, false, allocator, recoveryThreads, configFetchesPerCluster);
+    }
+
+    private DcpClientManager(EventLoopGroup eventLoopGroup, boolean eventLoopGroupIsPrivate,
+            ByteBufAllocator allocator, int recoveryThreads, int configFetchesPerCluster) {
+        if (recoveryThreads < 1) {
+            throw new IllegalArgumentException("recoveryThreads must be at least 1");
+        }
+        if (configFetchesPerCluster < 1) {
+            throw new IllegalArgumentException("configFetchesPerCluster must be at least 1");
+        }
+        this.eventLoopGroup = eventLoopGroup;
+        this.eventLoopGroupIsPrivate = eventLoopGroupIsPrivate;
+        this.allocator = allocator;
+        this.configFetchesPerCluster = configFetchesPerCluster;
+        recoveryScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "dcp-recovery-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recoveryScheduler.setRemoveOnCancelPolicy(true);
+        AtomicInteger threadCount = new AtomicInteger();
+        recoveryExecutor = new ThreadPoolExecutor(recoveryThreads, Integer.MAX_VALUE, RECOVERY_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "dcp-recovery-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Builds a client on the shared infrastructure; the event loop group, allocator, recovery scheduler and executor
+     * and config fetch permits set on the builder are replaced by the shared ones.
+     *
+     * @param builder
+     *            the configuration of the client.
+     * @return the client, not yet connected.
+     */
+    public Client newClient(Client.Builder builder) {
+        Semaphore permits = configFetchPermits.computeIfAbsent(new HashSet<>(builder.clusterAt()),
+                k -> new Semaphore(configFetchesPerCluster));
+        Client client = builder.eventLoopGroup(eventLoopGroup).allocator(allocator)
+                .recoveryScheduler(recoveryScheduler).recoveryExecutor(recoveryExecutor).configFetchPermits(permits)
+                .build();
+        clients.add(client);
+        LOGGER.info("Added a client for bucket {}, {} clients", builder.bucket(), clients.size());
+        return client;
+    }
+
+    /**
+     * Disconnects a client and removes it from the manager.
+     *
+     * @param client
+     *            a client built by {@link #newClient(Client.Builder)}.
+     */
+    public void release(Client client) throws InterruptedException {
+        if (clients.remove(client)) {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * Returns the clients of the manager.
+     */
+    public Collection<Client> clients() {
+        return Collections.unmodifiableCollection(new ArrayList<>(clients));
+    }
+
+    /**
+     * Disconnects all the clients and shuts the shared infrastructure down; an event loop group given to the
+     * constructor is left to the caller.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (Client client : clients()) {
+            try {
+                release(client);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.warn("Failure disconnecting a client", e);
+            }
+        }
+        recoveryScheduler.shutdownNow();
+        recoveryExecutor.shutdownNow();
+        if (eventLoopGroupIsPrivate) {
+            eventLoopGroup.shutdownGracefully(0, 10, TimeUnit.MILLISECONDS).await();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.transport.netty.DcpMessageHandler;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * Dispatches data events to a fixed number of lanes by the hash of the raw document key, see
+ * {@link MessageUtil#keyHash(ByteBuf)}. Each lane runs its own handler on its own thread, so events of the same
+ * key are always handled in order while different keys of the same vbucket are handled in parallel.
+ *
+ * Every lane acks through its own {@link DcpAckHandle} which keeps the lane counters and forwards to the ack
+ * handle of the channel the event came from. The lane queues are unbounded; with flow control enabled the
+ * producer stops sending once the un-acked events fill the connection buffer.
+ */
+public class KeyHashPartitionedDataEventHandler implements ClientDataEventHandler, AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Pending POISON_PILL = new Pending(null, null);
+    private static final int MAX_ACK_HANDLES = 256;
+
+    private final Lane[] lanes;
+    private volatile boolean closed;
+
+    /**
+     * @param numLanes
+     *            the number of lanes, i.e. consumer threads.
+     * @param laneHandlerFactory
+     *            creates the handler of each lane given the lane index.
+     */
+    public KeyHashPartitionedDataEventHandler(int numLanes, IntFunction<ClientDataEventHandler> laneHandlerFactory) {
+        if (numLanes <= 0) {
+            throw new IllegalArgumentException("numLanes must be positive");
+        }
+        lanes = new Lane[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            lanes[i] = new Lane(i, laneHandlerFactory.apply(i));
+            lanes[i].thread.start();
+        }
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        if (closed) {
+            ackHandle.ack(event);
+            DcpMessageHandler.release(event);
+            return;
+        }
+        Lane lane = lanes[Math.floorMod(MessageUtil.keyHash(event), lanes.length)];
+        Pending pending = new Pending(ackHandle, event);
+        lane.inbox.add(pending);
+        // raced with close: the lane may be gone already, unless it took the event it will never see it
+        if (closed && lane.inbox.remove(pending)) {
+            ackHandle.ack(event);
+            DcpMessageHandler.release(event);
+        }
+    }
+
+    public int numLanes() {
+        return lanes.length;
+    }
+
+    public long pending(int lane) {
+        return lanes[lane].inbox.size();
+    }
+
+    public long ackedMessages(int lane) {
+        return lanes[lane].ackedMessages.get();
+    }
+
+    public long ackedBytes(int lane) {
+        return lanes[lane].ackedBytes.get();
+    }
+
+    /**
+     * Stops the lanes and waits for them to finish the events they are handling. Events which were not handled yet,
+     * and events received after the close, are acked and released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.inbox.add(POISON_PILL);
+        }
+        for (Lane lane : lanes) {
+            if (lane.thread == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warn("interrupted while waiting for the lanes to stop");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static class Lane implements Runnable {
+        private final int index;
+        private final ClientDataEventHandler handler;
+        private final Thread thread;
+        private final LinkedBlockingQueue<Pending> inbox = new LinkedBlockingQueue<>();
+        private final AtomicLong ackedMessages = new AtomicLong();
+        private final AtomicLong ackedBytes = new AtomicLong();
+        // channel ack handle -> lane ack handle, only accessed by the lane thread
+        private final Map<DcpAckHandle, DcpAckHandle> ackHandles = new IdentityHashMap<>();
+        // the last event acked through the lane, to tell whether a failed handler acked its event
+        private volatile ByteBuf lastAcked;
+
+        private Lane(int index, ClientDataEventHandler handler) {
+            this.index = index;
+            this.handler = handler;
+            this.thread = new Thread(this, "dcp-key-lane-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Pending next = inbox.take();
+                while (next != POISON_PILL) {
+                    final DcpAckHandle ackHandle = laneAckHandle(next.ackHandle);
+                    try {
+                        handler.onEvent(ackHandle, next.event);
+                    } catch (Exception e) {
+                        final boolean released = next.event.refCnt() == 0;
+                        LOGGER.error("lane {} failed handling {}", index,
+                                released ? "a released event" : MessageUtil.humanize(next.event), e);
+                        // an event the handler neither acked nor released would hold the flow control buffer
+                        if (lastAcked != next.event) {
+                            ackHandle.ack(next.event);
+                        }
+                        if (!released) {
+                            DcpMessageHandler.release(next.event);
+                        }
+                    }
+                    next = inbox.take();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("lane {} was interrupted", index);
+                Thread.currentThread().interrupt();
+            } finally {
+                Pending pending;
+                while ((pending = inbox.poll()) != null) {
+                    if (pending != POISON_PILL) {
+                        pending.ackHandle.ack(pending.event);
+                        DcpMessageHandler.release(pending.event);
+                    }
+                }
+            }
+        }
+
+        private DcpAckHandle laneAckHandle(DcpAckHandle channelAckHandle) {
+            if (ackHandles.size() > MAX_ACK_HANDLES && !ackHandles.containsKey(channelAckHandle)) {
+                // handles of reconnected channels are never used again
+                ackHandles.clear();
+            }
+            return ackHandles.computeIfAbsent(channelAckHandle, h -> message -> {
+                ackedMessages.incrementAndGet();
+                ackedBytes.addAndGet(message.readableBytes());
+                lastAcked = message;
+                h.ack(message);
+            });
+        }
+    }
+
+    private static class Pending {
+        private final DcpAckHandle ackHandle;
+        private final ByteBuf event;
+
+        private Pending(DcpAckHandle ackHandle, ByteBuf event) {
+            this.ackHandle = ackHandle;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.conductor.DcpChannel;
+import com.couchbase.client.dcp.state.SessionState;
+import com.couchbase.client.dcp.state.StreamState;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Periodically refreshes the master seqnos of the tracked streams and publishes an immutable {@link Snapshot} of
+ * the lag per stream and per node, so that readers never walk the partition states themselves.
+ *
+ * The poll interval is adaptive: it halves (down to the minimum) while the lag grows and doubles (up to the
+ * maximum) while the tracked streams are caught up.
+ */
+public class LagTracker implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Client client;
+    private final int[] streamIds;
+    private final long minPollMillis;
+    private final long maxPollMillis;
+    private final ScheduledExecutorService executor;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private long pollMillis;
+
+    public LagTracker(Client client, long minPollMillis, long maxPollMillis, int... streamIds) {
+        if (minPollMillis <= 0 || maxPollMillis < minPollMillis) {
+            throw new IllegalArgumentException("invalid poll interval [" + minPollMillis + ", " + maxPollMillis + "]");
+        }
+        this.client = client;
+        this.streamIds = streamIds.clone();
+        this.minPollMillis = minPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.pollMillis = minPollMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dcp-lag-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        executor.execute(this::poll);
+    }
+
+    /**
+     * Returns the latest lag snapshot; never blocks.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            CompletableFuture<?>[] requests = new CompletableFuture<?>[streamIds.length];
+            for (int i = 0; i < streamIds.length; i++) {
+                requests[i] = client.getSequenceNumbersAsync(streamIds[i]);
+            }
+            CompletableFuture.allOf(requests).whenCompleteAsync((result, failure) -> {
+                try {
+                    if (failure != null) {
+                        LOGGER.debug("failed to refresh master seqnos, lag snapshot is not updated", failure);
+                    } else {
+                        update();
+                    }
+                } finally {
+                    schedule();
+                }
+            }, executor);
+        } catch (Exception e) {
+            // e.g. the client is not connected (yet); keep polling
+            LOGGER.debug("failed to request master seqnos, lag snapshot is not updated", e);
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.schedule(this::poll, pollMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.trace("lag tracker is closed", e);
+        }
+    }
+
+    private void update() {
+        final Snapshot previous = snapshot;
+        final long now = System.nanoTime();
+        final double elapsedSecs = (now - previous.timestampNanos) / 1e9;
+        final SessionState sessionState = client.sessionState();
+        Int2ObjectMap<StreamLag> streams = new Int2ObjectOpenHashMap<>();
+        Map<InetSocketAddress, Long> nodes = new HashMap<>();
+        long totalPending = 0;
+        for (int streamId : streamIds) {
+            StreamState ss = sessionState.streamState(streamId);
+            if (ss == null) {
+                continue;
+            }
+            // maintained by the partition states as their seqnos change
+            long pending = ss.pendingSeqnos();
+            long seqnos = ss.seqnosSum();
+            if (pending > 0) {
+                // the vbucket to node mapping changes with the topology, so it is applied at read time
+                for (short vbid = 0; vbid < ss.getNumOfPartitions(); vbid++) {
+                    long partitionPending = ss.pendingSeqnos(vbid);
+                    if (partitionPending > 0) {
+                        InetSocketAddress node = node(vbid);
+                        if (node != null) {
+                            nodes.merge(node, partitionPending, Long::sum);
+                        }
+                    }
+                }
+            }
+            long messages = ss.dataEventsReceived();
+            StreamLag before = previous.streams.get(streamId);
+            double msgsPerSec = 0;
+            double seqnosPerSec = 0;
+            if (before != null && elapsedSecs > 0) {
+                msgsPerSec = (messages - before.messages) / elapsedSecs;
+                seqnosPerSec = Math.max(0, seqnos - before.seqnos) / elapsedSecs;
+            }
+            streams.put(streamId, new StreamLag(streamId, pending, seqnos, messages, msgsPerSec, seqnosPerSec));
+            totalPending += pending;
+        }
+        snapshot = new Snapshot(now, Int2ObjectMaps.unmodifiable(streams), Collections.unmodifiableMap(nodes),
+                totalPending);
+        pollMillis = totalPending > previous.totalPending ? Math.max(minPollMillis, pollMillis / 2)
+                : totalPending == 0 ? Math.min(maxPollMillis, pollMillis * 2) : pollMillis;
+    }
+
+    private InetSocketAddress node(short vbid) {
+        try {
+            DcpChannel channel = client.getChannel(vbid);
+            return channel == null ? null : channel.getAddress();
+        } catch (RuntimeException e) {
+            LOGGER.trace("no master channel for vbucket {}", vbid, e);
+            return null;
+        }
+    }
+
+    /**
+     * An immutable view of the lag at the time of the last refresh.
+     */
+    public static class Snapshot {
+        private static final Snapshot EMPTY =
+                new Snapshot(System.nanoTime(), Int2ObjectMaps.emptyMap(), Collections.emptyMap(), 0);
+
+        private final long timestampNanos;
+        private final Int2ObjectMap<StreamLag> streams;
+        private final Map<InetSocketAddress, Long> pendingByNode;
+        private final long totalPending;
+
+        private Snapshot(long timestampNanos, Int2ObjectMap<StreamLag> streams,
+                Map<InetSocketAddress, Long> pendingByNode, long totalPending) {
+            this.timestampNanos = timestampNanos;
+            this.streams = streams;
+            this.pendingByNode = pendingByNode;
+            this.totalPending = totalPending;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public StreamLag getStream(int streamId) {
+            return streams.get(streamId);
+        }
+
+        public Map<InetSocketAddress, Long> getPendingByNode() {
+            return pendingByNode;
+        }
+
+        public long getTotalPending() {
+            return totalPending;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"totalPending\":" + totalPending + ", \"streams\":" + streams.values() + ", \"nodes\":"
+                    + pendingByNode + "}";
+        }
+    }
+
+    public static class StreamLag {
+        private final int streamId;
+        private final long pendingSeqnos;
+        private final long seqnos;
+        private final long messages;
+        private final double msgsPerSec;
+        private final double seqnosPerSec;
+
+        private StreamLag(int streamId, long pendingSeqnos, long seqnos, long messages, double msgsPerSec,
+                double seqnosPerSec) {
+            this.streamId = streamId;
+            this.pendingSeqnos = pendingSeqnos;
+            this.seqnos = seqnos;
+            this.messages = messages;
+            this.msgsPerSec = msgsPerSec;
+            this.seqnosPerSec = seqnosPerSec;
+        }
+
+        public int getStreamId() {
+            return streamId;
+        }
+
+        public long getPendingSeqnos() {
+            return pendingSeqnos;
+        }
+
+        public double getMsgsPerSec() {
+            return msgsPerSec;
+        }
+
+        /**
+         * Estimated time to catch up with the master seqnos at the current progress rate, or -1 if there is no
+         * progress.
+         */
+        public long getEstimatedCatchUpMillis() {
+            if (pendingSeqnos == 0) {
+                return 0;
+            }
+            return seqnosPerSec > 0 ? (long) (pendingSeqnos / seqnosPerSec * 1000) : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"sid\":" + streamId + ", \"pending\":" + pendingSeqnos + ", \"msgsPerSec\":" + msgsPerSec
+                    + ", \"etaMillis\":" + getEstimatedCatchUpMillis() + "}";
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.message.DcpDataMessage;
+import com.couchbase.client.dcp.message.DcpOsoSnapshotMarkerMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.state.StreamPartitionState;
+import com.couchbase.client.dcp.transport.netty.DcpMessageHandler;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Handles out of order (OSO) snapshots, in which a backfill sends the data events of a vbucket in key order and
+ * the seqno of the vbucket only advances at the end marker.
+ *
+ * In ordered mode the events of an OSO snapshot are buffered and delivered in seqno order when the end marker
+ * arrives, before the marker itself. Buffered events are acked at once so that the producer is not blocked by flow
+ * control; once a snapshot buffers more than {@code maxBufferedBytes}, the buffered events are sorted and spilled
+ * to a run file in the spill directory, and the runs are merged on replay. Events replayed from the buffer come
+ * with an ack handle which does nothing. If the stream ends or restarts before the end marker, the buffered
+ * snapshot is dropped: the restarted stream resumes from the seqno the vbucket had before the snapshot.
+ *
+ * The spills and the replay run on the given executor rather than on the IO thread, so that the disk does not hold
+ * up the other vbuckets of the connection. While they are pending, the later events and markers of the vbucket are
+ * queued behind them and delivered on the executor, in order; a failure to spill or replay is thrown on the IO
+ * thread at the next event of the vbucket.
+ *
+ * In pass through mode the events are delivered in key order as they arrive, and only the progress is tracked.
+ *
+ * Either way, {@link #checkpointSeqno(int, short)} is a seqno which is safe to restart from: every event of the
+ * vbucket at or below it has been delivered. It does not move while an OSO snapshot is in progress, except during
+ * the ordered replay, where it follows the replayed events.
+ *
+ * Register {@link #controlEventHandler(ControlEventHandler)} as the control event handler of the client so that
+ * the snapshot markers and stream ends are seen by the stage.
+ */
+public class OsoOrderingHandler implements ClientDataEventHandler {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Comparator<Pending> BY_SEQNO = (a, b) -> Long.compareUnsigned(a.seqno, b.seqno);
+
+    private final ClientDataEventHandler downstream;
+    private final boolean ordered;
+    private final long maxBufferedBytes;
+    private final File spillDirectory;
+    private final Executor executor;
+    // (sid, vbid) -> progress of the vbucket
+    private final Int2ObjectMap<Progress> progress = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Creates a stage which replays OSO snapshots in seqno order.
+     *
+     * @param maxBufferedBytes
+     *            the bytes an OSO snapshot may buffer in memory before they are spilled to disk.
+     * @param spillDirectory
+     *            the directory of the run files, null for the default temporary directory.
+     * @param executor
+     *            the executor of the spills and replays, which block on the disk.
+     */
+    public OsoOrderingHandler(ClientDataEventHandler downstream, long maxBufferedBytes, File spillDirectory,
+            Executor executor) {
+        this(downstream, true, maxBufferedBytes, spillDirectory, executor);
+    }
+
+    /**
+     * Creates a stage which passes the events of OSO snapshots through in key order and only tracks the progress.
+     */
+    public OsoOrderingHandler(ClientDataEventHandler downstream) {
+        this(downstream, false, 0, null, null);
+    }
+
+    private OsoOrderingHandler(ClientDataEventHandler downstream, boolean ordered, long maxBufferedBytes,
+            File spillDirectory, Executor executor) {
+        this.downstream = downstream;
+        this.ordered = ordered;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.spillDirectory = spillDirectory;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        Progress p = progress(MessageUtil.streamId(event), MessageUtil.getVbucket(event));
+        long seqno = DcpDataMessage.bySeqno(event);
+        p.rethrow(event);
+        synchronized (p) {
+            if (p.inOso) {
+                p.osoEvents++;
+                if (ordered) {
+                    p.buffer(ackHandle, event, seqno);
+                    return;
+                }
+            }
+        }
+        p.deliver(event, () -> {
+            synchronized (p) {
+                if (!p.inOso) {
+                    p.checkpointSeqno = seqno;
+                }
+            }
+            downstream.onEvent(ackHandle, event);
+        });
+    }
+
+    /**
+     * Wraps the control event handler of the client to observe the snapshot markers and stream ends.
+     */
+    public ControlEventHandler controlEventHandler(ControlEventHandler next) {
+        return (ackHandle, event) -> {
+            Progress p;
+            switch (event.getByte(1)) {
+                case MessageUtil.DCP_OSO_SNAPSHOT_MARKER_OPCODE:
+                    p = progress(MessageUtil.streamId(event), DcpOsoSnapshotMarkerMessage.vbucket(event));
+                    p.rethrow(event);
+                    if (DcpOsoSnapshotMarkerMessage.begin(event)) {
+                        synchronized (p) {
+                            p.discard();
+                            p.inOso = true;
+                            p.osoEvents = 0;
+                        }
+                    } else if (DcpOsoSnapshotMarkerMessage.end(event)) {
+                        end(p, DcpOsoSnapshotMarkerMessage.maxSeqNo(event));
+                    }
+                    break;
+                case MessageUtil.DCP_SNAPSHOT_MARKER_OPCODE:
+                case MessageUtil.DCP_STREAM_END_OPCODE:
+                    // a stream which restarts after a channel drop gets no stream end, only the marker of the
+                    // snapshot it resumes with
+                    p = progress(MessageUtil.streamId(event), MessageUtil.getVbucket(event));
+                    p.rethrow(event);
+                    synchronized (p) {
+                        if (p.inOso) {
+                            LOGGER.info("dropping an incomplete OSO snapshot of vbucket {} with {} events",
+                                    MessageUtil.getVbucket(event), p.osoEvents);
+                        }
+                        p.discard();
+                        p.inOso = false;
+                    }
+                    break;
+                case MessageUtil.DCP_SEQNO_ADVANCED_OPCODE:
+                case MessageUtil.DCP_SYSTEM_EVENT_OPCODE:
+                    p = progress(MessageUtil.streamId(event), MessageUtil.getVbucket(event));
+                    p.rethrow(event);
+                    break;
+                default:
+                    next.onEvent(ackHandle, event);
+                    return;
+            }
+            p.deliver(event, () -> next.onEvent(ackHandle, event));
+        };
+    }
+
+    /**
+     * Returns a seqno of the vbucket which is safe to checkpoint and restart from.
+     */
+    public long checkpointSeqno(int streamId, short vbid) {
+        Progress p = progress(streamId, vbid);
+        synchronized (p) {
+            return p.checkpointSeqno;
+        }
+    }
+
+    /**
+     * Whether an OSO snapshot of the vbucket is in progress.
+     */
+    public boolean inOso(int streamId, short vbid) {
+        Progress p = progress(streamId, vbid);
+        synchronized (p) {
+            return p.inOso;
+        }
+    }
+
+    /**
+     * Returns the number of events received in the OSO snapshot of the vbucket in progress, or in the last one.
+     */
+    public long osoEvents(int streamId, short vbid) {
+        Progress p = progress(streamId, vbid);
+        synchronized (p) {
+            return p.osoEvents;
+        }
+    }
+
+    private void end(Progress p, long maxSeqno) {
+        final List<Pending> memory;
+        synchronized (p) {
+            if (!p.inOso) {
+                return;
+            }
+            p.inOso = false;
+            memory = p.memory;
+            p.memory = new ArrayList<>();
+            p.bytes = 0;
+        }
+        if (!ordered) {
+            setCheckpoint(p, maxSeqno);
+            return;
+        }
+        // after the spills of the snapshot, which are queued before
+        // the replay stays on the calling thread when the whole snapshot is in memory
+        p.enqueue(() -> p.runs.isEmpty(), () -> {
+            List<File> runs = p.takeRuns();
+            try {
+                replay(p, memory, runs);
+            } finally {
+                for (File run : runs) {
+                    delete(run);
+                }
+            }
+            setCheckpoint(p, maxSeqno);
+        }, () -> releaseAll(memory));
+    }
+
+    private static void setCheckpoint(Progress p, long maxSeqno) {
+        // the end marker also covers the seqnos of the snapshot which were not sent, e.g. of other collections
+        if (maxSeqno != StreamPartitionState.INVALID_SEQNO) {
+            synchronized (p) {
+                p.checkpointSeqno = maxSeqno;
+            }
+        }
+    }
+
+    private static void releaseAll(List<Pending> events) {
+        for (Pending pending : events) {
+            DcpMessageHandler.release(pending.event);
+        }
+        events.clear();
+    }
+
+    private void replay(Progress p, List<Pending> memory, List<File> runs) {
+        memory.sort(BY_SEQNO);
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>((a, b) -> BY_SEQNO.compare(a.head, b.head));
+        try {
+            Cursor inMemory = new MemoryCursor(memory);
+            if (inMemory.advance()) {
+                cursors.add(inMemory);
+            }
+            for (File run : runs) {
+                Cursor cursor = new RunCursor(run);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+            while (!cursors.isEmpty()) {
+                Cursor cursor = cursors.poll();
+                try {
+                    Pending next = cursor.head;
+                    cursor.head = null;
+                    synchronized (p) {
+                        p.checkpointSeqno = next.seqno;
+                    }
+                    downstream.onEvent(DcpAckHandle.Util.NOOP_ACK_HANDLE, next.event);
+                    if (cursor.advance()) {
+                        cursors.add(cursor);
+                        cursor = null;
+                    }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to replay an OSO snapshot", e);
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private Progress progress(int streamId, short vbid) {
+        int key = streamId << 16 | (vbid & 0xFFFF);
+        synchronized (progress) {
+            Progress p = progress.get(key);
+            if (p == null) {
+                p = new Progress();
+                progress.put(key, p);
+            }
+            return p;
+        }
+    }
+
+    private static void delete(File run) {
+        if (!run.delete() && run.exists()) {
+            LOGGER.warn("failed to delete the OSO run file {}", run);
+        }
+    }
+
+    private class Progress {
+        private boolean inOso;
+        private long osoEvents;
+        private long checkpointSeqno;
+        private List<Pending> memory = new ArrayList<>();
+        private long bytes;
+        // the spills and replay of the vbucket on the executor, completed when there are none
+        private volatile CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        // the run files of the snapshot in progress, only accessed by the tasks on the executor
+        private List<File> runs = new ArrayList<>();
+        private volatile RuntimeException failure;
+
+        private void buffer(DcpAckHandle ackHandle, ByteBuf event, long seqno) {
+            // acked now: the snapshot is held here until its end marker, flow control must not wait for it
+            ackHandle.ack(event);
+            memory.add(new Pending(seqno, event));
+            bytes += event.readableBytes();
+            if (bytes > maxBufferedBytes) {
+                final List<Pending> batch = memory;
+                final long batchBytes = bytes;
+                memory = new ArrayList<>();
+                bytes = 0;
+                enqueue(() -> false, () -> spill(batch, batchBytes), () -> releaseAll(batch));
+            }
+        }
+
+        private void spill(List<Pending> batch, long batchBytes) {
+            batch.sort(BY_SEQNO);
+            File run = null;
+            try {
+                run = File.createTempFile("dcp-oso-", ".run", spillDirectory);
+                try (DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+                    for (Pending pending : batch) {
+                        out.writeLong(pending.seqno);
+                        out.writeInt(pending.event.readableBytes());
+                        pending.event.getBytes(pending.event.readerIndex(), out, pending.event.readableBytes());
+                    }
+                }
+                runs.add(run);
+                LOGGER.debug("spilled {} OSO events ({} bytes) to {}", batch.size(), batchBytes, run);
+            } catch (IOException e) {
+                if (run != null) {
+                    delete(run);
+                }
+                throw new UncheckedIOException("failed to spill an OSO snapshot", e);
+            } finally {
+                releaseAll(batch);
+            }
+        }
+
+        /**
+         * Drops the snapshot in progress; the run files are deleted after the pending spills.
+         */
+        private void discard() {
+            releaseAll(memory);
+            bytes = 0;
+            if (ordered && !tail.isDone()) {
+                enqueue(() -> false, () -> deleteRuns(takeRuns()), () -> {
+                });
+            } else {
+                deleteRuns(takeRuns());
+            }
+        }
+
+        private List<File> takeRuns() {
+            List<File> taken = runs;
+            runs = new ArrayList<>();
+            return taken;
+        }
+
+        /**
+         * Runs a task on the executor after the pending ones of the vbucket.
+         *
+         * @param inline
+         *            whether the task can run on the calling thread when nothing is pending.
+         * @param onFailure
+         *            releases what the task holds if it cannot run.
+         */
+        private void enqueue(BooleanSupplier inline, Runnable task, Runnable onFailure) {
+            CompletableFuture<Void> previous = tail;
+            if (previous.isDone() && inline.getAsBoolean()) {
+                runGuarded(task, onFailure);
+                return;
+            }
+            tail = previous.thenRunAsync(() -> runGuarded(task, onFailure), executor);
+        }
+
+        private void runGuarded(Runnable task, Runnable onFailure) {
+            if (failure != null) {
+                onFailure.run();
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("failure handling an OSO snapshot", e);
+                failure = e;
+                onFailure.run();
+            }
+        }
+
+        /**
+         * Delivers an event on the calling thread, or after the pending tasks of the vbucket if there are any. An
+         * event queued behind a failed spill or replay is released instead: the stream restarts before it.
+         */
+        private void deliver(ByteBuf event, Runnable delivery) {
+            CompletableFuture<Void> previous = tail;
+            if (previous.isDone()) {
+                delivery.run();
+            } else {
+                tail = previous.thenRunAsync(() -> {
+                    if (failure != null) {
+                        DcpMessageHandler.release(event);
+                        return;
+                    }
+                    try {
+                        delivery.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("failure delivering an event after an OSO snapshot", e);
+                    }
+                }, executor);
+            }
+        }
+
+        /**
+         * Throws the failure of a spill or replay of the vbucket on the IO thread, so that the channel is reset and
+         * the stream restarts from the checkpoint; the event is released.
+         */
+        private void rethrow(ByteBuf event) {
+            RuntimeException e = failure;
+            if (e != null && tail.isDone()) {
+                failure = null;
+                DcpMessageHandler.release(event);
+                throw e;
+            }
+        }
+    }
+
+    private static void deleteRuns(List<File> runs) {
+        for (File run : runs) {
+            delete(run);
+        }
+        runs.clear();
+    }
+
+    private static class Pending {
+        private final long seqno;
+        private final ByteBuf event;
+
+        private Pending(long seqno, ByteBuf event) {
+            this.seqno = seqno;
+            this.event = event;
+        }
+    }
+
+    private abstract static class Cursor {
+        protected Pending head;
+
+        /**
+         * Moves to the next event of the run; the current one is now owned by the caller.
+         *
+         * @return false at the end of the run
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() {
+            // nothing to close
+        }
+    }
+
+    private static class MemoryCursor extends Cursor {
+        private final List<Pending> events;
+        private int next;
+
+        private MemoryCursor(List<Pending> events) {
+            this.events = events;
+        }
+
+        @Override
+        boolean advance() {
+            head = next < events.size() ? events.get(next++) : null;
+            return head != null;
+        }
+
+        @Override
+        void close() {
+            // release the events which were not replayed
+            if (head != null) {
+                DcpMessageHandler.release(head.event);
+                head = null;
+            }
+            while (next < events.size()) {
+                DcpMessageHandler.release(events.get(next++).event);
+            }
+        }
+    }
+
+    private static class RunCursor extends Cursor {
+        private final DataInputStream in;
+
+        private RunCursor(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            long seqno;
+            try {
+                seqno = in.readLong();
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+            byte[] event = new byte[in.readInt()];
+            in.readFully(event);
+            head = new Pending(seqno, Unpooled.wrappedBuffer(event));
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOGGER.debug("failed to close an OSO run", e);
+            }
+        }
+    }
+}
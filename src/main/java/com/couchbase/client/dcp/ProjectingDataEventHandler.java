@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.util.JsonFieldProjector;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * Projects the values of mutations on a list of JSON paths, see {@link JsonFieldProjector}, and hands the event
+ * together with the projected fields to the consumer. Values are scanned in place; only snappy compressed values
+ * are decompressed first, into a pooled buffer. The xattr section of a value, if any, is skipped.
+ *
+ * The projected fields are slices of the event (or of the decompressed value) which are only valid until the
+ * consumer returns; copy them before handing them off to another thread. Other data events, and values which are
+ * not JSON objects, are handed over with no projected field.
+ */
+public class ProjectingDataEventHandler implements ClientDataEventHandler {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final ProjectedDataEventHandler downstream;
+    private final ThreadLocal<JsonFieldProjector> projectors;
+
+    public ProjectingDataEventHandler(List<String> paths, ProjectedDataEventHandler downstream) {
+        final List<String> copy = new ArrayList<>(paths);
+        this.downstream = downstream;
+        this.projectors = ThreadLocal.withInitial(() -> new JsonFieldProjector(copy));
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        final JsonFieldProjector projector = projectors.get();
+        if (!DcpMutationMessage.is(event) || !DcpMutationMessage.hasContent(event)) {
+            projector.clear();
+            downstream.onEvent(ackHandle, event, projector);
+            return;
+        }
+        final ByteBuf content = MessageUtil.getUncompressedContent(event, event.alloc());
+        try {
+            project(projector, event, content);
+            downstream.onEvent(ackHandle, event, projector);
+        } finally {
+            projector.clear();
+            content.release();
+        }
+    }
+
+    private static void project(JsonFieldProjector projector, ByteBuf event, ByteBuf content) {
+        ByteBuf body = content;
+        if ((event.getByte(MessageUtil.DATATYPE_OFFSET) & MessageUtil.DATATYPE_XATTR) != 0) {
+            final int xattrsLength = 4 + content.getInt(content.readerIndex());
+            body = content.slice(content.readerIndex() + xattrsLength, content.readableBytes() - xattrsLength);
+        }
+        try {
+            projector.project(body);
+        } catch (IllegalArgumentException e) {
+            projector.clear();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("could not project {}", MessageUtil.humanize(event), e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProjectedDataEventHandler {
+        /**
+         * Called when a data event happens; as with {@link ClientDataEventHandler}, the consumer acks and releases
+         * the event.
+         *
+         * @param projection
+         *            the projected fields of the event, only valid during the call.
+         */
+        void onEvent(DcpAckHandle ackHandle, ByteBuf event, JsonFieldProjector projection);
+    }
+}
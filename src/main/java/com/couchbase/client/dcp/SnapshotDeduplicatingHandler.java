@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.config.DcpControl;
+import com.couchbase.client.dcp.events.StreamEndEvent;
+import com.couchbase.client.dcp.message.DcpDataMessage;
+import com.couchbase.client.dcp.message.DcpSnapshotMarkerRequest;
+import com.couchbase.client.dcp.message.DcpStreamEndMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.transport.netty.DcpMessageHandler;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Buffers the data events of each DCP snapshot and delivers only the last version of every key, in seqno order,
+ * once the snapshot is complete. Superseded versions are acked and released as soon as they are replaced.
+ *
+ * A snapshot is complete when the event with its end seqno arrives, or else when the next snapshot marker or
+ * the stream end of the vbucket arrives.
+ *
+ * Buffered events are not acked, so they hold the flow control window of their connection, which all the vbuckets
+ * of the connection share: if they filled it, the producer would stop before sending the events which complete the
+ * snapshots, and every stream of the connection would hang. The bytes buffered by all the snapshots together are
+ * therefore capped by {@code maxBufferedBytes}, which must leave room in the connection buffer for the buffer ack
+ * watermark to be reached; the snapshot whose event crosses the cap is delivered early, at the expense of its
+ * atomicity.
+ *
+ * The client advances the seqno of a vbucket as the events reach the stage, so a stream which restarts after a
+ * channel drop resumes after the buffered events. The buffered snapshot is therefore handed downstream when the
+ * stream end of the drop is published, and if the restarted stream resumes within it (e.g. after a rollback), the
+ * events it sends again are acked and released rather than delivered twice.
+ *
+ * Register {@link #controlEventHandler(ControlEventHandler)} as the control event handler and
+ * {@link #systemEventHandler(SystemEventHandler)} as the system event handler of the client so that snapshot
+ * boundaries and stream restarts are seen by the stage, and {@link #close()} it with the client.
+ */
+public class SnapshotDeduplicatingHandler implements ClientDataEventHandler, AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final ClientDataEventHandler downstream;
+    private final long maxBufferedBytes;
+    // (sid, vbid) -> snapshot being buffered
+    private final Int2ObjectMap<Snapshot> snapshots = new Int2ObjectOpenHashMap<>();
+    // bytes buffered by all the snapshots
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param maxBufferedBytes
+     *            the bytes all the snapshots may buffer together.
+     * @param dcpControl
+     *            the DCP control params of the client, whose connection buffer bounds the buffered bytes.
+     * @param ackWatermark
+     *            the buffer ack watermark of the client, in percent.
+     */
+    public SnapshotDeduplicatingHandler(ClientDataEventHandler downstream, long maxBufferedBytes,
+            DcpControl dcpControl, int ackWatermark) {
+        if (maxBufferedBytes < 0) {
+            throw new IllegalArgumentException("maxBufferedBytes must not be negative");
+        }
+        if (dcpControl.ackEnabled()) {
+            int bufferSize = Integer.parseInt(dcpControl.get(DcpControl.Names.CONNECTION_BUFFER_SIZE));
+            long ackThreshold = Math.round(bufferSize / 100.0 * ackWatermark);
+            if (maxBufferedBytes >= bufferSize - ackThreshold) {
+                throw new IllegalArgumentException("maxBufferedBytes (" + maxBufferedBytes
+                        + ") must be below the connection buffer size (" + bufferSize
+                        + ") minus the buffer ack watermark (" + ackThreshold + ")");
+            }
+        }
+        this.downstream = downstream;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        Snapshot snapshot = snapshot(MessageUtil.streamId(event), MessageUtil.getVbucket(event));
+        List<Pending> ready = null;
+        synchronized (snapshot) {
+            if (closed) {
+                ackHandle.ack(event);
+                DcpMessageHandler.release(event);
+                return;
+            }
+            long before = snapshot.bytes;
+            Pending replaced = snapshot.add(new Pending(ackHandle, event));
+            if (replaced != null) {
+                replaced.ackHandle.ack(replaced.event);
+                DcpMessageHandler.release(replaced.event);
+            }
+            long total = bufferedBytes.addAndGet(snapshot.bytes - before);
+            if (DcpDataMessage.bySeqno(event) >= snapshot.endSeqno || total > maxBufferedBytes) {
+                ready = drain(snapshot);
+            }
+        }
+        deliver(ready);
+    }
+
+    /**
+     * Wraps the control event handler of the client to observe snapshot markers and stream ends.
+     */
+    public ControlEventHandler controlEventHandler(ControlEventHandler next) {
+        return (ackHandle, event) -> {
+            switch (event.getByte(1)) {
+                case MessageUtil.DCP_SNAPSHOT_MARKER_OPCODE: {
+                    Snapshot snapshot =
+                            snapshot(MessageUtil.streamId(event), DcpSnapshotMarkerRequest.partition(event));
+                    long startSeqno = DcpSnapshotMarkerRequest.startSeqno(event);
+                    List<Pending> ready;
+                    synchronized (snapshot) {
+                        if (snapshot.overlaps(startSeqno)) {
+                            // the stream restarted within the buffered snapshot and sends its tail again
+                            LOGGER.debug("stream {} restarted at {} within a buffered snapshot of vbucket {}",
+                                    MessageUtil.streamId(event), Long.toUnsignedString(startSeqno),
+                                    DcpSnapshotMarkerRequest.partition(event));
+                            bufferedBytes.addAndGet(-snapshot.bytes);
+                            ready = snapshot.drain(startSeqno);
+                        } else {
+                            ready = drain(snapshot);
+                        }
+                        snapshot.endSeqno = DcpSnapshotMarkerRequest.endSeqno(event);
+                    }
+                    deliver(ready);
+                    break;
+                }
+                case MessageUtil.DCP_STREAM_END_OPCODE: {
+                    Snapshot snapshot = snapshot(MessageUtil.streamId(event), DcpStreamEndMessage.vbucket(event));
+                    List<Pending> ready;
+                    synchronized (snapshot) {
+                        ready = drain(snapshot);
+                    }
+                    deliver(ready);
+                    break;
+                }
+                default:
+                    break;
+            }
+            next.onEvent(ackHandle, event);
+        };
+    }
+
+    /**
+     * Wraps the system event handler of the client to observe the stream ends of dropped channels, which are not
+     * seen by the control event handler. The buffered snapshot of the vbucket is delivered, since the restarted
+     * stream resumes after it, rather than held until the restarted stream sends its first marker.
+     */
+    public SystemEventHandler systemEventHandler(SystemEventHandler next) {
+        return event -> {
+            if (event instanceof StreamEndEvent) {
+                StreamEndEvent streamEnd = (StreamEndEvent) event;
+                Snapshot snapshot = snapshot(streamEnd.getStreamState().streamId(), streamEnd.partition());
+                // delivered under the lock, before the events of the restarted stream are buffered
+                synchronized (snapshot) {
+                    deliver(drain(snapshot));
+                    snapshot.endSeqno = Long.MAX_VALUE;
+                }
+            }
+            next.onEvent(event);
+        };
+    }
+
+    /**
+     * Acks and releases all the buffered events; events received afterwards are acked and released at once.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<Snapshot> all;
+        synchronized (snapshots) {
+            all = new ArrayList<>(snapshots.values());
+        }
+        for (Snapshot snapshot : all) {
+            synchronized (snapshot) {
+                release(drain(snapshot));
+            }
+        }
+    }
+
+    private static void release(List<Pending> dropped) {
+        if (dropped != null) {
+            for (Pending pending : dropped) {
+                pending.ackHandle.ack(pending.event);
+                DcpMessageHandler.release(pending.event);
+            }
+        }
+    }
+
+    private List<Pending> drain(Snapshot snapshot) {
+        bufferedBytes.addAndGet(-snapshot.bytes);
+        return snapshot.drain();
+    }
+
+    private void deliver(List<Pending> ready) {
+        if (ready != null) {
+            for (Pending pending : ready) {
+                downstream.onEvent(pending.ackHandle, pending.event);
+            }
+        }
+    }
+
+    private Snapshot snapshot(int streamId, short vbid) {
+        int key = streamId << 16 | (vbid & 0xFFFF);
+        synchronized (snapshots) {
+            Snapshot snapshot = snapshots.get(key);
+            if (snapshot == null) {
+                snapshot = new Snapshot();
+                snapshots.put(key, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    private static class Snapshot {
+        // raw key (with collection prefix) -> latest version, in seqno order
+        private final Map<ByteBuf, Pending> latest = new LinkedHashMap<>();
+        private long endSeqno = Long.MAX_VALUE;
+        private long maxSeqno;
+        private long bytes;
+
+        private Pending add(Pending pending) {
+            Pending replaced = latest.remove(pending.key);
+            latest.put(pending.key, pending);
+            maxSeqno = Math.max(maxSeqno, pending.seqno);
+            bytes += pending.event.readableBytes();
+            if (replaced != null) {
+                bytes -= replaced.event.readableBytes();
+            }
+            return replaced;
+        }
+
+        private List<Pending> drain() {
+            if (latest.isEmpty()) {
+                return null;
+            }
+            List<Pending> ready = new ArrayList<>(latest.values());
+            latest.clear();
+            bytes = 0;
+            maxSeqno = 0;
+            return ready;
+        }
+
+        /**
+         * Whether a snapshot starting at the seqno covers buffered events, which only happens when the stream
+         * restarted: the snapshots of a stream never overlap.
+         */
+        private boolean overlaps(long startSeqno) {
+            return !latest.isEmpty() && startSeqno <= maxSeqno;
+        }
+
+        /**
+         * Drains the snapshot, acking and releasing the events after the seqno, which the stream sends again.
+         *
+         * @return the events up to the seqno, in seqno order
+         */
+        private List<Pending> drain(long seqno) {
+            List<Pending> ready = new ArrayList<>(latest.size());
+            List<Pending> dropped = new ArrayList<>();
+            for (Pending pending : latest.values()) {
+                (pending.seqno <= seqno ? ready : dropped).add(pending);
+            }
+            latest.clear();
+            bytes = 0;
+            maxSeqno = 0;
+            release(dropped);
+            return ready.isEmpty() ? null : ready;
+        }
+    }
+
+    private static class Pending {
+        private final DcpAckHandle ackHandle;
+        private final ByteBuf event;
+        private final ByteBuf key;
+        private final long seqno;
+
+        private Pending(DcpAckHandle ackHandle, ByteBuf event) {
+            this.ackHandle = ackHandle;
+            this.event = event;
+            this.key = MessageUtil.getKey(event, false);
+            this.seqno = DcpDataMessage.bySeqno(event);
+        }
+    }
+}
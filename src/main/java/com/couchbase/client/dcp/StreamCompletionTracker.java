@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.events.DcpEvent;
+import com.couchbase.client.dcp.events.StreamEndEvent;
+import com.couchbase.client.dcp.message.StreamEndReason;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2LongMap;
+import it.unimi.dsi.fastutil.shorts.Short2LongMaps;
+import it.unimi.dsi.fastutil.shorts.Short2LongOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+
+/**
+ * Completes a future per stream id once every expected vbucket has ended with {@link StreamEndReason#OK}, which
+ * is the case when a bounded stream (e.g. {@link StreamTo#NOW}) reached its end seqno. Partitions with an empty
+ * range, which are never opened on the server, are counted as well.
+ *
+ * Call {@link #expect(int, short...)} before starting the stream, so that no stream end is missed.
+ */
+public class StreamCompletionTracker implements SystemEventHandler {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Client client;
+    private final Int2ObjectMap<Tracked> tracked = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Creates a tracker and subscribes it to the event bus of the client.
+     */
+    public StreamCompletionTracker(Client client) {
+        this.client = client;
+        client.getEnvironment().eventBus().subscribe(this);
+    }
+
+    /**
+     * Starts tracking the completion of the given vbuckets of the stream, or of all the vbuckets of the client if
+     * none are given.
+     *
+     * @return a future completed with the completion time (epoch millis) of every vbucket
+     */
+    public synchronized CompletableFuture<Short2LongMap> expect(int streamId, short... vbids) {
+        Tracked t = new Tracked(vbids.length > 0 ? vbids : client.vbuckets());
+        Tracked previous = tracked.put(streamId, t);
+        if (previous != null) {
+            previous.future.cancel(false);
+        }
+        if (t.remaining.isEmpty()) {
+            t.future.complete(Short2LongMaps.EMPTY_MAP);
+        }
+        return t.future;
+    }
+
+    @Override
+    public void onEvent(DcpEvent event) {
+        if (event.getType() != DcpEvent.Type.STREAM_END) {
+            return;
+        }
+        StreamEndEvent endEvent = (StreamEndEvent) event;
+        if (endEvent.reason() != StreamEndReason.OK) {
+            return;
+        }
+        int streamId = endEvent.getStreamState().streamId();
+        Tracked t;
+        synchronized (this) {
+            t = tracked.get(streamId);
+            if (t == null || !t.complete(endEvent.partition(), System.currentTimeMillis())) {
+                return;
+            }
+            tracked.remove(streamId);
+        }
+        LOGGER.debug("all {} vbuckets of stream {} reached their end seqno", t.completionTimes.size(), streamId);
+        t.future.complete(Short2LongMaps.unmodifiable(t.completionTimes));
+    }
+
+    private static class Tracked {
+        private final ShortSet remaining;
+        private final Short2LongMap completionTimes;
+        private final CompletableFuture<Short2LongMap> future = new CompletableFuture<>();
+
+        private Tracked(short[] vbids) {
+            remaining = new ShortOpenHashSet(vbids);
+            completionTimes = new Short2LongOpenHashMap(vbids.length);
+        }
+
+        /**
+         * @return true if this was the last remaining vbucket
+         */
+        private boolean complete(short vbid, long time) {
+            if (!remaining.remove(vbid)) {
+                return false;
+            }
+            completionTimes.put(vbid, time);
+            return remaining.isEmpty();
+        }
+    }
+}
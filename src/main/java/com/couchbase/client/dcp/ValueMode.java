@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp;
+
+import com.couchbase.client.dcp.message.DcpOpenConnectionRequest;
+
+/**
+ * Which parts of the documents the producer sends in the data events. Leaving the values out saves the network
+ * and the decoding for consumers which only need the keys and sequence numbers, such as key existence indexes.
+ */
+public enum ValueMode {
+    /**
+     * The full document values.
+     */
+    FULL(0),
+
+    /**
+     * Only the keys and the metadata (cas, seqnos, flags, expiry); the events carry no value.
+     */
+    KEY_ONLY(DcpOpenConnectionRequest.NO_VALUE),
+
+    /**
+     * Only the keys, the metadata and the extended attributes; the values hold the xattr section and no body, see
+     * {@link com.couchbase.client.dcp.message.XattrReader}.
+     */
+    XATTRS_ONLY(DcpOpenConnectionRequest.NO_VALUE | DcpOpenConnectionRequest.INCLUDE_XATTRS);
+
+    private final int openConnectionFlags;
+
+    ValueMode(int openConnectionFlags) {
+        this.openConnectionFlags = openConnectionFlags;
+    }
+
+    /**
+     * The flags of the open connection request asking the producer for this mode.
+     */
+    public int openConnectionFlags() {
+        return openConnectionFlags;
+    }
+}
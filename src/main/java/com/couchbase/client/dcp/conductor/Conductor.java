@@ -6,9 +6,17 @@ package com.couchbase.client.dcp.conductor;
 import static com.couchbase.client.core.env.NetworkResolution.EXTERNAL;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import org.apache.hyracks.api.util.InvokeUtil;
 import org.apache.hyracks.util.NetworkUtil;
@@ -22,24 +30,26 @@ import com.couchbase.client.core.logging.CouchbaseLogLevel;
 import com.couchbase.client.core.logging.CouchbaseLogger;
 import com.couchbase.client.core.logging.CouchbaseLoggerFactory;
 import com.couchbase.client.core.service.ServiceType;
-import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.config.ClientEnvironment;
 import com.couchbase.client.dcp.events.ChannelDroppedEvent;
 import com.couchbase.client.dcp.message.CollectionsManifest;
+import com.couchbase.client.dcp.state.SessionPartitionState;
 import com.couchbase.client.dcp.state.SessionState;
 import com.couchbase.client.dcp.state.StreamRequest;
 import com.couchbase.client.dcp.state.StreamState;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 
 public class Conductor {
 
     private static final CouchbaseLogger LOGGER = CouchbaseLoggerFactory.getInstance(Conductor.class);
     public static final String KEY_BUCKET_UUID = "bucket_uuid=";
     private final ConfigProvider configProvider; // changes
-    private final Map<InetSocketAddress, DcpChannel> channels; // changes
+    // the connections against each node, vbuckets are striped across them; a removed connection leaves a null slot
+    private final Map<InetSocketAddress, DcpChannel[]> channels; // changes
     private final ClientEnvironment env; // constant
-    private SessionState sessionState;
+    private volatile SessionState sessionState;
     private final Fixer fixer; // final
-    private Thread fixerThread; // once per connect
+    private Thread fixerThread; // once per connect, null when the fixer runs on the shared recovery scheduler
     private volatile boolean connected = false;
     private volatile boolean established;
 
@@ -48,6 +58,7 @@ public class Conductor {
         configProvider = cp == null ? new NonStreamingConfigProvider(env) : cp;
         channels = new ConcurrentHashMap<>();
         fixer = new Fixer(this);
+        env.metricsRegistry().register(this::collectStreamMetrics);
         env.setSystemEventHandler(fixer);
     }
 
@@ -84,7 +95,7 @@ public class Conductor {
     public void disconnect(boolean wait) throws InterruptedException {
         LOGGER.info("Conductor.disconnect called.");
         fixer.poison();
-        if (sessionState != null && Thread.currentThread() != fixerThread) {
+        if (sessionState != null && !fixer.isCurrentThread()) {
             sessionState.setDisconnected();
         }
         if (!connected) {
@@ -95,6 +106,8 @@ public class Conductor {
             LOGGER.info("Waiting for fixer thread to finish.");
             lastFixerThread.join();
             LOGGER.info("Fixer thread finished.");
+        } else if (lastFixerThread == null && !fixer.isCurrentThread()) {
+            fixer.waitTillStopped();
         }
         fixerThread = null;
         synchronized (this) {
@@ -104,11 +117,11 @@ public class Conductor {
             connected = false;
             LOGGER.info("Instructed to shutdown dcp channels.");
             synchronized (channels) {
-                for (DcpChannel channel : channels.values()) {
+                for (DcpChannel channel : allChannels()) {
                     channel.disconnect(false);
                 }
                 if (wait) {
-                    for (DcpChannel channel : channels.values()) {
+                    for (DcpChannel channel : allChannels()) {
                         channel.wait(State.DISCONNECTED);
                         LOGGER.info(channel + " disconnected");
                     }
@@ -129,23 +142,71 @@ public class Conductor {
         sessionState.streamState(streamId).waitTillCurrentSeqUpdated(env.partitionRequestsTimeout());
     }
 
-    public void requestSeqnos(int streamId) {
+    public CompletableFuture<StreamState> requestSeqnos(int streamId) {
         short[] vbuckets = env.vbuckets();
         final StreamState streamState = sessionState.streamState(streamId);
         LOGGER.debug("Getting sequence numbers for {} vbuckets on sid {}", vbuckets.length, streamId);
-        streamState.currentSeqRequest(vbuckets.length);
+        CompletableFuture<StreamState> future = streamState.currentSeqRequest(vbuckets.length);
         synchronized (channels) {
-            for (DcpChannel channel : channels.values()) {
-                channel.getSeqnos(streamState);
+            // every connection against a node would return the seqnos of all the vbuckets of the node; ask one
+            for (DcpChannel[] nodeChannels : channels.values()) {
+                DcpChannel channel = firstChannel(nodeChannels);
+                if (channel != null) {
+                    channel.getSeqnos(streamState);
+                }
             }
         }
+        return future;
     }
 
-    public void requestFailoverLog(short vbid) {
-        sessionState.get(vbid).failoverRequest();
+    /**
+     * Requests the seqnos of the stream independently of its current seqnos request, so that a periodic refresh
+     * does not interfere with the callers of {@link #requestSeqnos(int)} and {@link #waitForSeqnos(int)}.
+     */
+    public CompletableFuture<StreamState> fetchSeqnos(int streamId) {
+        short[] vbuckets = env.vbuckets();
+        final StreamState streamState = sessionState.streamState(streamId);
+        if (streamState == null) {
+            CompletableFuture<StreamState> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("unknown stream " + streamId));
+            return future;
+        }
+        LOGGER.debug("Fetching sequence numbers for {} vbuckets on sid {}", vbuckets.length, streamId);
+        StreamState.SeqnosRequest request = streamState.newSeqRequest(vbuckets.length);
+        synchronized (channels) {
+            for (DcpChannel[] nodeChannels : channels.values()) {
+                DcpChannel channel = firstChannel(nodeChannels);
+                if (channel != null) {
+                    channel.fetchSeqnos(streamState, request);
+                }
+            }
+        }
+        return request.future();
+    }
+
+    public CompletableFuture<SessionPartitionState> requestFailoverLog(short vbid) {
+        CompletableFuture<SessionPartitionState> future = sessionState.get(vbid).failoverRequest();
         synchronized (channels) {
             masterChannelByPartition(vbid).getFailoverLog(vbid);
         }
+        return future;
+    }
+
+    /**
+     * Fails the supplied request future with a {@link TimeoutException} if it is not completed within the
+     * partition requests timeout. The timer runs on the event loop group, no thread waits for the reply.
+     */
+    public <T> CompletableFuture<T> withPartitionRequestTimeout(CompletableFuture<T> future, String description) {
+        if (future.isDone()) {
+            return future;
+        }
+        final long timeout = env.partitionRequestsTimeout();
+        ScheduledFuture<?> timer = env.eventLoopGroup().schedule(
+                () -> future.completeExceptionally(
+                        new TimeoutException(timeout / 1000.0 + "s passed before obtaining " + description)),
+                timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, failure) -> timer.cancel(false));
+        return future;
     }
 
     public void waitForFailoverLog(short vbid) throws Throwable {
@@ -161,6 +222,23 @@ public class Conductor {
         }
     }
 
+    /**
+     * Opens the streams for all the given requests, grouped per node so that each channel writes its requests
+     * with a single flush.
+     */
+    public void startStreamsForPartitions(List<StreamRequest> requests) {
+        synchronized (channels) {
+            Map<DcpChannel, List<StreamRequest>> byChannel = new LinkedHashMap<>();
+            for (StreamRequest request : requests) {
+                byChannel.computeIfAbsent(masterChannelByPartition(request.getPartition()), c -> new ArrayList<>())
+                        .add(request);
+            }
+            for (Map.Entry<DcpChannel, List<StreamRequest>> entry : byChannel.entrySet()) {
+                entry.getKey().openStreamBatch(entry.getValue());
+            }
+        }
+    }
+
     /**
      * Returns the dcp channel responsible for a given vbucket id according to the current
      * configuration.
@@ -197,7 +275,7 @@ public class Conductor {
             if (services.containsKey(ServiceType.BINARY)) {
                 int altPort = services.get(ServiceType.BINARY);
                 InetSocketAddress altAddress = new InetSocketAddress(aa.hostname(), altPort);
-                return channels.get(altAddress);
+                return stripe(channels.get(altAddress), partition);
             } else {
                 LOGGER.debug(
                         "partition {} master node {} does not provide the KV service on its external alternate address {}",
@@ -208,7 +286,7 @@ public class Conductor {
         } else {
             InetSocketAddress address = new InetSocketAddress(node.hostname(),
                     (env.sslEnabled() ? node.sslServices() : node.services()).get(ServiceType.BINARY));
-            return channels.get(address);
+            return stripe(channels.get(address), partition);
         }
     }
 
@@ -220,8 +298,8 @@ public class Conductor {
         }
     }
 
-    public void add(NodeInfo node, CouchbaseBucketConfig config, long attemptTimeout, long totalTimeout, Delay delay)
-            throws Throwable {
+    public void add(NodeInfo node, CouchbaseBucketConfig config, long attemptTimeout, long totalTimeout,
+            RetryPolicy retryPolicy) throws Throwable {
         synchronized (channels) {
             if (!config.hasPrimaryPartitionsOnNode(node.hostname())) {
                 return;
@@ -250,14 +328,56 @@ public class Conductor {
                 }
                 address = new InetSocketAddress(node.hostname(), services.get(ServiceType.BINARY));
             }
-            if (channels.containsKey(address)) {
-                return;
+            DcpChannel[] nodeChannels =
+                    channels.computeIfAbsent(address, a -> new DcpChannel[env.connectionsPerNode()]);
+            try {
+                for (int i = 0; i < nodeChannels.length; i++) {
+                    if (nodeChannels[i] != null) {
+                        continue;
+                    }
+                    DcpChannel channel = new DcpChannel(address, i, node.hostname(), env, sessionState,
+                            configProvider.config().numberOfPartitions(), configProvider.isCollectionCapable());
+                    LOGGER.debug("Adding DCP Channel #{} against {}", i, node);
+                    channel.connect(attemptTimeout, totalTimeout, retryPolicy);
+                    nodeChannels[i] = channel;
+                    // not before: a channel which fails to connect is dropped without removeChannel
+                    env.metricsRegistry().register(channel.metrics());
+                }
+            } finally {
+                if (firstChannel(nodeChannels) == null) {
+                    channels.remove(address);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the connection of the node the partition is striped to, null if there is none.
+     */
+    private static DcpChannel stripe(DcpChannel[] nodeChannels, short partition) {
+        return nodeChannels == null ? null : nodeChannels[partition % nodeChannels.length];
+    }
+
+    private static DcpChannel firstChannel(DcpChannel[] nodeChannels) {
+        for (DcpChannel channel : nodeChannels) {
+            if (channel != null) {
+                return channel;
             }
-            DcpChannel channel = new DcpChannel(address, node.hostname(), env, sessionState,
-                    configProvider.config().numberOfPartitions(), configProvider.isCollectionCapable());
-            LOGGER.debug("Adding DCP Channel against {}", node);
-            channel.connect(attemptTimeout, totalTimeout, delay);
-            channels.put(address, channel);
+        }
+        return null;
+    }
+
+    private List<DcpChannel> allChannels() {
+        synchronized (channels) {
+            List<DcpChannel> all = new ArrayList<>();
+            for (DcpChannel[] nodeChannels : channels.values()) {
+                for (DcpChannel channel : nodeChannels) {
+                    if (channel != null) {
+                        all.add(channel);
+                    }
+                }
+            }
+            return all;
         }
     }
 
@@ -278,21 +398,35 @@ public class Conductor {
             return;
         }
         established = true;
-        // create fixer thread
+        // create fixer thread, unless the fixer runs on a recovery scheduler and executor shared between clients
         CouchbaseBucketConfig config = configProvider.config();
-        fixerThread = new Thread(fixer);
-        fixerThread.start();
-        InvokeUtil.doUninterruptibly(fixer::waitTillStarted);
+        ScheduledExecutorService recoveryScheduler = env.recoveryScheduler();
+        if (recoveryScheduler != null && env.recoveryExecutor() != null) {
+            fixer.start(recoveryScheduler, env.recoveryExecutor());
+        } else {
+            fixerThread = new Thread(fixer);
+            fixerThread.start();
+            InvokeUtil.doUninterruptibly(fixer::waitTillStarted);
+        }
         for (NodeInfo node : config.nodes()) {
             add(node, config, env.dcpChannelAttemptTimeout(), env.dcpChannelTotalTimeout(),
-                    env.dcpChannelsReconnectDelay());
+                    env.dcpChannelsRetryPolicy());
+        }
+    }
+
+    public CompletableFuture<CollectionsManifest> requestCollectionsManifest() {
+        if (config().capabilities().contains(BucketCapabilities.COLLECTIONS)) {
+            synchronized (channels) {
+                return sessionState.requestCollectionsManifest(allChannels().get(0));
+            }
         }
+        return CompletableFuture.completedFuture(sessionState.getCollectionsManifest());
     }
 
     public CollectionsManifest getCollectionsManifest() throws InterruptedException, TimeoutException {
         if (config().capabilities().contains(BucketCapabilities.COLLECTIONS)) {
             synchronized (channels) {
-                sessionState.requestCollectionsManifest(channels.values().iterator().next());
+                sessionState.requestCollectionsManifest(allChannels().get(0));
             }
             return sessionState.waitForCollectionsManifest(env.partitionRequestsTimeout());
         }
@@ -303,25 +437,48 @@ public class Conductor {
         return masterChannelByPartition(vbid);
     }
 
+    private void collectStreamMetrics(BiConsumer<String, Number> sink) {
+        final SessionState session = sessionState;
+        if (session == null) {
+            return;
+        }
+        session.streamStream().forEach(ss -> {
+            String prefix = "dcp.stream." + ss.streamId() + ".";
+            sink.accept(prefix + "messages", ss.dataEventsReceived());
+            sink.accept(prefix + "bytes", ss.dataBytesReceived());
+        });
+    }
+
     public void removeChannel(DcpChannel channel) {
         synchronized (channels) {
-            channels.remove(channel.getAddress());
+            DcpChannel[] nodeChannels = channels.get(channel.getAddress());
+            if (nodeChannels != null && nodeChannels[channel.getConnectionIndex()] == channel) {
+                nodeChannels[channel.getConnectionIndex()] = null;
+                if (firstChannel(nodeChannels) == null) {
+                    channels.remove(channel.getAddress());
+                }
+            }
         }
+        env.metricsRegistry().unregister(channel.metrics());
     }
 
-    public Map<InetSocketAddress, DcpChannel> getChannels() {
+    /**
+     * Returns the connections against each node, indexed by {@link DcpChannel#getConnectionIndex()}; slots of
+     * removed connections are null. Access must be synchronized on the returned map.
+     */
+    public Map<InetSocketAddress, DcpChannel[]> getChannels() {
         return channels;
     }
 
-    public void reviveDeadConnections(long attemptTimeout, long totalTimeout, Delay delay) {
+    public void reviveDeadConnections(long attemptTimeout, long totalTimeout, RetryPolicy retryPolicy) {
         synchronized (channels) {
-            for (DcpChannel channel : channels.values()) {
+            for (DcpChannel channel : allChannels()) {
                 synchronized (channel) {
                     if (channel.producerDroppedConnection()) {
                         try {
                             channel.disconnect(true);
                             try {
-                                channel.connect(attemptTimeout, totalTimeout, delay);
+                                channel.connect(attemptTimeout, totalTimeout, retryPolicy);
                             } catch (Throwable e) {
                                 // Disconnect succeeded but connect failed
                                 LOGGER.log(CouchbaseLogLevel.WARN,
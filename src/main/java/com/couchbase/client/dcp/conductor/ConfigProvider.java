@@ -5,6 +5,7 @@ package com.couchbase.client.dcp.conductor;
 
 import com.couchbase.client.core.config.CouchbaseBucketConfig;
 import com.couchbase.client.core.time.Delay;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 
 public interface ConfigProvider {
 
@@ -33,11 +34,20 @@ public interface ConfigProvider {
      *            The timeout per connection attempt.
      * @param totalTimeout
      *            The total timeout
-     * @param delay
-     *            delay between attempts
+     * @param retryPolicy
+     *            backoff between attempts
      * @throws Throwable
      */
-    void refresh(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable;
+    void refresh(long attemptTimeout, long totalTimeout, RetryPolicy retryPolicy) throws Throwable;
+
+    /**
+     * @deprecated use {@link #refresh(long, long, RetryPolicy)}; the delay is adapted with
+     *             {@link RetryPolicy#of(Delay)}.
+     */
+    @Deprecated
+    default void refresh(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable {
+        refresh(attemptTimeout, totalTimeout, RetryPolicy.of(delay));
+    }
 
     /**
      * @return the last acquired configuration
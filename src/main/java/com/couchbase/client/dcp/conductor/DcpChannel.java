@@ -7,7 +7,14 @@ import static com.couchbase.client.dcp.util.retry.RetryUtil.shouldRetry;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -19,29 +26,29 @@ import com.couchbase.client.core.state.NotConnectedException;
 import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.config.ClientEnvironment;
 import com.couchbase.client.dcp.events.StreamEndEvent;
+import com.couchbase.client.dcp.jfr.DcpFlightRecorder;
 import com.couchbase.client.dcp.message.DcpCloseStreamRequest;
 import com.couchbase.client.dcp.message.DcpFailoverLogRequest;
 import com.couchbase.client.dcp.message.DcpGetCollectionsManifestRequest;
 import com.couchbase.client.dcp.message.DcpGetPartitionSeqnosRequest;
 import com.couchbase.client.dcp.message.DcpOpenStreamRequest;
+import com.couchbase.client.dcp.message.MessageUtil;
 import com.couchbase.client.dcp.message.StreamEndReason;
 import com.couchbase.client.dcp.message.VbucketState;
+import com.couchbase.client.dcp.metrics.ChannelMetrics;
 import com.couchbase.client.dcp.state.SessionState;
 import com.couchbase.client.dcp.state.StreamPartitionState;
 import com.couchbase.client.dcp.state.StreamRequest;
 import com.couchbase.client.dcp.state.StreamState;
 import com.couchbase.client.dcp.transport.netty.ChannelUtils;
 import com.couchbase.client.dcp.transport.netty.DcpPipeline;
+import com.couchbase.client.dcp.transport.netty.EventLoopMonitor;
 import com.couchbase.client.dcp.util.CollectionsUtil;
-import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
-import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ArrayNode;
-import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 import com.couchbase.client.deps.io.netty.bootstrap.Bootstrap;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
-import com.couchbase.client.deps.io.netty.buffer.PooledByteBufAllocator;
 import com.couchbase.client.deps.io.netty.buffer.Unpooled;
-import com.couchbase.client.deps.io.netty.buffer.UnpooledByteBufAllocator;
 import com.couchbase.client.deps.io.netty.channel.Channel;
 import com.couchbase.client.deps.io.netty.channel.ChannelFuture;
 import com.couchbase.client.deps.io.netty.channel.ChannelFutureListener;
@@ -52,11 +59,14 @@ import it.unimi.dsi.fastutil.ints.Int2BooleanOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.ints.IntSets;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 /**
  * Logical representation of a DCP cluster connection.
  *
- * The equals and hashcode are based on the {@link InetAddress}.
+ * The equals and hashcode are based on the {@link InetAddress} and the index of the connection against that address.
  */
 public class DcpChannel {
     private static final Logger LOGGER = LogManager.getLogger();
@@ -64,6 +74,7 @@ public class DcpChannel {
     private final ClientEnvironment env;
     private final String hostname;
     private final InetSocketAddress inetAddress;
+    private final int connectionIndex;
     private final boolean[] failoverLogRequests;
     private final IntSet[] openStreams;
     private final SessionState sessionState;
@@ -75,11 +86,32 @@ public class DcpChannel {
     private volatile long lastConnectionTime = System.currentTimeMillis();
     private boolean channelDroppedReported = false;
     private final boolean collectionCapable;
+    private final int maxBackfillingStreams;
+    // (sid, vbid) of streams holding a backfill admission slot
+    private final LongSet admittedStreams = new LongOpenHashSet();
+    private final Deque<StreamRequest> pendingStreams = new ArrayDeque<>();
+    private final StreamRequestValueEncoder streamRequestValueEncoder = new StreamRequestValueEncoder();
+    private final InFlightRequests inFlightRequests;
+    private final ChannelMetrics metrics;
+    // ids of the streams which paused the reads, the reads are paused as long as any of them holds it
+    private final IntSet readsPausedBy = new IntOpenHashSet();
 
     public DcpChannel(InetSocketAddress inetAddress, String hostname, final ClientEnvironment env,
             final SessionState sessionState, int numOfPartitions, boolean collectionCapable) {
+        this(inetAddress, 0, hostname, env, sessionState, numOfPartitions, collectionCapable);
+    }
+
+    /**
+     * @param connectionIndex
+     *            the index of this connection among the {@link ClientEnvironment#connectionsPerNode()} ones against
+     *            the node.
+     */
+    public DcpChannel(InetSocketAddress inetAddress, int connectionIndex, String hostname,
+            final ClientEnvironment env, final SessionState sessionState, int numOfPartitions,
+            boolean collectionCapable) {
         setState(State.DISCONNECTED);
         this.inetAddress = inetAddress;
+        this.connectionIndex = connectionIndex;
         this.hostname = hostname;
         this.env = env;
         this.sessionState = sessionState;
@@ -89,13 +121,30 @@ public class DcpChannel {
         this.closeListener = new DcpChannelCloseListener(this);
         this.deadConnectionDetectionInterval = env.getDeadConnectionDetectionInterval();
         this.collectionCapable = collectionCapable;
+        // the admission window of the node is split between its connections
+        final int connectionsPerNode = env.connectionsPerNode();
+        this.maxBackfillingStreams = env.maxBackfillingStreamsPerNode() <= 0 ? 0
+                : Math.max(1, (env.maxBackfillingStreamsPerNode() + connectionsPerNode - 1) / connectionsPerNode);
+        this.inFlightRequests = new InFlightRequests(env.eventLoopGroup(), env.partitionRequestsTimeout());
+        this.metrics = new ChannelMetrics(inetAddress.getHostString() + ":" + inetAddress.getPort()
+                + (connectionsPerNode > 1 ? "/" + connectionIndex : ""));
     }
 
     public void connect() throws Throwable {
-        connect(env.dcpChannelAttemptTimeout(), env.dcpChannelTotalTimeout(), env.dcpChannelsReconnectDelay());
+        connect(env.dcpChannelAttemptTimeout(), env.dcpChannelTotalTimeout(), env.dcpChannelsRetryPolicy());
+    }
+
+    /**
+     * @deprecated use {@link #connect(long, long, RetryPolicy)}; the delay is adapted with
+     *             {@link RetryPolicy#of(Delay)}.
+     */
+    @Deprecated
+    public void connect(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable {
+        connect(attemptTimeout, totalTimeout, RetryPolicy.of(delay));
     }
 
-    public synchronized void connect(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable {
+    public synchronized void connect(long attemptTimeout, long totalTimeout, RetryPolicy retryPolicy)
+            throws Throwable {
         if (getState() != State.DISCONNECTED) {
             throw new IllegalArgumentException(
                     "Dcp Channel is already connected or is trying to connect. State = " + getState().name());
@@ -104,7 +153,9 @@ public class DcpChannel {
         int attempt = 0;
         Throwable failure = null;
         final long startTime = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
         boolean infoEnabled = LOGGER.isInfoEnabled();
+        final RetryPolicy.Backoff backoff = retryPolicy.backoff();
         while (getState() == State.CONNECTING) {
             attempt++;
             ChannelFuture connectFuture = null;
@@ -113,8 +164,7 @@ public class DcpChannel {
                     LOGGER.info("DcpChannel connect attempt #" + attempt + " with socket connect timeout = "
                             + (int) env.dcpChannelAttemptTimeout());
                 }
-                ByteBufAllocator allocator =
-                        env.poolBuffers() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+                ByteBufAllocator allocator = env.allocator();
                 final Bootstrap bootstrap = new Bootstrap().option(ChannelOption.ALLOCATOR, allocator)
                         .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) attemptTimeout)
                         .remoteAddress(inetAddress.getHostString(), inetAddress.getPort())
@@ -129,7 +179,10 @@ public class DcpChannel {
                 }
                 LOGGER.debug("Connection established");
                 channel = connectFuture.channel();
+                // a new connection reads by default, the streams which paused the old one still need the pause
+                applyAutoRead();
                 setState(State.CONNECTED);
+                DcpFlightRecorder.get().channelConnected(this, attempt, startNanos, true);
                 break;
             } catch (InterruptedException e) {
                 LOGGER.warn("Connection was interrupted while attempting to establish DCP connection", e);
@@ -154,12 +207,19 @@ public class DcpChannel {
                     LOGGER.warn("Connection FAILED " + attempt + " times");
                     channel = null;
                     setState(State.DISCONNECTED);
+                    DcpFlightRecorder.get().channelConnected(this, attempt, startNanos, false);
                     throw failure; // NOSONAR failure is not nullable
                 }
-                Thread.sleep(delay.calculate(attempt));
+                backoff.sleep();
             }
         }
-        // attempt to restart the dropped streams
+        // attempt to restart the dropped streams, admission is granted again from scratch
+        for (LongIterator it = admittedStreams.iterator(); it.hasNext();) {
+            admitted(it.nextLong(), false);
+        }
+        admittedStreams.clear();
+        pendingStreams.clear();
+        List<StreamRequest> dropped = new ArrayList<>();
         for (short vbid = 0; vbid < openStreams.length; vbid++) {
             if (openStreams[vbid] == null) {
                 continue;
@@ -169,12 +229,10 @@ public class DcpChannel {
                 final StreamState streamState = sessionState.streamState(streamId);
                 StreamPartitionState ps = streamState.get(vbid);
                 ps.prepareNextStreamRequest(sessionState, streamState);
-                StreamRequest req = ps.getStreamRequest();
-                openStream(vbid, req.getVbucketUuid(), req.getStartSeqno(), req.getEndSeqno(),
-                        req.getSnapshotStartSeqno(), req.getSnapshotEndSeqno(), req.getManifestUid(), req.getStreamId(),
-                        req.getCids());
+                dropped.add(ps.getStreamRequest());
             }
         }
+        openStreamBatch(dropped);
         for (int i = 0; i < failoverLogRequests.length; i++) {
             if (failoverLogRequests[i]) {
                 LOGGER.debug("Re-requesting failover logs for vbucket " + i);
@@ -207,6 +265,7 @@ public class DcpChannel {
 
     public synchronized void disconnect(boolean wait) throws InterruptedException {
         LOGGER.info(toString() + " is disconnecting");
+        final long startNanos = System.nanoTime();
         switch (getState()) {
             case CONNECTED:
             case CONNECTING:
@@ -226,65 +285,85 @@ public class DcpChannel {
             wait(State.DISCONNECTED);
             LOGGER.info(toString() + " disconnected");
         }
+        DcpFlightRecorder.get().channelDisconnected(this, startNanos);
         channel = null;
     }
 
     public synchronized void openStream(final short vbid, final long vbuuid, final long startSeqno, final long endSeqno,
             final long snapshotStartSeqno, final long snapshotEndSeqno, long manifestUid, int streamId, int[] cids) {
+        openStreamBatch(Collections.singletonList(new StreamRequest(vbid, startSeqno, endSeqno, vbuuid,
+                snapshotStartSeqno, snapshotEndSeqno, manifestUid, streamId, cids)));
+    }
+
+    /**
+     * Opens a batch of streams on this channel. All admitted requests are written before a single flush;
+     * requests beyond the backfill admission window are queued until an admitted stream releases its slot.
+     */
+    public synchronized void openStreamBatch(List<StreamRequest> requests) {
+        boolean written = false;
+        for (StreamRequest request : requests) {
+            written |= openStream(request);
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    private boolean openStream(StreamRequest request) {
+        final short vbid = request.getPartition();
+        final int streamId = request.getStreamId();
         final StreamState streamState = sessionState.streamState(streamId);
         StreamPartitionState partitionState = streamState.get(vbid);
         if (getState() != State.CONNECTED) {
             StreamEndEvent endEvent = new StreamEndEvent(partitionState, streamState, StreamEndReason.CHANNEL_DROPPED);
             LOGGER.warn("Attempt to open stream on disconnected channel");
             env.eventBus().publish(endEvent);
-            return;
-        } else if (startSeqno == endSeqno) {
+            return false;
+        } else if (request.getStartSeqno() == request.getEndSeqno()) {
             StreamEndEvent endEvent = new StreamEndEvent(partitionState, streamState, StreamEndReason.OK);
             LOGGER.warn(
                     "Attempt to open stream {} against {} with vbid {} with no requested sequences (start == end) {}",
-                    streamId, channel.remoteAddress(), vbid, startSeqno);
+                    streamId, channel.remoteAddress(), vbid, request.getStartSeqno());
             env.eventBus().publish(endEvent);
-            return;
+            return false;
         }
-        LOGGER.debug(
-                "Opening stream {} against {} with vbid {} vbuuid {} startSeqno {} "
-                        + "endSeqno {} snapshotStartSeqno {} snapshotEndSeqno {} manifestUid {} cids {}",
-                streamId, channel.remoteAddress(), vbid, vbuuid, startSeqno, endSeqno, snapshotStartSeqno,
-                snapshotEndSeqno, manifestUid,
-                IntStream.of(cids).mapToObj(CollectionsUtil::displayCid).collect(Collectors.toList()));
         partitionState.setState(StreamPartitionState.CONNECTING);
         if (openStreams[vbid] == null) {
             openStreams[vbid] = new IntOpenHashSet();
         }
         openStreams[vbid].add(streamId);
-        ByteBuf buffer = Unpooled.buffer();
-        DcpOpenStreamRequest.init(buffer, vbid);
-        DcpOpenStreamRequest.vbucketStreamId(buffer, vbid, streamId);
-        DcpOpenStreamRequest.vbuuid(buffer, vbuuid);
-        DcpOpenStreamRequest.startSeqno(buffer, startSeqno);
-        DcpOpenStreamRequest.endSeqno(buffer, endSeqno);
-        DcpOpenStreamRequest.snapshotStartSeqno(buffer, snapshotStartSeqno);
-        DcpOpenStreamRequest.snapshotEndSeqno(buffer, snapshotEndSeqno);
+        if (!admit(streamId, vbid)) {
+            LOGGER.debug("Queueing stream {} with vbid {} against {}, {} streams are backfilling", streamId, vbid,
+                    channel.remoteAddress(), admittedStreams.size());
+            pendingStreams.add(request);
+            return false;
+        }
+        writeOpenStream(request);
+        return true;
+    }
 
-        if (collectionCapable) {
-            ObjectMapper om = new ObjectMapper();
-            ObjectNode json = om.createObjectNode();
-            ArrayNode an = json.putArray("collections");
-            IntStream.of(cids).mapToObj(CollectionsUtil::encodeCid).forEach(an::add);
-            if (manifestUid != 0) {
-                json.put("uid", Long.toUnsignedString(manifestUid, 16));
-            }
-            if (streamId > 0) {
-                json.put("sid", streamId);
-            }
-            try {
-                byte[] value = om.writeValueAsBytes(json);
-                DcpOpenStreamRequest.setValue(Unpooled.copiedBuffer(value), buffer);
-            } catch (Exception e) {
-                throw new IllegalStateException(e);
-            }
+    private void writeOpenStream(StreamRequest request) {
+        final short vbid = request.getPartition();
+        final int streamId = request.getStreamId();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                    "Opening stream {} against {} with vbid {} vbuuid {} startSeqno {} "
+                            + "endSeqno {} snapshotStartSeqno {} snapshotEndSeqno {} manifestUid {} cids {}",
+                    streamId, channel.remoteAddress(), vbid, request.getVbucketUuid(), request.getStartSeqno(),
+                    request.getEndSeqno(), request.getSnapshotStartSeqno(), request.getSnapshotEndSeqno(),
+                    request.getManifestUid(), IntStream.of(request.getCids()).mapToObj(CollectionsUtil::displayCid)
+                            .collect(Collectors.toList()));
+        }
+        byte[] value = collectionCapable
+                ? streamRequestValueEncoder.encode(request.getCids(), request.getManifestUid(), streamId)
+                : StreamRequestValueEncoder.EMPTY;
+        ByteBuf buffer = channel.alloc().buffer(DcpOpenStreamRequest.length(value));
+        DcpOpenStreamRequest.write(buffer, vbid, streamId, request.getVbucketUuid(), request.getStartSeqno(),
+                request.getEndSeqno(), request.getSnapshotStartSeqno(), request.getSnapshotEndSeqno(), value);
+        if (DcpFlightRecorder.get().enabled()) {
+            sessionState.streamState(streamId).get(vbid).setStreamRequestNanos(System.nanoTime());
         }
-        ChannelFuture future = channel.writeAndFlush(buffer);
+        ChannelFuture future = channel.write(buffer);
         if (LOGGER.isDebugEnabled()) {
             future.addListener(f -> {
                 if (!f.isSuccess()) {
@@ -296,31 +375,159 @@ public class DcpChannel {
         }
     }
 
-    public synchronized void closeStream(final int streamId, final short vbid) {
+    private static long admissionKey(int streamId, short vbid) {
+        return ((long) streamId << 16) | (vbid & 0xFFFF);
+    }
+
+    private boolean admit(int streamId, short vbid) {
+        if (maxBackfillingStreams <= 0) {
+            return true;
+        }
+        if (admittedStreams.size() >= maxBackfillingStreams) {
+            return false;
+        }
+        admit(admissionKey(streamId, vbid));
+        return true;
+    }
+
+    private void admit(long key) {
+        admittedStreams.add(key);
+        admitted(key, true);
+    }
+
+    private void admitted(long key, boolean admitted) {
+        sessionState.streamState((int) (key >>> 16)).get((short) key).setAdmitted(admitted);
+    }
+
+    /**
+     * Releases the backfill admission slot held by the stream, if any, and opens queued streams
+     * which fit in the freed window. Called once the stream is past its backfill or has ended, which is on every
+     * memory snapshot marker, so streams which hold no slot return without taking the lock of the channel.
+     */
+    public void releaseAdmission(int streamId, short vbid) {
+        if (maxBackfillingStreams <= 0 || !sessionState.streamState(streamId).get(vbid).isAdmitted()) {
+            return;
+        }
+        synchronized (this) {
+            releaseAdmission(admissionKey(streamId, vbid));
+        }
+    }
+
+    private void releaseAdmission(long key) {
+        if (!admittedStreams.remove(key)) {
+            return;
+        }
+        admitted(key, false);
+        if (getState() != State.CONNECTED) {
+            return;
+        }
+        boolean written = false;
+        while (admittedStreams.size() < maxBackfillingStreams && !pendingStreams.isEmpty()) {
+            StreamRequest request = pendingStreams.poll();
+            IntSet streams = openStreams[request.getPartition()];
+            if (streams == null || !streams.contains(request.getStreamId())) {
+                // stream was stopped while waiting for admission
+                continue;
+            }
+            admit(admissionKey(request.getStreamId(), request.getPartition()));
+            writeOpenStream(request);
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * @return a future completed once the server confirmed the close
+     */
+    public synchronized CompletableFuture<Void> closeStream(final int streamId, final short vbid) {
         if (getState() != State.CONNECTED) {
             throw new NotConnectedException();
         }
+        openStreams[vbid].remove(streamId);
+        if (pendingStreams.removeIf(r -> r.getStreamId() == streamId && r.getPartition() == vbid)) {
+            LOGGER.debug("Dropping queued stream {} against {} with vbid: {}", streamId, channel.remoteAddress(), vbid);
+            sessionState.streamState(streamId).get(vbid).setState(StreamPartitionState.DISCONNECTED);
+            return CompletableFuture.completedFuture(null);
+        }
         LOGGER.debug("Closing Stream against {} with vbid: {}", channel.remoteAddress(), vbid);
         sessionState.streamState(streamId).get(vbid).setState(StreamPartitionState.DISCONNECTING);
-        openStreams[vbid].remove(streamId);
+        InFlightRequests.Request request = inFlightRequests.register(MessageUtil.DCP_STREAM_CLOSE_OPCODE, streamId,
+                vbid, e -> closeStreamFailed(streamId, vbid, e));
+        // a dropped connection fails the future without calling back, and closes the stream on the server too
+        request.future().whenComplete((v, failure) -> {
+            if (failure instanceof NotConnectedException) {
+                closeStreamFailed(streamId, vbid, failure);
+            }
+        });
         ByteBuf buffer = Unpooled.buffer();
         DcpCloseStreamRequest.init(buffer);
         DcpCloseStreamRequest.vbucket(buffer, vbid);
-        DcpCloseStreamRequest.opaque(buffer, vbid);
+        DcpCloseStreamRequest.opaque(buffer, request.opaque());
         channel.writeAndFlush(buffer);
+        return request.future();
+    }
+
+    /**
+     * The stream is no longer open on this side whatever the server did, so the partition must not stay
+     * DISCONNECTING nor hold on to its backfill admission slot.
+     */
+    private void closeStreamFailed(int streamId, short vbid, Throwable failure) {
+        LOGGER.warn("Close stream {} against {} with vbid {} failed ({}), considering it closed", streamId,
+                inetAddress, vbid, failure.toString());
+        sessionState.streamState(streamId).get(vbid).setState(StreamPartitionState.DISCONNECTED);
+        releaseAdmission(streamId, vbid);
     }
 
     /**
      * Returns all seqnos for all vbuckets on that channel.
      * @param streamState
+     * @return a future completed once the seqnos of this channel are updated in the stream state
      */
-    public synchronized void getSeqnos(StreamState streamState) {
+    public synchronized CompletableFuture<Void> getSeqnos(StreamState streamState) {
         final int streamId = streamState.streamId();
+        final StreamState.SeqnosRequest seqnosRequest = streamState.currentSeqRequest();
         stateFetched.put(streamId, false);
         if (getState() != State.CONNECTED) {
-            streamState.seqsRequestFailed(new NotConnectedException());
-            return;
+            NotConnectedException e = new NotConnectedException();
+            seqnosRequest.failed(e);
+            return failedFuture(e);
+        }
+        return writeGetSeqnos(streamState, seqnosRequest, e -> {
+            seqnosRequest.failed(e);
+            stateFetched(streamId);
+        });
+    }
+
+    /**
+     * Requests the seqnos of all vbuckets on that channel on behalf of the supplied request only: unlike
+     * {@link #getSeqnos(StreamState)} it leaves the current seqnos request of the stream alone and is not
+     * re-issued on reconnect.
+     *
+     * @return a future completed once the seqnos of this channel are updated in the stream state
+     */
+    public synchronized CompletableFuture<Void> fetchSeqnos(StreamState streamState,
+            StreamState.SeqnosRequest seqnosRequest) {
+        if (getState() != State.CONNECTED) {
+            NotConnectedException e = new NotConnectedException();
+            seqnosRequest.failed(e);
+            return failedFuture(e);
         }
+        CompletableFuture<Void> future = writeGetSeqnos(streamState, seqnosRequest, seqnosRequest::failed);
+        // a dropped connection fails the future without calling back
+        future.whenComplete((v, failure) -> {
+            if (failure != null) {
+                seqnosRequest.failed(failure);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> writeGetSeqnos(StreamState streamState, StreamState.SeqnosRequest seqnosRequest,
+            Consumer<Throwable> onFailure) {
+        InFlightRequests.Request request = inFlightRequests.register(MessageUtil.GET_ALL_VB_SEQNOS_OPCODE,
+                streamState.streamId(), (short) -1, seqnosRequest, onFailure);
         ByteBuf buffer = Unpooled.buffer();
         DcpGetPartitionSeqnosRequest.init(buffer);
         if (collectionCapable) {
@@ -328,33 +535,65 @@ public class DcpChannel {
         } else {
             DcpGetPartitionSeqnosRequest.vbucketStateAndCid(buffer, VbucketState.ACTIVE);
         }
-        DcpGetPartitionSeqnosRequest.opaque(buffer, streamId);
+        DcpGetPartitionSeqnosRequest.opaque(buffer, request.opaque());
         channel.writeAndFlush(buffer);
+        return request.future();
     }
 
-    public synchronized void getFailoverLog(final short vbid) {
+    /**
+     * @return a future completed once the failover log of the vbucket is updated in the session state
+     */
+    public synchronized CompletableFuture<Void> getFailoverLog(final short vbid) {
         LOGGER.trace("requesting failover logs for vbucket " + vbid);
         failoverLogRequests[vbid] = true;
         if (getState() != State.CONNECTED) {
-            sessionState.get(vbid).failoverLogsRequestFailed(new NotConnectedException());
-            return;
+            NotConnectedException e = new NotConnectedException();
+            sessionState.get(vbid).failoverLogsRequestFailed(e);
+            return failedFuture(e);
         }
+        InFlightRequests.Request request = inFlightRequests.register(MessageUtil.DCP_FAILOVER_LOG_OPCODE, -1, vbid,
+                e -> sessionState.get(vbid).failoverLogsRequestFailed(e));
         ByteBuf buffer = Unpooled.buffer();
         DcpFailoverLogRequest.init(buffer);
-        DcpFailoverLogRequest.opaque(buffer, vbid);
+        DcpFailoverLogRequest.opaque(buffer, request.opaque());
         DcpFailoverLogRequest.vbucket(buffer, vbid);
         channel.writeAndFlush(buffer);
         LOGGER.trace("Asked for failover log on {} for vbid: {}", channel.remoteAddress(), vbid);
+        return request.future();
     }
 
-    public synchronized void requestCollectionsManifest() {
+    /**
+     * @return a future completed once the manifest is updated in the session state
+     */
+    public synchronized CompletableFuture<Void> requestCollectionsManifest() {
         LOGGER.debug("requesting collections manifest");
         if (getState() != State.CONNECTED) {
             throw new IllegalStateException("channel is not connected");
         }
+        InFlightRequests.Request request = inFlightRequests.register(MessageUtil.DCP_COLLECTIONS_MANIFEST_OPCODE,
+                -1, (short) -1, sessionState::onCollectionsManifestFailure);
         ByteBuf buffer = Unpooled.buffer();
         DcpGetCollectionsManifestRequest.init(buffer);
+        DcpGetCollectionsManifestRequest.opaque(buffer, request.opaque());
         channel.writeAndFlush(buffer);
+        return request.future();
+    }
+
+    public InFlightRequests inFlightRequests() {
+        return inFlightRequests;
+    }
+
+    /**
+     * The metrics of the channel, which the conductor registers once the channel is connected and added.
+     */
+    public ChannelMetrics metrics() {
+        return metrics;
+    }
+
+    private static CompletableFuture<Void> failedFuture(Throwable failure) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
     }
 
     public IntSet openStreams(short vbid) {
@@ -365,20 +604,22 @@ public class DcpChannel {
     @Override
     public boolean equals(Object o) {
         if (o instanceof DcpChannel) {
-            return inetAddress.equals(((DcpChannel) o).inetAddress);
+            return inetAddress.equals(((DcpChannel) o).inetAddress)
+                    && connectionIndex == ((DcpChannel) o).connectionIndex;
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return inetAddress.hashCode();
+        return inetAddress.hashCode() * 31 + connectionIndex;
     }
 
     @Override
     public String toString() {
         return "{\"class\" : \"" + this.getClass().getSimpleName() + "\", \"inetAddress\" : \"" + inetAddress
-                + "\", \"bucket\" : \"" + env.bucket() + "\", \"state\" : \"" + state + "\"}";
+                + "\", \"connection\" : " + connectionIndex + ", \"bucket\" : \"" + env.bucket()
+                + "\", \"state\" : \"" + state + "\"}";
     }
 
     public ClientEnvironment getEnv() {
@@ -391,12 +632,58 @@ public class DcpChannel {
 
     public void setChannel(Channel channel) {
         this.channel = channel;
+        applyAutoRead();
+    }
+
+    /**
+     * Pauses reading from the socket on behalf of a stream; while paused the producer stops sending once its flow
+     * control buffer is full. The streams of the connection share its reads, so they stay paused until every stream
+     * which paused them has resumed them.
+     */
+    public void pauseReads(int streamId) {
+        synchronized (readsPausedBy) {
+            if (readsPausedBy.add(streamId) && readsPausedBy.size() == 1) {
+                applyAutoRead();
+            }
+        }
+    }
+
+    /**
+     * Releases the pause of the reads held by a stream, see {@link #pauseReads(int)}.
+     */
+    public void resumeReads(int streamId) {
+        synchronized (readsPausedBy) {
+            if (readsPausedBy.remove(streamId) && readsPausedBy.isEmpty()) {
+                // nothing was read while paused, the silence says nothing about the producer
+                lastConnectionTime = System.currentTimeMillis();
+                applyAutoRead();
+            }
+        }
+    }
+
+    public boolean readsPaused() {
+        synchronized (readsPausedBy) {
+            return !readsPausedBy.isEmpty();
+        }
+    }
+
+    private void applyAutoRead() {
+        synchronized (readsPausedBy) {
+            Channel ch = channel;
+            if (ch != null) {
+                ch.config().setAutoRead(readsPausedBy.isEmpty());
+            }
+        }
     }
 
     public InetSocketAddress getAddress() {
         return inetAddress;
     }
 
+    public int getConnectionIndex() {
+        return connectionIndex;
+    }
+
     public ChannelFutureListener getCloseListener() {
         return closeListener;
     }
@@ -432,6 +719,18 @@ public class DcpChannel {
         }
         long now = System.currentTimeMillis();
         if (now - lastConnectionTime > deadConnectionDetectionInterval) {
+            final EventLoopMonitor monitor = env.eventLoopMonitor();
+            final Channel ch = channel;
+            if (monitor != null && ch != null && monitor.stalled(ch.eventLoop())) {
+                // nothing was read because the IO thread is held up, not because the producer went away
+                LOGGER.warn("Connection {} has not received messages but its event loop is stalled", this);
+                return false;
+            }
+            if (readsPaused()) {
+                // nothing was read because a slow subscriber paused the reads
+                LOGGER.info("Connection {} has not received messages but its reads are paused", this);
+                return false;
+            }
             LOGGER.info("Detected dead connection on {}", this);
             return true;
         } else {
@@ -22,6 +22,7 @@ public class DcpChannelCloseListener implements ChannelFutureListener {
     @Override
     public void operationComplete(ChannelFuture future) throws Exception {
         LOGGER.debug("DCP Connection dropped");
+        channel.inFlightRequests().clear();
         synchronized (channel) {
             // channel was closed. If the state is disconnecting, then this should be fine
             // otherwise, this should attempt to restart the connection
@@ -16,6 +16,7 @@ import com.couchbase.client.dcp.DcpAckHandle;
 import com.couchbase.client.dcp.events.OpenStreamResponse;
 import com.couchbase.client.dcp.events.OpenStreamRollbackResponse;
 import com.couchbase.client.dcp.events.StreamEndEvent;
+import com.couchbase.client.dcp.jfr.DcpFlightRecorder;
 import com.couchbase.client.dcp.message.CollectionsManifest;
 import com.couchbase.client.dcp.message.DcpFailoverLogResponse;
 import com.couchbase.client.dcp.message.DcpOpenStreamResponse;
@@ -96,10 +97,15 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
         short vbucket = DcpSnapshotMarkerRequest.partition(buf);
         long start = DcpSnapshotMarkerRequest.startSeqno(buf);
         long end = DcpSnapshotMarkerRequest.endSeqno(buf);
-        StreamPartitionState ps = MessageUtil.streamState(buf, channel).get(vbucket);
+        final StreamState ss = MessageUtil.streamState(buf, channel);
+        StreamPartitionState ps = ss.get(vbucket);
         ps.useStreamRequest();
         ps.setSnapshotStartSeqno(start);
         ps.setSnapshotEndSeqno(end);
+        if (!DcpSnapshotMarkerRequest.disk(buf)) {
+            // backfill is over, the stream is now served from memory
+            channel.releaseAdmission(ss.streamId(), vbucket);
+        }
     }
 
     private void handleOpenStreamResponse(ByteBuf buf) {
@@ -108,12 +114,14 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
         final StreamState ss = channel.getSessionState().streamState(streamId);
         StreamPartitionState partitionState = ss.get(vbid);
         short status = MessageUtil.getStatus(buf);
+        DcpFlightRecorder.get().streamOpened(channel, streamId, vbid, partitionState.getStreamRequestNanos(), status);
         OpenStreamResponse response;
         if (LOGGER.isEnabled(CouchbaseLogLevel.TRACE)) {
             LOGGER.trace("OpenStream {} (0x{}) for vbucket {} on stream {}", MemcachedStatus.toString(status),
                     Integer.toHexString(status), vbid, ss.streamId());
         }
         if (status == MemcachedStatus.SUCCESS) {
+            channel.metrics().streamOpened();
             response = new OpenStreamResponse(partitionState, status);
             synchronized (channel) {
                 if (channel.openStreams()[vbid] == null || !channel.openStreams()[vbid].contains(ss.streamId())) {
@@ -131,7 +139,10 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
         } else {
             // Failure
             if (status == MemcachedStatus.ROLLBACK) {
-                response = new OpenStreamRollbackResponse(partitionState, DcpOpenStreamResponse.rollbackSeqno(buf));
+                channel.metrics().rollback();
+                long rollbackSeqno = DcpOpenStreamResponse.rollbackSeqno(buf);
+                DcpFlightRecorder.get().rollback(channel, streamId, vbid, rollbackSeqno);
+                response = new OpenStreamRollbackResponse(partitionState, rollbackSeqno);
             } else {
                 response = new OpenStreamResponse(partitionState, status);
             }
@@ -142,7 +153,11 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
     }
 
     private void handleFailoverLogResponse(ByteBuf buf) {
-        short vbid = (short) MessageUtil.getOpaque(buf);
+        InFlightRequests.Request request = completeRequest(buf);
+        if (request == null) {
+            return;
+        }
+        short vbid = request.vbid();
         short status = MessageUtil.getStatus(buf);
         if (LOGGER.isEnabled(CouchbaseLogLevel.TRACE)) {
             LOGGER.trace("FailoverLog {} (0x{}) for vbucket {}", MemcachedStatus.toString(status),
@@ -155,9 +170,13 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
                 LOGGER.warn("FailoverLog unexpected response: {} (0x{}) for vbucket {}",
                         MemcachedStatus.toString(status), Integer.toHexString(status), vbid);
             }
-            channel.getSessionState().get(vbid).failoverLogsRequestFailed(new Exception("Failover response "
-                    + MemcachedStatus.toString(status) + "(0x" + Integer.toHexString(status) + ")"));
+            Exception failure = new Exception("Failover response " + MemcachedStatus.toString(status) + "(0x"
+                    + Integer.toHexString(status) + ")");
+            channel.getSessionState().get(vbid).failoverLogsRequestFailed(failure);
+            request.future().completeExceptionally(failure);
+            return;
         }
+        request.future().complete(null);
     }
 
     private void handleFailoverLogResponseSuccess(ByteBuf buf, short vbid) {
@@ -180,9 +199,17 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
     }
 
     private void handleDcpGetPartitionSeqnosResponse(ByteBuf buf) {
+        InFlightRequests.Request request = completeRequest(buf);
+        if (request == null) {
+            return;
+        }
         // get status
         short status = MessageUtil.getStatus(buf);
-        int streamId = MessageUtil.getOpaque(buf);
+        int streamId = request.streamId();
+        StreamState streamState = channel.getSessionState().streamState(streamId);
+        StreamState.SeqnosRequest seqnosRequest = (StreamState.SeqnosRequest) request.context();
+        // only the current request of the stream is re-issued on reconnect
+        boolean current = seqnosRequest == streamState.currentSeqRequest();
 
         if (status == MemcachedStatus.SUCCESS) {
             ByteBuf content = MessageUtil.getContent(buf);
@@ -190,13 +217,22 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
             for (int offset = 0; offset < size; offset += 10) {
                 short vbid = content.getShort(offset);
                 long seq = content.getLong(offset + Short.BYTES);
-                channel.getSessionState().streamState(streamId).setCurrentVBucketSeqnoInMaster(vbid, seq);
+                if (streamState.setCurrentVBucketSeqnoInMaster(vbid, seq)) {
+                    seqnosRequest.received();
+                }
+            }
+            if (current) {
+                channel.stateFetched(streamId);
             }
+            request.future().complete(null);
         } else {
-            channel.getSessionState().streamState(streamId)
-                    .seqsRequestFailed(new CouchbaseException(MemcachedStatus.toString(status)));
+            CouchbaseException failure = new CouchbaseException(MemcachedStatus.toString(status));
+            seqnosRequest.failed(failure);
+            if (current) {
+                channel.stateFetched(streamId);
+            }
+            request.future().completeExceptionally(failure);
         }
-        channel.stateFetched(streamId);
     }
 
     private void handleDcpStreamEndMessage(ByteBuf buf) {
@@ -204,6 +240,8 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
         final StreamState streamState = MessageUtil.streamState(buf, channel);
         clearOpen(streamState, vbid);
         StreamEndReason reason = DcpStreamEndMessage.reason(buf);
+        channel.metrics().streamEnded(reason);
+        DcpFlightRecorder.get().streamEnded(channel, streamState.streamId(), vbid, reason);
         StreamPartitionState state = streamState.get(vbid);
         StreamEndEvent endEvent = new StreamEndEvent(state, streamState, reason);
         if (LOGGER.isEnabled(CouchbaseLogLevel.DEBUG)) {
@@ -219,15 +257,22 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
         if (openStreams != null) {
             openStreams.remove(ss.streamId());
         }
+        channel.releaseAdmission(ss.streamId(), vbid);
     }
 
     private void handleDcpCloseStreamResponse(ByteBuf buf) {
-        short vbid = (short) MessageUtil.getOpaque(buf);
-        clearOpen(MessageUtil.streamState(buf, channel), vbid);
-        MessageUtil.streamState(buf, channel).get(vbid).setState(StreamPartitionState.DISCONNECTED);
+        InFlightRequests.Request request = completeRequest(buf);
+        if (request == null) {
+            return;
+        }
+        short vbid = request.vbid();
+        StreamState ss = channel.getSessionState().streamState(request.streamId());
+        clearOpen(ss, vbid);
+        ss.get(vbid).setState(StreamPartitionState.DISCONNECTED);
         if (LOGGER.isEnabled(CouchbaseLogLevel.DEBUG)) {
             LOGGER.debug("Closed Stream against {} with vbid: {}", channel.getAddress(), vbid);
         }
+        request.future().complete(null);
     }
 
     private void handleSeqnoAdvanced(ByteBuf buf) {
@@ -273,15 +318,28 @@ public class DcpChannelControlMessageHandler implements ControlEventHandler {
     }
 
     private void handleCollectionsManifest(ByteBuf buf) {
+        InFlightRequests.Request request = completeRequest(buf);
+        if (request == null) {
+            return;
+        }
         byte[] manifestJsonBytes = MessageUtil.getContentAsByteArray(buf);
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Got collections manifest: {}", new String(manifestJsonBytes, UTF_8));
         }
         try {
             channel.getSessionState().onCollectionsManifest(CollectionsManifest.fromJson(manifestJsonBytes));
+            request.future().complete(null);
         } catch (IOException e) {
             LOGGER.error("malformed collections manifest {}", new String(manifestJsonBytes, UTF_8), e);
             channel.getSessionState().onCollectionsManifestFailure(e);
+            request.future().completeExceptionally(e);
         }
     }
+
+    /**
+     * Matches a response to its request by opaque, see {@link InFlightRequests}.
+     */
+    private InFlightRequests.Request completeRequest(ByteBuf buf) {
+        return channel.inFlightRequests().complete(MessageUtil.getOpaque(buf), buf.getByte(1));
+    }
 }
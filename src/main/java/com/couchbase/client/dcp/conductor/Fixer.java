@@ -2,8 +2,12 @@ package com.couchbase.client.dcp.conductor;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.hyracks.util.Span;
@@ -13,7 +17,6 @@ import org.apache.logging.log4j.Logger;
 import com.couchbase.client.core.config.CouchbaseBucketConfig;
 import com.couchbase.client.core.config.NodeInfo;
 import com.couchbase.client.core.state.NotConnectedException;
-import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.SystemEventHandler;
 import com.couchbase.client.dcp.error.BucketNotFoundException;
 import com.couchbase.client.dcp.events.ChannelDroppedEvent;
@@ -21,26 +24,41 @@ import com.couchbase.client.dcp.events.DcpEvent;
 import com.couchbase.client.dcp.events.DeadConnectionDetection;
 import com.couchbase.client.dcp.events.OpenStreamResponse;
 import com.couchbase.client.dcp.events.StreamEndEvent;
+import com.couchbase.client.dcp.jfr.DcpFlightRecorder;
 import com.couchbase.client.dcp.message.StreamEndReason;
 import com.couchbase.client.dcp.state.SessionState;
 import com.couchbase.client.dcp.state.StreamPartitionState;
 import com.couchbase.client.dcp.state.StreamState;
 import com.couchbase.client.dcp.util.MemcachedStatus;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 
 public class Fixer implements Runnable, SystemEventHandler {
 
     private static final Logger LOGGER = LogManager.getLogger();
     private static final DcpEvent POISON_PILL = () -> DcpEvent.Type.DISCONNECT;
-    private static final Delay DELAY = Delay.fixed(0, TimeUnit.MILLISECONDS);
+    private static final RetryPolicy SINGLE_ATTEMPT = RetryPolicy.IMMEDIATE;
     private static final long CONFIG_PROVIDER_ATTEMPT_TIMEOUT = 1000;
     private static final long DCP_CHANNEL_ATTEMPT_TIMEOUT = 1000;
     // Total timeout only control re-attempts. 0 -> a single attempt
     private static final long TOTAL_TIMEOUT = 0;
     private static final int MAX_REATTEMPTS = 100;
+    // backoff between the fix attempts of a dropped channel or stream
+    private static final long FIX_RETRY_BASE_MILLIS = 100;
+    private static final long FIX_RETRY_CAP_MILLIS = 5000;
     private final Conductor conductor;
     private final UnexpectedFailureEvent failure = new UnexpectedFailureEvent();
+    private final RetryPolicy fixRetryPolicy;
     private Span nextFailed = Span.ELAPSED;
     private volatile boolean running;
+    private DeadConnectionDetection detection;
+    // the thread currently running the fixer, either its own thread or a thread of the shared scheduler
+    private volatile Thread current;
+    // the shared scheduler timing the wakeups, null when the fixer runs on a thread of its own
+    private ScheduledExecutorService scheduler;
+    // the shared executor the fixer is drained on; the fixes block, so it is not the scheduler
+    private Executor executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile ScheduledFuture<?> wakeup;
 
     // unbounded
     private final LinkedBlockingQueue<DcpEvent> inbox = new LinkedBlockingQueue<>();
@@ -48,6 +66,9 @@ public class Fixer implements Runnable, SystemEventHandler {
 
     public Fixer(Conductor conductor) {
         this.conductor = conductor;
+        this.fixRetryPolicy = new RetryPolicy(FIX_RETRY_BASE_MILLIS, FIX_RETRY_CAP_MILLIS, TimeUnit.MILLISECONDS,
+                conductor.getEnv().dcpChannelsRetryPolicy().budget());
+        conductor.getEnv().metricsRegistry().gauge("dcp.fixer.backlog", () -> inbox.size() + backlog.size());
         running = false;
     }
 
@@ -56,6 +77,7 @@ public class Fixer implements Runnable, SystemEventHandler {
             backlog.clear();
             inbox.clear();
             inbox.offer(POISON_PILL);
+            signal();
             if (!running) {
                 LOGGER.warn("Poisoning the fixer and finding that it was running but it is not running anymore."
                         + " Cleaning the inbox");
@@ -70,29 +92,114 @@ public class Fixer implements Runnable, SystemEventHandler {
     @Override
     public void run() {
         Thread.currentThread().setName(toString());
+        current = Thread.currentThread();
         try {
+            detection = new DeadConnectionDetection(conductor);
             start();
-            DeadConnectionDetection detection = new DeadConnectionDetection(conductor);
             DcpEvent next = inbox.take();
             while (next != POISON_PILL) {
                 if (next != null) {
                     handle(next);
                 } else {
-                    attemptFixingBroken();
-                    detection.run();
+                    tick();
                 }
-                next = backlog.isEmpty() ? inbox.poll(detection.nanosTilNextCheck(), TimeUnit.NANOSECONDS)
-                        : inbox.poll(
-                                Long.min(detection.nanosTilNextCheck(), nextFailed.remaining(TimeUnit.NANOSECONDS)),
-                                TimeUnit.NANOSECONDS);
+                next = inbox.poll(nanosTilNextTick(), TimeUnit.NANOSECONDS);
             }
             LOGGER.info("{} has been poisoned", this);
         } catch (InterruptedException ie) {
             LOGGER.warn("{} has been interrupted", this);
             Thread.currentThread().interrupt();
         }
-        running = false;
-        reset();
+        current = null;
+        stop();
+    }
+
+    /**
+     * Starts the fixer on a scheduler and an executor shared with other clients. The fixer then only takes a thread
+     * of the executor while it has events to handle or checks which are due, instead of parking a thread of its own
+     * for as long as the client is connected. The scheduler only times the wakeups: the fixes block on config
+     * fetches and connects, and must not hold up the wakeups of the other clients.
+     *
+     * @param scheduler
+     *            the shared scheduler timing the wakeups.
+     * @param executor
+     *            the shared executor running the fixes, which must not be bounded.
+     */
+    public void start(ScheduledExecutorService scheduler, Executor executor) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+        detection = new DeadConnectionDetection(conductor);
+        scheduled.set(false);
+        start();
+    }
+
+    private void signal() {
+        if (scheduler != null && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void wake() {
+        if (running) {
+            signal();
+        }
+    }
+
+    /**
+     * Handles the events in the inbox and the due checks on a thread of the shared executor, then schedules a
+     * wakeup for the next due check. Drains are serialized by the scheduled flag.
+     */
+    private void drain() {
+        current = Thread.currentThread();
+        boolean poisoned = false;
+        try {
+            boolean ticked = false;
+            while (true) {
+                DcpEvent next = inbox.poll();
+                if (next == POISON_PILL) {
+                    poisoned = true;
+                    break;
+                } else if (next != null) {
+                    handle(next);
+                } else if (!ticked) {
+                    tick();
+                    ticked = true;
+                } else {
+                    break;
+                }
+            }
+        } catch (InterruptedException ie) {
+            LOGGER.warn("{} has been interrupted", this);
+            Thread.currentThread().interrupt();
+            poisoned = true;
+        } finally {
+            current = null;
+        }
+        if (poisoned) {
+            LOGGER.info("{} has been poisoned", this);
+            stop();
+            return;
+        }
+        scheduled.set(false);
+        if (!inbox.isEmpty()) {
+            signal();
+            return;
+        }
+        ScheduledFuture<?> previous = wakeup;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        wakeup = scheduler.schedule(this::wake, nanosTilNextTick(), TimeUnit.NANOSECONDS);
+    }
+
+    private void tick() {
+        attemptFixingBroken();
+        detection.run();
+    }
+
+    private long nanosTilNextTick() {
+        return backlog.isEmpty() ? detection.nanosTilNextCheck()
+                : Long.min(detection.nanosTilNextCheck(), nextFailed.remaining(TimeUnit.NANOSECONDS));
     }
 
     private synchronized void start() {
@@ -100,12 +207,39 @@ public class Fixer implements Runnable, SystemEventHandler {
         notifyAll();
     }
 
+    private synchronized void stop() {
+        running = false;
+        reset();
+        ScheduledFuture<?> previous = wakeup;
+        if (previous != null) {
+            previous.cancel(false);
+            wakeup = null;
+        }
+        notifyAll();
+    }
+
     public synchronized void waitTillStarted() throws InterruptedException {
         while (!running) {
             wait();
         }
     }
 
+    /**
+     * Waits until a poisoned fixer has stopped.
+     */
+    public synchronized void waitTillStopped() throws InterruptedException {
+        while (running) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns true if the calling thread is the one currently running the fixer.
+     */
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == current;
+    }
+
     private void attemptFixingBroken() {
         if (backlog.isEmpty() || !nextFailed.elapsed()) {
             return;
@@ -141,6 +275,16 @@ public class Fixer implements Runnable, SystemEventHandler {
     }
 
     private void handle(DcpEvent event) throws InterruptedException {
+        final long start = System.nanoTime();
+        try {
+            fix(event);
+        } finally {
+            DcpFlightRecorder.get().fixerEventHandled(conductor.getEnv().connectionNameGenerator().name(),
+                    event.getType(), start);
+        }
+    }
+
+    private void fix(DcpEvent event) throws InterruptedException {
         try {
             switch (event.getType()) {
                 case CHANNEL_DROPPED:
@@ -190,7 +334,8 @@ public class Fixer implements Runnable, SystemEventHandler {
                                     CouchbaseBucketConfig config = conductor.config();
                                     int index = config.nodeIndexForMaster(response.getPartitionState().vbid(), false);
                                     NodeInfo node = config.nodeAtIndex(index);
-                                    conductor.add(node, config, DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, DELAY);
+                                    conductor.add(node, config, DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT,
+                                            SINGLE_ATTEMPT);
                                     restartStream(response);
                                 }
                             } catch (InterruptedException e) {
@@ -269,7 +414,7 @@ public class Fixer implements Runnable, SystemEventHandler {
                     NodeInfo node = config.nodeAtIndex(index);
                     LOGGER.info(this + " was able to find a new master for the vbucket " + node.hostname());
                     try {
-                        conductor.add(node, config, DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, DELAY);
+                        conductor.add(node, config, DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, SINGLE_ATTEMPT);
                     } catch (InterruptedException e) {
                         LOGGER.warn(this + " interrupted while adding node " + node.hostname(), e);
                         giveUp(e);
@@ -315,7 +460,7 @@ public class Fixer implements Runnable, SystemEventHandler {
     private void refreshConfig() throws InterruptedException {
         LOGGER.info(this + " refreshing configurations");
         try {
-            conductor.configProvider().refresh(CONFIG_PROVIDER_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, DELAY);
+            conductor.configProvider().refresh(CONFIG_PROVIDER_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, SINGLE_ATTEMPT);
         } catch (InterruptedException e) {
             LOGGER.error(this + " interrupted while refreshing configurations", e);
             giveUp(e);
@@ -331,7 +476,7 @@ public class Fixer implements Runnable, SystemEventHandler {
 
     private void retry(ChannelDroppedEvent event, Throwable th) throws InterruptedException {
         LOGGER.warn(this + " failed to fix a dropped dcp connection", th);
-        event.incrementAttempts();
+        event.incrementAttempts(fixRetryPolicy);
         if (event.getAttempts() > MAX_REATTEMPTS) {
             LOGGER.warn(this + " failed to fix a dropped dcp connection for the " + event.getAttempts()
                     + "th time. Giving up");
@@ -343,7 +488,7 @@ public class Fixer implements Runnable, SystemEventHandler {
     }
 
     private void retry(StreamEndEvent streamEndEvent, Throwable th) throws InterruptedException {
-        streamEndEvent.incrementAttempts();
+        streamEndEvent.incrementAttempts(fixRetryPolicy);
         if (streamEndEvent.getAttempts() > MAX_REATTEMPTS) {
             LOGGER.warn(this + " failed to fix a vbucket stream " + streamEndEvent.getAttempts() + " times. Giving up",
                     th);
@@ -355,7 +500,7 @@ public class Fixer implements Runnable, SystemEventHandler {
     }
 
     private void retry(StreamEndEvent streamEndEvent) throws InterruptedException {
-        streamEndEvent.incrementAttempts();
+        streamEndEvent.incrementAttempts(fixRetryPolicy);
         if (streamEndEvent.getAttempts() > MAX_REATTEMPTS) {
             LOGGER.warn(this + " failed to fix a vbucket stream " + streamEndEvent.getAttempts() + " times. Giving up");
             giveUp(new NotConnectedException());
@@ -394,7 +539,7 @@ public class Fixer implements Runnable, SystemEventHandler {
                     if (config.hasPrimaryPartitionsOnNode(channel.getHostname())) {
                         try {
                             LOGGER.debug(this + " trying to reconnect " + channel);
-                            channel.connect(DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, DELAY);
+                            channel.connect(DCP_CHANNEL_ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, SINGLE_ATTEMPT);
                             channel.setChannelDroppedReported(false);
                         } catch (InterruptedException e) {
                             LOGGER.error(this + " interrupted while attempting to connect channel:" + channel, e);
@@ -472,6 +617,7 @@ public class Fixer implements Runnable, SystemEventHandler {
                 // TODO(mblow): what should we be doing for non-rollback open stream failures??
             }
             inbox.offer(event); // NOSONAR: This will always succeed as the inbox is unbounded
+            signal();
             if (!running) {
                 inbox.clear();
             }
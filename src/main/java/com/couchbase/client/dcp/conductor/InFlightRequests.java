@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.conductor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.core.state.NotConnectedException;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
+import com.couchbase.client.deps.io.netty.util.concurrent.ScheduledFuture;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * The requests of a channel which wait for a response, keyed by a unique opaque. Responses are matched to their
+ * request by opaque and opcode, so that any number of requests of the same kind may be outstanding at once.
+ *
+ * Every request times out on the event loop timer; its failure callback is then run and a late response is
+ * ignored. When the connection drops the table is cleared and the pending futures fail, while the channel re-issues
+ * what is still needed once reconnected.
+ */
+public class InFlightRequests {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final EventLoopGroup timer;
+    private final long timeoutMillis;
+    private final Int2ObjectMap<Request> requests = new Int2ObjectOpenHashMap<>();
+    private int nextOpaque = 1;
+
+    public InFlightRequests(EventLoopGroup timer, long timeoutMillis) {
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Registers a request before it is written.
+     *
+     * @param onFailure
+     *            called if the request times out, in addition to failing its future.
+     * @return the request, whose {@link Request#opaque()} must be set on the message
+     */
+    public Request register(byte opcode, int streamId, short vbid, Consumer<Throwable> onFailure) {
+        return register(opcode, streamId, vbid, null, onFailure);
+    }
+
+    /**
+     * Registers a request before it is written.
+     *
+     * @param context
+     *            what the response handler needs to correlate the response with its caller, see
+     *            {@link Request#context()}.
+     * @param onFailure
+     *            called if the request times out, in addition to failing its future.
+     * @return the request, whose {@link Request#opaque()} must be set on the message
+     */
+    public synchronized Request register(byte opcode, int streamId, short vbid, Object context,
+            Consumer<Throwable> onFailure) {
+        int opaque;
+        do {
+            opaque = nextOpaque++;
+            if (nextOpaque == Integer.MAX_VALUE) {
+                nextOpaque = 1;
+            }
+        } while (requests.containsKey(opaque));
+        Request request = new Request(opaque, opcode, streamId, vbid, context, onFailure);
+        requests.put(opaque, request);
+        final int timedOut = opaque;
+        request.timeout = timer.schedule(() -> timeout(timedOut), timeoutMillis, TimeUnit.MILLISECONDS);
+        return request;
+    }
+
+    /**
+     * Removes the request the response is for.
+     *
+     * @return the request, or null if it is unknown (e.g. it timed out already)
+     */
+    public synchronized Request complete(int opaque, byte opcode) {
+        Request request = requests.get(opaque);
+        if (request == null || request.opcode != opcode) {
+            LOGGER.warn("no in-flight {} request with opaque {}, ignoring the response",
+                    MessageUtil.humanizeOpcode(opcode), opaque);
+            return null;
+        }
+        requests.remove(opaque);
+        request.timeout.cancel(false);
+        return request;
+    }
+
+    /**
+     * Drops all the requests, failing their futures; called when the connection is closed.
+     */
+    public void clear() {
+        List<Request> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(requests.values());
+            requests.clear();
+        }
+        for (Request request : dropped) {
+            request.timeout.cancel(false);
+            request.future.completeExceptionally(new NotConnectedException());
+        }
+    }
+
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    private void timeout(int opaque) {
+        Request request;
+        synchronized (this) {
+            request = requests.remove(opaque);
+        }
+        if (request == null) {
+            return;
+        }
+        TimeoutException e = new TimeoutException(MessageUtil.humanizeOpcode(request.opcode) + " request (opaque "
+                + opaque + ", stream " + request.streamId + ", vbucket " + request.vbid + ") timed out after "
+                + timeoutMillis + "ms");
+        LOGGER.warn(e.getMessage());
+        try {
+            request.onFailure.accept(e);
+        } finally {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    public static class Request {
+        private final int opaque;
+        private final byte opcode;
+        private final int streamId;
+        private final short vbid;
+        private final Object context;
+        private final Consumer<Throwable> onFailure;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private ScheduledFuture<?> timeout;
+
+        private Request(int opaque, byte opcode, int streamId, short vbid, Object context,
+                Consumer<Throwable> onFailure) {
+            this.opaque = opaque;
+            this.opcode = opcode;
+            this.streamId = streamId;
+            this.vbid = vbid;
+            this.context = context;
+            this.onFailure = onFailure;
+        }
+
+        public int opaque() {
+            return opaque;
+        }
+
+        public int streamId() {
+            return streamId;
+        }
+
+        public short vbid() {
+            return vbid;
+        }
+
+        /**
+         * The caller state the request was registered with, null if none.
+         */
+        public Object context() {
+            return context;
+        }
+
+        /**
+         * Completed once the response was handled, or failed with the failure status, a timeout or a disconnect.
+         */
+        public CompletableFuture<Void> future() {
+            return future;
+        }
+    }
+}
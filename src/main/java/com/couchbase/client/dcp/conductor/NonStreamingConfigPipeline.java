@@ -108,7 +108,8 @@ public class NonStreamingConfigPipeline extends ChannelInitializer<Channel> {
         ChannelPipeline pipeline = ch.pipeline();
 
         if (environment.sslEnabled()) {
-            pipeline.addLast(new SslHandler(sslEngineFactory.get()));
+            pipeline.addLast(
+                    new SslHandler(sslEngineFactory.get(address.getHostString(), address.getPort(), ch.alloc())));
         }
         if (LOGGER.isTraceEnabled()) {
             pipeline.addLast(new LoggingHandler(LogLevel.TRACE));
@@ -12,6 +12,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -26,14 +27,15 @@ import com.couchbase.client.core.config.BucketCapabilities;
 import com.couchbase.client.core.config.CouchbaseBucketConfig;
 import com.couchbase.client.core.config.NodeInfo;
 import com.couchbase.client.core.service.ServiceType;
-import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.config.ClientEnvironment;
 import com.couchbase.client.dcp.error.BadBucketConfigException;
+import com.couchbase.client.dcp.jfr.DcpFlightRecorder;
+import com.couchbase.client.dcp.metrics.Counter;
+import com.couchbase.client.dcp.metrics.LatencyRecorder;
 import com.couchbase.client.dcp.transport.netty.ChannelUtils;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 import com.couchbase.client.deps.io.netty.bootstrap.Bootstrap;
 import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
-import com.couchbase.client.deps.io.netty.buffer.PooledByteBufAllocator;
-import com.couchbase.client.deps.io.netty.buffer.UnpooledByteBufAllocator;
 import com.couchbase.client.deps.io.netty.channel.ChannelFuture;
 import com.couchbase.client.deps.io.netty.channel.ChannelOption;
 
@@ -48,30 +50,48 @@ public class NonStreamingConfigProvider implements ConfigProvider, IConfigurable
     private Span refreshPeriod;
     private volatile String uuid;
     private volatile Throwable cause;
+    private final Counter refreshes;
+    private final Counter refreshFailures;
+    private final LatencyRecorder refreshLatency;
 
     NonStreamingConfigProvider(ClientEnvironment env) {
         this.env = env;
         this.uuid = env.uuid();
         sockets.addAll(env.clusterAt());
         refreshPeriod = Span.start(0, TimeUnit.NANOSECONDS);
+        refreshes = env.metricsRegistry().counter("dcp.config.refreshes");
+        refreshFailures = env.metricsRegistry().counter("dcp.config.refreshFailures");
+        refreshLatency = env.metricsRegistry().latency("dcp.config.refreshLatency");
         LOGGER.info("Adding config nodes: " + sockets);
     }
 
     @Override
     public void refresh() throws Throwable {
         refresh(env.configProviderAttemptTimeout(), env.configProviderTotalTimeout(),
-                env.configProviderReconnectDelay());
+                env.configProviderRetryPolicy());
     }
 
     @Override
     public void refresh(long attemptTimeout, long totalTimeout) throws Throwable {
-        refresh(attemptTimeout, totalTimeout, env.configProviderReconnectDelay());
+        refresh(attemptTimeout, totalTimeout, env.configProviderRetryPolicy());
     }
 
     @Override
-    public void refresh(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable {
+    public void refresh(long attemptTimeout, long totalTimeout, RetryPolicy retryPolicy) throws Throwable {
         if (refreshPeriod.elapsed()) {
-            tryConnectHosts(attemptTimeout, totalTimeout, delay);
+            final long start = System.nanoTime();
+            boolean success = false;
+            try {
+                tryConnectHosts(attemptTimeout, totalTimeout, retryPolicy);
+                success = true;
+            } catch (Throwable th) {
+                refreshFailures.increment();
+                throw th;
+            } finally {
+                refreshLatency.recordSince(start);
+                DcpFlightRecorder.get().configRefreshed(env.bucket(), start, success);
+            }
+            refreshes.increment();
             refreshPeriod = Span.start(MIN_MILLIS_PER_REFRESH, TimeUnit.MILLISECONDS);
         }
     }
@@ -81,45 +101,46 @@ public class NonStreamingConfigProvider implements ConfigProvider, IConfigurable
         return config;
     }
 
-    private void tryConnectHosts(long attemptTimeout, long totalTimeout, Delay delay) throws Throwable {
+    private void tryConnectHosts(long attemptTimeout, long totalTimeout, RetryPolicy retryPolicy) throws Throwable {
         for (InetSocketAddress socket : sockets) {
-            if (tryConnectHost(socket, attemptTimeout, totalTimeout, delay)) {
+            if (tryConnectHost(socket, attemptTimeout, totalTimeout, retryPolicy)) {
                 return;
             }
         }
         throw cause;
     }
 
-    private boolean tryConnectHost(InetSocketAddress address, long attemptTimeout, long totalTimeout, Delay delay)
-            throws Exception {
+    private boolean tryConnectHost(InetSocketAddress address, long attemptTimeout, long totalTimeout,
+            RetryPolicy retryPolicy) throws Exception {
         int attempt = 0;
-        ByteBufAllocator allocator =
-                env.poolBuffers() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+        ByteBufAllocator allocator = env.allocator();
         final long startTime = System.nanoTime();
+        final RetryPolicy.Backoff backoff = retryPolicy.backoff();
+        // clients of the same cluster share the permits, so that they do not all fetch their configs at once; a
+        // permit is only held by an attempt, never while backing off
+        final Semaphore permits = env.configFetchPermits();
         while (true) {
             attempt++;
+            final long attemptStart = System.nanoTime();
             MutableObject<Throwable> failure = new MutableObject<>();
             MutableObject<CouchbaseBucketConfig> config = new MutableObject<>();
-            LOGGER.info("Getting bucket config from {}", address);
-            Bootstrap bootstrap = new Bootstrap().remoteAddress(address).option(ChannelOption.ALLOCATOR, allocator)
-                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) attemptTimeout)
-                    .channel(ChannelUtils.channelForEventLoopGroup(env.eventLoopGroup()))
-                    .handler(new NonStreamingConfigPipeline(env, address, failure, config, uuid))
-                    .group(env.eventLoopGroup());
-            ChannelFuture connectFuture = bootstrap.connect();
-            try {
-                connectFuture.await(attemptTimeout + 100);
-                connectFuture.cancel(true);
-                if (connectFuture.isSuccess()) {
-                    waitForConfig(config, failure, attemptTimeout);
-                } else {
-                    fail(connectFuture.cause());
-                    failure.setValue(connectFuture.cause());
+            if (permits != null && !permits.tryAcquire(attemptTimeout, TimeUnit.MILLISECONDS)) {
+                // the other clients of the cluster kept the permits, which says nothing about the node: retry
+                fail(new TimeoutException(attemptTimeout + "ms passed waiting for a config fetch permit"));
+                if (elapsed(startTime, totalTimeout)) {
+                    return false;
                 }
+                backoff.sleep();
+                continue;
+            }
+            try {
+                final long timeout = Math.max(1,
+                        attemptTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart));
+                fetch(address, allocator, timeout, failure, config);
             } finally {
-                LOGGER.log(Level.DEBUG, "Closing the channel");
-                connectFuture.channel().close().await();
-                LOGGER.log(Level.DEBUG, "Channel closed");
+                if (permits != null) {
+                    permits.release();
+                }
             }
             if (failure.getValue() == null) {
                 configure(config.getValue());
@@ -134,7 +155,32 @@ public class NonStreamingConfigProvider implements ConfigProvider, IConfigurable
             if (elapsed(startTime, totalTimeout)) {
                 return false;
             }
-            Thread.sleep(delay.calculate(attempt));
+            backoff.sleep();
+        }
+    }
+
+    private void fetch(InetSocketAddress address, ByteBufAllocator allocator, long attemptTimeout,
+            MutableObject<Throwable> failure, MutableObject<CouchbaseBucketConfig> config) throws Exception {
+        LOGGER.info("Getting bucket config from {}", address);
+        Bootstrap bootstrap = new Bootstrap().remoteAddress(address).option(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) attemptTimeout)
+                .channel(ChannelUtils.channelForEventLoopGroup(env.eventLoopGroup()))
+                .handler(new NonStreamingConfigPipeline(env, address, failure, config, uuid))
+                .group(env.eventLoopGroup());
+        ChannelFuture connectFuture = bootstrap.connect();
+        try {
+            connectFuture.await(attemptTimeout + 100);
+            connectFuture.cancel(true);
+            if (connectFuture.isSuccess()) {
+                waitForConfig(config, failure, attemptTimeout);
+            } else {
+                fail(connectFuture.cause());
+                failure.setValue(connectFuture.cause());
+            }
+        } finally {
+            LOGGER.log(Level.DEBUG, "Closing the channel");
+            connectFuture.channel().close().await();
+            LOGGER.log(Level.DEBUG, "Channel closed");
         }
     }
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.conductor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.couchbase.client.dcp.util.CollectionsUtil;
+
+/**
+ * Encodes the JSON value of collection aware open stream requests, e.g.
+ * <code>{"collections":["8","9"],"uid":"1a","sid":3}</code>.
+ *
+ * Streams are (re)opened with the same collections, manifest uid and stream id over and over, so the encoded
+ * bytes are cached per combination. Not thread safe; each {@link DcpChannel} owns one and uses it under its lock.
+ */
+public class StreamRequestValueEncoder {
+    static final byte[] EMPTY = new byte[0];
+    private static final int MAX_CACHED_VALUES = 1024;
+
+    private final Map<Key, byte[]> cache = new HashMap<>();
+
+    public byte[] encode(int[] cids, long manifestUid, int streamId) {
+        Key key = new Key(cids, manifestUid, streamId);
+        byte[] value = cache.get(key);
+        if (value == null) {
+            if (cache.size() >= MAX_CACHED_VALUES) {
+                cache.clear();
+            }
+            value = toJson(cids, manifestUid, streamId);
+            cache.put(new Key(cids.clone(), manifestUid, streamId), value);
+        }
+        return value;
+    }
+
+    private static byte[] toJson(int[] cids, long manifestUid, int streamId) {
+        StringBuilder json = new StringBuilder(32 + cids.length * 8);
+        json.append("{\"collections\":[");
+        for (int i = 0; i < cids.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(CollectionsUtil.encodeCid(cids[i])).append('"');
+        }
+        json.append(']');
+        if (manifestUid != 0) {
+            json.append(",\"uid\":\"").append(CollectionsUtil.encodeManifestUid(manifestUid)).append('"');
+        }
+        if (streamId > 0) {
+            json.append(",\"sid\":").append(streamId);
+        }
+        json.append('}');
+        return json.toString().getBytes(UTF_8);
+    }
+
+    private static final class Key {
+        private final int[] cids;
+        private final long manifestUid;
+        private final int streamId;
+        private final int hash;
+
+        private Key(int[] cids, long manifestUid, int streamId) {
+            this.cids = cids;
+            this.manifestUid = manifestUid;
+            this.streamId = streamId;
+            this.hash = 31 * (31 * Arrays.hashCode(cids) + Long.hashCode(manifestUid)) + streamId;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return manifestUid == other.manifestUid && streamId == other.streamId && Arrays.equals(cids, other.cids);
+        }
+    }
+}
@@ -6,6 +6,9 @@ package com.couchbase.client.dcp.config;
 import java.net.InetSocketAddress;
 import java.security.KeyStore;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import com.couchbase.client.core.env.ConfigParserEnvironment;
@@ -16,13 +19,23 @@ import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.ConnectionNameGenerator;
 import com.couchbase.client.dcp.ControlEventHandler;
 import com.couchbase.client.dcp.CredentialsProvider;
+import com.couchbase.client.dcp.DataEventFilter;
 import com.couchbase.client.dcp.DataEventHandler;
 import com.couchbase.client.dcp.DefaultConnectionNameGenerator;
 import com.couchbase.client.dcp.SystemEventHandler;
+import com.couchbase.client.dcp.ValueMode;
 import com.couchbase.client.dcp.config.DcpControl.Names;
 import com.couchbase.client.dcp.events.DefaultEventBus;
 import com.couchbase.client.dcp.events.EventBus;
+import com.couchbase.client.dcp.metrics.DefaultMetricsRegistry;
+import com.couchbase.client.dcp.metrics.MetricsRegistry;
+import com.couchbase.client.dcp.transport.netty.EventLoopMonitor;
 import com.couchbase.client.dcp.util.FlowControlCallback;
+import com.couchbase.client.dcp.util.StallListener;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
+import com.couchbase.client.deps.io.netty.buffer.PooledByteBufAllocator;
+import com.couchbase.client.deps.io.netty.buffer.UnpooledByteBufAllocator;
 import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
 
 import rx.Completable;
@@ -41,12 +54,24 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
      */
     public static final long DEFAULT_CONFIG_PROVIDER_ATTEMPT_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
     public static final long DEFAULT_CONFIG_PROVIDER_TOTAL_TIMEOUT = Long.MAX_VALUE;
+    public static final RetryPolicy DEFAULT_CONFIG_PROVIDER_RETRY_POLICY =
+            RetryPolicy.jittered(1, 5, TimeUnit.SECONDS);
+    /**
+     * @deprecated the config provider retries with {@link #DEFAULT_CONFIG_PROVIDER_RETRY_POLICY}.
+     */
+    @Deprecated
     public static final Delay DEFAULT_CONFIG_PROVIDER_RECONNECT_DELAY = Delay.linear(TimeUnit.SECONDS, 5, 1);
     /*
      * DCP connection
      */
     public static final long DEFAULT_DCP_CHANNEL_ATTEMPT_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
     public static final long DEFAULT_DCP_CHANNEL_TOTAL_TIMEOUT = Long.MAX_VALUE;
+    public static final RetryPolicy DEFAULT_DCP_CHANNELS_RETRY_POLICY =
+            RetryPolicy.jittered(200, 10000, TimeUnit.MILLISECONDS);
+    /**
+     * @deprecated the DCP channels retry with {@link #DEFAULT_DCP_CHANNELS_RETRY_POLICY}.
+     */
+    @Deprecated
     public static final Delay DEFAULT_DCP_CHANNELS_RECONNECT_DELAY = Delay.fixed(200, TimeUnit.MILLISECONDS);
     /*
      * Other defaults
@@ -55,6 +80,9 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
     public static final int BOOTSTRAP_HTTP_DIRECT_PORT = 8091;
     public static final int BOOTSTRAP_HTTP_SSL_PORT = 18091;
     public static final long DEFAULT_PARTITION_REQUESTS_TIMEOUT = TimeUnit.SECONDS.toMillis(15);
+    public static final int DEFAULT_MAX_BACKFILLING_STREAMS_PER_NODE = 0;
+    public static final int DEFAULT_CONNECTIONS_PER_NODE = 1;
+    public static final long DEFAULT_STALL_THRESHOLD = 500;
 
     /**
      * Stores the list of bootstrap nodes (where the cluster is).
@@ -122,9 +150,9 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
     private final long configProviderTotalTimeout;
 
     /**
-     * Delay strategy for configuration provider reconnection.
+     * Retry policy for configuration provider reconnection.
      */
-    private final Delay configProviderReconnectDelay;
+    private final RetryPolicy configProviderRetryPolicy;
 
     /**
      * DCP socket connect single attempt timeout in milliseconds.
@@ -137,20 +165,81 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
     private final long dcpChannelTotalTimeout;
 
     /**
-     * Delay strategy for configuration provider reconnection.
+     * Retry policy for DCP channel reconnection.
      */
-    private final Delay dcpChannelsReconnectDelay;
+    private final RetryPolicy dcpChannelsRetryPolicy;
 
     /**
      * Timeout for partition information requests
      */
     private final long partitionRequestsTimeout;
 
+    /**
+     * Maximum number of streams per node which may be backfilling at once, 0 means no limit
+     */
+    private final int maxBackfillingStreamsPerNode;
+
+    /**
+     * Number of DCP connections opened against each node, the vbuckets of the node are striped across them
+     */
+    private final int connectionsPerNode;
+
+    /**
+     * Whether the producer is asked to include the extended attributes in the document values
+     */
+    private final boolean xattrsEnabled;
+
+    /**
+     * Which parts of the documents the producer sends in the data events
+     */
+    private final ValueMode valueMode;
+
+    /**
+     * Filter applied to the data events on the IO threads, null to accept all
+     */
+    private final DataEventFilter dataEventFilter;
+
+    /**
+     * Registry of the client metrics
+     */
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * Allocator of the channel buffers, null for the default pooled or unpooled allocator
+     */
+    private final ByteBufAllocator allocator;
+
+    /**
+     * Scheduler timing the wakeups of the fixer, null for a dedicated fixer thread
+     */
+    private final ScheduledExecutorService recoveryScheduler;
+
+    /**
+     * Executor the fixes run on when the fixer is woken up by the recovery scheduler
+     */
+    private final Executor recoveryExecutor;
+
+    /**
+     * Monitor of the responsiveness of the IO threads, null if the stalls are not reported
+     */
+    private final EventLoopMonitor eventLoopMonitor;
+
+    /**
+     * How long in milliseconds an IO thread can be unresponsive before it is reported
+     */
+    private final long stallThreshold;
+
+    /**
+     * Permits bounding the concurrent configuration fetches against the cluster, null for no bound
+     */
+    private final Semaphore configFetchPermits;
+
     private final EventBus eventBus;
     private final boolean sslEnabled;
     private final String sslKeystoreFile;
     private final String sslKeystorePassword;
     private final KeyStore sslKeystore;
+    private final boolean sslPreferOpenSsl;
     private final int bootstrapHttpDirectPort;
     private final int bootstrapHttpSslPort;
     private final FlowControlCallback flowControlCallback;
@@ -186,17 +275,31 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
         sslKeystoreFile = builder.sslKeystoreFile;
         sslKeystorePassword = builder.sslKeystorePassword;
         sslKeystore = builder.sslKeystore;
+        sslPreferOpenSsl = builder.sslPreferOpenSsl;
         clusterAt = builder.clusterAt;
         vbuckets = builder.vbuckets;
         flowControlCallback = builder.flowControlCallback;
         // Timeouts, retries, and delays
         configProviderAttemptTimeout = builder.configProviderAttemptTimeout;
         configProviderTotalTimeout = builder.configProviderTotalTimeout;
-        configProviderReconnectDelay = builder.configProviderReconnectDelay;
+        configProviderRetryPolicy = builder.configProviderRetryPolicy;
         dcpChannelAttemptTimeout = builder.dcpChannelAttemptTimeout;
         dcpChannelTotalTimeout = builder.dcpChannelTotalTimeout;
-        dcpChannelsReconnectDelay = builder.dcpChannelsReconnectDelay;
+        dcpChannelsRetryPolicy = builder.dcpChannelsRetryPolicy;
         partitionRequestsTimeout = builder.partitionRequestsTimeout;
+        maxBackfillingStreamsPerNode = builder.maxBackfillingStreamsPerNode;
+        connectionsPerNode = builder.connectionsPerNode;
+        xattrsEnabled = builder.xattrsEnabled;
+        valueMode = builder.valueMode;
+        dataEventFilter = builder.dataEventFilter;
+        metricsRegistry = builder.metricsRegistry != null ? builder.metricsRegistry : new DefaultMetricsRegistry();
+        allocator = builder.allocator;
+        recoveryScheduler = builder.recoveryScheduler;
+        recoveryExecutor = builder.recoveryExecutor;
+        configFetchPermits = builder.configFetchPermits;
+        stallThreshold = builder.stallThreshold;
+        eventLoopMonitor = builder.stallListener == null ? null
+                : new EventLoopMonitor(builder.stallListener, builder.stallThreshold, metricsRegistry);
         uuid = builder.uuid;
         dynamicConfigurationNodes = builder.dynamicConfigurationNodes;
         networkResolution = builder.networkResolution;
@@ -330,11 +433,54 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
         return poolBuffers;
     }
 
+    /**
+     * The allocator of the channel buffers, the pooled or unpooled default one unless a shared one was set.
+     */
+    public ByteBufAllocator allocator() {
+        if (allocator != null) {
+            return allocator;
+        }
+        return poolBuffers ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+    }
+
+    /**
+     * The scheduler timing the wakeups of the fixer, null if the client runs the fixer on a thread of its own.
+     */
+    public ScheduledExecutorService recoveryScheduler() {
+        return recoveryScheduler;
+    }
+
+    /**
+     * The executor the fixes run on, null if the client runs the fixer on a thread of its own. The fixes block on
+     * configuration fetches and connects, so the executor must not be bounded.
+     */
+    public Executor recoveryExecutor() {
+        return recoveryExecutor;
+    }
+
+    /**
+     * The permits bounding the concurrent configuration fetches against the cluster, null for no bound.
+     */
+    public Semaphore configFetchPermits() {
+        return configFetchPermits;
+    }
+
+    /**
+     * Retry policy for configuration provider reconnection.
+     */
+    public RetryPolicy configProviderRetryPolicy() {
+        return configProviderRetryPolicy;
+    }
+
     /**
      * Delay strategy for configuration provider reconnection.
+     *
+     * @deprecated returns the delay the retry policy was adapted from, null if it was not; use
+     *             {@link #configProviderRetryPolicy()}.
      */
+    @Deprecated
     public Delay configProviderReconnectDelay() {
-        return configProviderReconnectDelay;
+        return configProviderRetryPolicy.delay();
     }
 
     /**
@@ -352,6 +498,41 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
         return partitionRequestsTimeout;
     }
 
+    public int maxBackfillingStreamsPerNode() {
+        return maxBackfillingStreamsPerNode;
+    }
+
+    public int connectionsPerNode() {
+        return connectionsPerNode;
+    }
+
+    public boolean xattrsEnabled() {
+        return xattrsEnabled;
+    }
+
+    public ValueMode valueMode() {
+        return valueMode;
+    }
+
+    public DataEventFilter dataEventFilter() {
+        return dataEventFilter;
+    }
+
+    public MetricsRegistry metricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * The monitor of the responsiveness of the IO threads, null if no stall listener is set.
+     */
+    public EventLoopMonitor eventLoopMonitor() {
+        return eventLoopMonitor;
+    }
+
+    public long stallThreshold() {
+        return stallThreshold;
+    }
+
     /**
      * Returns the event bus where events are broadcasted on and can be published to.
      */
@@ -387,6 +568,11 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
         return sslKeystore;
     }
 
+    @Override
+    public boolean sslPreferOpenSsl() {
+        return sslPreferOpenSsl;
+    }
+
     @Override
     public MemcachedHashingStrategy memcachedHashingStrategy() {
         // This is hardcoded, because memcached nodes do not support DCP anyway.
@@ -414,6 +600,7 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
         private String sslKeystoreFile;
         private String sslKeystorePassword;
         private KeyStore sslKeystore;
+        private boolean sslPreferOpenSsl;
         private short[] vbuckets;
         private FlowControlCallback flowControlCallback;
         private String uuid;
@@ -424,14 +611,26 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
          */
         private long configProviderAttemptTimeout = DEFAULT_CONFIG_PROVIDER_ATTEMPT_TIMEOUT;
         private long configProviderTotalTimeout = DEFAULT_CONFIG_PROVIDER_ATTEMPT_TIMEOUT;
-        private Delay configProviderReconnectDelay = DEFAULT_CONFIG_PROVIDER_RECONNECT_DELAY;
+        private RetryPolicy configProviderRetryPolicy = DEFAULT_CONFIG_PROVIDER_RETRY_POLICY;
         /*
          * DCP Connection
          */
         private long dcpChannelAttemptTimeout = DEFAULT_DCP_CHANNEL_ATTEMPT_TIMEOUT;
         private long dcpChannelTotalTimeout = DEFAULT_DCP_CHANNEL_TOTAL_TIMEOUT;
-        private Delay dcpChannelsReconnectDelay = DEFAULT_DCP_CHANNELS_RECONNECT_DELAY;
+        private RetryPolicy dcpChannelsRetryPolicy = DEFAULT_DCP_CHANNELS_RETRY_POLICY;
         private long partitionRequestsTimeout = DEFAULT_PARTITION_REQUESTS_TIMEOUT;
+        private int maxBackfillingStreamsPerNode = DEFAULT_MAX_BACKFILLING_STREAMS_PER_NODE;
+        private int connectionsPerNode = DEFAULT_CONNECTIONS_PER_NODE;
+        private boolean xattrsEnabled;
+        private ValueMode valueMode = ValueMode.FULL;
+        private DataEventFilter dataEventFilter;
+        private MetricsRegistry metricsRegistry;
+        private ByteBufAllocator allocator;
+        private ScheduledExecutorService recoveryScheduler;
+        private Executor recoveryExecutor;
+        private Semaphore configFetchPermits;
+        private StallListener stallListener;
+        private long stallThreshold = DEFAULT_STALL_THRESHOLD;
         private NetworkResolution networkResolution;
 
         public Builder setClusterAt(List<InetSocketAddress> clusterAt) {
@@ -469,16 +668,34 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
             return this;
         }
 
-        public Builder setConfigProviderReconnectDelay(Delay configProviderReconnectDelay) {
-            this.configProviderReconnectDelay = configProviderReconnectDelay;
+        public Builder setConfigProviderRetryPolicy(RetryPolicy configProviderRetryPolicy) {
+            this.configProviderRetryPolicy = configProviderRetryPolicy;
             return this;
         }
 
-        public Builder setDcpChannelsReconnectDelay(Delay dcpChannelsReconnectDelay) {
-            this.dcpChannelsReconnectDelay = dcpChannelsReconnectDelay;
+        public Builder setDcpChannelsRetryPolicy(RetryPolicy dcpChannelsRetryPolicy) {
+            this.dcpChannelsRetryPolicy = dcpChannelsRetryPolicy;
             return this;
         }
 
+        /**
+         * @deprecated use {@link #setConfigProviderRetryPolicy(RetryPolicy)}; the delay is adapted with
+         *             {@link RetryPolicy#of(Delay)}.
+         */
+        @Deprecated
+        public Builder setConfigProviderReconnectDelay(Delay configProviderReconnectDelay) {
+            return setConfigProviderRetryPolicy(RetryPolicy.of(configProviderReconnectDelay));
+        }
+
+        /**
+         * @deprecated use {@link #setDcpChannelsRetryPolicy(RetryPolicy)}; the delay is adapted with
+         *             {@link RetryPolicy#of(Delay)}.
+         */
+        @Deprecated
+        public Builder setDcpChannelsReconnectDelay(Delay dcpChannelsReconnectDelay) {
+            return setDcpChannelsRetryPolicy(RetryPolicy.of(dcpChannelsReconnectDelay));
+        }
+
         public Builder setDcpChannelAttemptTimeout(long dcpChannelAttemptTimeout) {
             this.dcpChannelAttemptTimeout = dcpChannelAttemptTimeout;
             return this;
@@ -494,6 +711,92 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
             return this;
         }
 
+        /**
+         * Sets the maximum number of streams per node which may be backfilling at once
+         * (default value {@value #DEFAULT_MAX_BACKFILLING_STREAMS_PER_NODE}, no limit).
+         */
+        public Builder setMaxBackfillingStreamsPerNode(int maxBackfillingStreamsPerNode) {
+            this.maxBackfillingStreamsPerNode = maxBackfillingStreamsPerNode;
+            return this;
+        }
+
+        public Builder setConnectionsPerNode(int connectionsPerNode) {
+            this.connectionsPerNode = connectionsPerNode;
+            return this;
+        }
+
+        public Builder setXattrsEnabled(boolean xattrsEnabled) {
+            this.xattrsEnabled = xattrsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets which parts of the documents are streamed (default value {@link ValueMode#FULL}).
+         */
+        public Builder setValueMode(ValueMode valueMode) {
+            this.valueMode = valueMode;
+            return this;
+        }
+
+        /**
+         * Sets the listener of the stalls of the IO threads (default value null, the event loops are not watched).
+         */
+        public Builder setStallListener(StallListener stallListener) {
+            this.stallListener = stallListener;
+            return this;
+        }
+
+        /**
+         * Sets how long in milliseconds an IO thread can be unresponsive before it is reported to the stall listener
+         * (default value {@value #DEFAULT_STALL_THRESHOLD}).
+         */
+        public Builder setStallThreshold(long stallThreshold) {
+            this.stallThreshold = stallThreshold;
+            return this;
+        }
+
+        public Builder setDataEventFilter(DataEventFilter dataEventFilter) {
+            this.dataEventFilter = dataEventFilter;
+            return this;
+        }
+
+        /**
+         * Sets the registry of the client metrics (default value a new {@link DefaultMetricsRegistry}).
+         */
+        public Builder setMetricsRegistry(MetricsRegistry metricsRegistry) {
+            this.metricsRegistry = metricsRegistry;
+            return this;
+        }
+
+        /**
+         * Sets the allocator of the channel buffers (default value the pooled or unpooled default allocator).
+         */
+        public Builder setAllocator(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler timing the wakeups of the fixer (default value null, a dedicated fixer thread).
+         */
+        public Builder setRecoveryScheduler(ScheduledExecutorService recoveryScheduler) {
+            this.recoveryScheduler = recoveryScheduler;
+            return this;
+        }
+
+        /**
+         * Sets the executor the fixes run on, used with the recovery scheduler (default value null).
+         */
+        public Builder setRecoveryExecutor(Executor recoveryExecutor) {
+            this.recoveryExecutor = recoveryExecutor;
+            return this;
+        }
+
+        public Builder setConfigFetchPermits(Semaphore configFetchPermits) {
+            this.configFetchPermits = configFetchPermits;
+            return this;
+        }
+
         public Builder setDcpControl(DcpControl dcpControl) {
             this.dcpControl = dcpControl;
             return this;
@@ -577,6 +880,14 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
             return this;
         }
 
+        /**
+         * Uses an OpenSSL engine instead of the JDK one when netty finds OpenSSL available (default false).
+         */
+        public Builder setSslPreferOpenSsl(final boolean sslPreferOpenSsl) {
+            this.sslPreferOpenSsl = sslPreferOpenSsl;
+            return this;
+        }
+
         public Builder setVbuckets(final short[] vbuckets) {
             this.vbuckets = vbuckets;
             return this;
@@ -627,6 +938,9 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
      */
     public Completable shutdown() {
         Observable<Boolean> loopShutdown = Observable.empty();
+        if (eventLoopMonitor != null) {
+            eventLoopMonitor.close();
+        }
 
         if (eventLoopGroupIsPrivate) {
             loopShutdown = Completable.create(subscriber -> eventLoopGroup
@@ -649,16 +963,32 @@ public class ClientEnvironment implements SecureEnvironment, ConfigParserEnviron
                 + eventLoopGroup.getClass().getSimpleName() + ", eventLoopGroupIsPrivate=" + eventLoopGroupIsPrivate
                 + ", poolBuffers=" + poolBuffers + ", bufferAckWatermark=" + bufferAckWatermark
                 + ", dcpChannelAttemptTimeout=" + dcpChannelAttemptTimeout + ", dcpChannelTotalTimeout="
-                + dcpChannelTotalTimeout + ", dcpChannelsReconnectDelay=" + dcpChannelsReconnectDelay
+                + dcpChannelTotalTimeout + ", dcpChannelsRetryPolicy=" + dcpChannelsRetryPolicy
                 + ", configProviderAttemptTimeout=" + configProviderAttemptTimeout + ", configProviderTotalTimeout="
-                + configProviderTotalTimeout + ", configProviderReconnectDelay=" + configProviderReconnectDelay
+                + configProviderTotalTimeout + ", configProviderRetryPolicy=" + configProviderRetryPolicy
+                + ", maxBackfillingStreamsPerNode=" + maxBackfillingStreamsPerNode + ", connectionsPerNode="
+                + connectionsPerNode + ", xattrsEnabled=" + xattrsEnabled + ", valueMode=" + valueMode
+                + ", allocator=" + (allocator != null ? allocator.getClass().getSimpleName() : null)
+                + ", sharedRecovery=" + (recoveryScheduler != null && recoveryExecutor != null)
+                + ", configFetchPermits="
+                + (configFetchPermits != null) + ", stallThreshold="
+                + (eventLoopMonitor != null ? stallThreshold : "disabled")
                 + ", sslEnabled=" + sslEnabled + ", sslKeystoreFile='" + sslKeystoreFile + '\''
                 + ", sslKeystorePassword=" + (sslKeystorePassword != null && !sslKeystorePassword.isEmpty())
-                + ", sslKeystore=" + sslKeystore + '}';
+                + ", sslKeystore=" + sslKeystore + ", sslPreferOpenSsl=" + sslPreferOpenSsl + '}';
     }
 
+    public RetryPolicy dcpChannelsRetryPolicy() {
+        return dcpChannelsRetryPolicy;
+    }
+
+    /**
+     * @deprecated returns the delay the retry policy was adapted from, null if it was not; use
+     *             {@link #dcpChannelsRetryPolicy()}.
+     */
+    @Deprecated
     public Delay dcpChannelsReconnectDelay() {
-        return dcpChannelsReconnectDelay;
+        return dcpChannelsRetryPolicy.delay();
     }
 
     public CredentialsProvider credentialsProvider() {
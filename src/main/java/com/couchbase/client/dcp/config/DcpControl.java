@@ -60,6 +60,15 @@ public class DcpControl implements Iterable<Map.Entry<String, String>> {
         return bufSize != null && Integer.parseInt(bufSize) > 0;
     }
 
+    /**
+     * Shorthand getter to check if value compression is requested, in which case snappy is negotiated using HELO.
+     */
+    @SuppressWarnings("deprecation")
+    public boolean compressionEnabled() {
+        return Boolean.parseBoolean(values.get(Names.FORCE_VALUE_COMPRESSION.value()))
+                || Boolean.parseBoolean(values.get(Names.ENABLE_VALUE_COMPRESSION.value()));
+    }
+
     /**
      * Provides an iterator over the stored values in the map.
      */
@@ -3,23 +3,58 @@
  */
 package com.couchbase.client.dcp.config;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManagerFactory;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.couchbase.client.core.endpoint.SSLException;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
+import com.couchbase.client.deps.io.netty.handler.ssl.OpenSsl;
+import com.couchbase.client.deps.io.netty.handler.ssl.SslContext;
+import com.couchbase.client.deps.io.netty.handler.ssl.SslContextBuilder;
+import com.couchbase.client.deps.io.netty.handler.ssl.SslProvider;
+import com.couchbase.client.deps.io.netty.util.IllegalReferenceCountException;
+import com.couchbase.client.deps.io.netty.util.ReferenceCountUtil;
 
 /**
  * Creates a {@link SSLEngine} which will be passed into the handler if SSL is enabled.
  *
+ * The TLS context is built once per keystore and shared by all the factories of the JVM: loading the keystore and
+ * initializing the key and trust managers is not repeated on every connect. A context loaded from a keystore file is
+ * rebuilt when the file changes. Engines are created for the peer host and port, so that reconnects to the same node
+ * resume the TLS session instead of making a full handshake.
+ *
+ * The context is resolved when the factory is created, which happens on connect, so that creating engines on the
+ * event loop does not block on the keystore. Replaced OpenSSL contexts are released once their engines are gone.
+ *
  * @author Michael Nitschinger
  * @since 1.0
  */
 public class SSLEngineFactory {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAX_CONTEXTS = 64;
+
+    /**
+     * Contexts by keystore; a keystore given directly is keyed by identity, a keystore file by path. Both are keyed
+     * by the digest of the password too, never by the password itself.
+     */
+    private static final ConcurrentMap<ContextKey, CachedContext> CONTEXTS = new ConcurrentHashMap<>();
 
     /**
      * The global environment which is shared.
@@ -27,33 +62,133 @@ public class SSLEngineFactory {
     private final SecureEnvironment env;
 
     /**
-     * Create a new engine factory.
+     * The context resolved on creation.
+     */
+    private final CachedContext prepared;
+
+    /**
+     * Create a new engine factory, loading the context if it is not cached yet or its keystore file changed.
      *
      * @param env
      *            the config environment.
      */
     public SSLEngineFactory(SecureEnvironment env) {
         this.env = env;
+        this.prepared = context();
     }
 
     /**
-     * Returns a new {@link SSLEngine} constructed from the config settings.
+     * Returns a new {@link SSLEngine} constructed from the config settings, without session resumption.
      *
      * @return a {@link SSLEngine} ready to be used.
      */
     public SSLEngine get() {
+        return get(null, -1, ByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * Returns a new {@link SSLEngine} for the given peer, constructed from the config settings.
+     *
+     * @param peerHost
+     *            the host of the peer, the TLS session cache key together with the port.
+     * @param peerPort
+     *            the port of the peer.
+     * @param alloc
+     *            the allocator of the channel, used by the OpenSSL engine.
+     * @return a {@link SSLEngine} ready to be used.
+     */
+    public SSLEngine get(String peerHost, int peerPort, ByteBufAllocator alloc) {
+        try {
+            CachedContext ctx = prepared;
+            // a context replaced since is released, the cache holds its replacement
+            while (!ctx.retain()) {
+                ctx = context();
+            }
+            try {
+                return ctx.newEngine(peerHost, peerPort, alloc);
+            } finally {
+                ctx.release();
+            }
+        } catch (SSLException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SSLException("Could not create SSLEngine.", ex);
+        }
+    }
+
+    /**
+     * Drops all the cached contexts, e.g. after a keystore given directly was modified in place.
+     */
+    public static void invalidateAll() {
+        removeAllBut(null);
+    }
+
+    private CachedContext context() {
+        final boolean openSsl = env.sslPreferOpenSsl() && OpenSsl.isAvailable();
+        final KeyStore ks = env.sslKeystore();
+        final ContextKey key;
+        final File file;
+        if (ks != null) {
+            key = new ContextKey(ks, env.sslKeystorePassword(), openSsl);
+            file = null;
+        } else {
+            String ksFile = env.sslKeystoreFile();
+            if (ksFile == null || ksFile.isEmpty()) {
+                throw new IllegalArgumentException("Path to Keystore File must not be null or empty.");
+            }
+            file = new File(ksFile).getAbsoluteFile();
+            key = new ContextKey(file.getPath(), env.sslKeystorePassword(), openSsl);
+        }
+        CachedContext cached = CONTEXTS.get(key);
+        if (cached != null && !cached.isStale()) {
+            return cached;
+        }
+        // loaded outside of the map so that other keys, and other threads with this key, are not blocked on it
+        final CachedContext loaded = load(ks, file, openSsl);
+        final CachedContext[] replaced = new CachedContext[1];
+        CachedContext installed = CONTEXTS.merge(key, loaded, (current, l) -> {
+            if (!current.isStale()) {
+                return current;
+            }
+            replaced[0] = current;
+            return l;
+        });
+        if (installed != loaded) {
+            // lost a race with another thread loading the same keystore
+            loaded.release();
+        }
+        if (replaced[0] != null) {
+            replaced[0].release();
+        }
+        if (CONTEXTS.size() > MAX_CONTEXTS) {
+            // keystores no longer used, e.g. after a password change, would otherwise stay cached forever
+            removeAllBut(key);
+        }
+        return installed;
+    }
+
+    private static void removeAllBut(ContextKey keep) {
+        for (Iterator<Map.Entry<ContextKey, CachedContext>> it = CONTEXTS.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<ContextKey, CachedContext> entry = it.next();
+            if (!entry.getKey().equals(keep) && CONTEXTS.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().release();
+            }
+        }
+    }
+
+    private CachedContext load(KeyStore ks, File file, boolean openSsl) {
         try {
             String pass = env.sslKeystorePassword();
             char[] password = pass == null || pass.isEmpty() ? null : pass.toCharArray();
-
-            KeyStore ks = env.sslKeystore();
+            long lastModified = 0;
+            long length = 0;
             if (ks == null) {
+                lastModified = file.lastModified();
+                length = file.length();
                 ks = KeyStore.getInstance(KeyStore.getDefaultType());
-                String ksFile = env.sslKeystoreFile();
-                if (ksFile == null || ksFile.isEmpty()) {
-                    throw new IllegalArgumentException("Path to Keystore File must not be null or empty.");
+                try (InputStream in = new FileInputStream(file)) {
+                    ks.load(in, password);
                 }
-                ks.load(new FileInputStream(ksFile), password);
             }
             String defaultAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
             KeyManagerFactory kmf = KeyManagerFactory.getInstance(defaultAlgorithm);
@@ -61,14 +196,111 @@ public class SSLEngineFactory {
             kmf.init(ks, password);
             tmf.init(ks);
 
+            if (openSsl) {
+                LOGGER.info("Creating an OpenSSL TLS context for {}", file == null ? "the configured keystore" : file);
+                SslContext ctx = SslContextBuilder.forClient().sslProvider(SslProvider.OPENSSL).keyManager(kmf)
+                        .trustManager(tmf).build();
+                return new CachedContext(null, ctx, file, lastModified, length);
+            }
+            LOGGER.info("Creating a TLS context for {}", file == null ? "the configured keystore" : file);
             SSLContext ctx = SSLContext.getInstance("TLS");
             ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            return new CachedContext(ctx, null, file, lastModified, length);
+        } catch (Exception ex) {
+            throw new SSLException("Could not create SSLContext.", ex);
+        }
+    }
+
+    private static class CachedContext {
+        private final SSLContext jdkContext;
+        private final SslContext openSslContext;
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        private CachedContext(SSLContext jdkContext, SslContext openSslContext, File file, long lastModified,
+                long length) {
+            this.jdkContext = jdkContext;
+            this.openSslContext = openSslContext;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isStale() {
+            return file != null && (file.lastModified() != lastModified || file.length() != length);
+        }
+
+        /**
+         * @return false if the context was released already.
+         */
+        private boolean retain() {
+            if (openSslContext == null) {
+                return true;
+            }
+            try {
+                ReferenceCountUtil.retain(openSslContext);
+                return true;
+            } catch (IllegalReferenceCountException e) {
+                return false;
+            }
+        }
+
+        private void release() {
+            if (openSslContext != null) {
+                ReferenceCountUtil.release(openSslContext);
+            }
+        }
 
-            SSLEngine engine = ctx.createSSLEngine();
+        private SSLEngine newEngine(String peerHost, int peerPort, ByteBufAllocator alloc) {
+            if (openSslContext != null) {
+                return peerHost == null ? openSslContext.newEngine(alloc)
+                        : openSslContext.newEngine(alloc, peerHost, peerPort);
+            }
+            SSLEngine engine =
+                    peerHost == null ? jdkContext.createSSLEngine() : jdkContext.createSSLEngine(peerHost, peerPort);
             engine.setUseClientMode(true);
             return engine;
-        } catch (Exception ex) {
-            throw new SSLException("Could not create SSLEngine.", ex);
+        }
+    }
+
+    private static class ContextKey {
+        // the keystore given directly, compared by identity, or the path of the keystore file
+        private final Object keyStore;
+        private final byte[] passwordDigest;
+        private final boolean openSsl;
+
+        private ContextKey(Object keyStore, String password, boolean openSsl) {
+            this.keyStore = keyStore;
+            this.passwordDigest = digest(password);
+            this.openSsl = openSsl;
+        }
+
+        private static byte[] digest(String password) {
+            if (password == null) {
+                return null;
+            }
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                throw new SSLException("Could not digest the keystore password.", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContextKey)) {
+                return false;
+            }
+            ContextKey other = (ContextKey) o;
+            return (keyStore instanceof KeyStore ? keyStore == other.keyStore : keyStore.equals(other.keyStore))
+                    && openSsl == other.openSsl && Arrays.equals(passwordDigest, other.passwordDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = keyStore instanceof KeyStore ? System.identityHashCode(keyStore) : keyStore.hashCode();
+            return (hash * 31 + Arrays.hashCode(passwordDigest)) * 31 + Boolean.hashCode(openSsl);
         }
     }
 }
@@ -33,4 +33,13 @@ public interface SecureEnvironment {
      * @return the keystore to use.
      */
     KeyStore sslKeystore();
+
+    /**
+     * Whether an OpenSSL engine is used instead of the JDK one, when netty finds OpenSSL available.
+     *
+     * @return true to prefer OpenSSL.
+     */
+    default boolean sslPreferOpenSsl() {
+        return false;
+    }
 }
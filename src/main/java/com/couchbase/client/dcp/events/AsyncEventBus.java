@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.events;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.SystemEventHandler;
+import com.couchbase.client.deps.io.netty.util.concurrent.FastThreadLocalThread;
+
+/**
+ * An {@link EventBus} which never runs subscribers on the publishing thread, so that a slow subscriber cannot stall
+ * the IO threads publishing from the control message handlers.
+ *
+ * Subscriptions are per {@link DcpEvent.Type} and publication takes no lock shared between subscribers: the
+ * subscriptions of each type are an array replaced on subscribe. Every subscriber has its own bounded queue which
+ * is drained, in order and one event at a time, by a task on the executor. When the queue is full the event is
+ * queued beyond the capacity ({@link Overflow#GROW}), the publisher waits ({@link Overflow#BLOCK}) or the event is
+ * dropped ({@link Overflow#DROP}); an IO thread never waits, whatever the policy. Events of coalesced types
+ * which concern a partition, such as {@link FailoverLogUpdateEvent}, replace the event of the same partition which
+ * is still queued instead of being queued again.
+ */
+public class AsyncEventBus implements EventBus, AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final DcpEvent.Type[] TYPES = DcpEvent.Type.values();
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_EVENTS_PER_DRAIN = 256;
+
+    public enum Overflow {
+        /**
+         * The event is queued beyond the capacity, with a warning; the publisher does not wait and no event is lost.
+         */
+        GROW,
+        /**
+         * The publisher waits for room in the queue; no event is lost. A publisher on a Netty IO thread does not
+         * wait, the event is queued beyond the capacity as with {@link #GROW}.
+         */
+        BLOCK,
+        /**
+         * The event is dropped and counted, see {@link Subscription#dropped()}.
+         */
+        DROP
+    }
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final AtomicReferenceArray<Subscription[]> subscriptionsByType =
+            new AtomicReferenceArray<>(TYPES.length);
+
+    /**
+     * Creates a bus delivering on its own daemon threads.
+     */
+    public AsyncEventBus() {
+        this(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "dcp-event-bus");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    public AsyncEventBus(Executor executor) {
+        this(executor, false);
+    }
+
+    private AsyncEventBus(Executor executor, boolean owned) {
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+        for (int i = 0; i < TYPES.length; i++) {
+            subscriptionsByType.set(i, new Subscription[0]);
+        }
+    }
+
+    @Override
+    public void publish(DcpEvent event) {
+        for (Subscription subscription : subscriptionsByType.get(event.getType().ordinal())) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Subscribes to all the event types, growing the queue of the subscriber beyond its capacity when it is full and
+     * coalescing nothing, so that no event is lost and the publisher never waits.
+     */
+    @Override
+    public void subscribe(SystemEventHandler handler) {
+        subscribe(handler, EnumSet.allOf(DcpEvent.Type.class), DEFAULT_CAPACITY, Overflow.GROW,
+                EnumSet.noneOf(DcpEvent.Type.class));
+    }
+
+    /**
+     * @param types
+     *            the event types delivered to the handler.
+     * @param capacity
+     *            the size of the queue of the handler.
+     * @param overflow
+     *            what happens when the queue is full.
+     * @param coalesced
+     *            the types whose queued events are replaced by a newer event of the same partition.
+     */
+    public Subscription subscribe(SystemEventHandler handler, Set<DcpEvent.Type> types, int capacity,
+            Overflow overflow, Set<DcpEvent.Type> coalesced) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        Subscription subscription = new Subscription(handler, capacity, overflow, coalesced);
+        synchronized (this) {
+            for (DcpEvent.Type type : types) {
+                Subscription[] current = subscriptionsByType.get(type.ordinal());
+                Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = subscription;
+                subscriptionsByType.set(type.ordinal(), updated);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * Stops the delivery threads if the bus owns them; queued events are not delivered.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the key events of the same partition are coalesced by, or null if the event concerns no partition.
+     */
+    private static Object partitionKey(DcpEvent event) {
+        if (event instanceof FailoverLogUpdateEvent) {
+            return ((FailoverLogUpdateEvent) event).getPartitionState();
+        }
+        if (event instanceof PartitionDcpEvent) {
+            return ((PartitionDcpEvent) event).getPartitionState();
+        }
+        return null;
+    }
+
+    public class Subscription implements Runnable {
+        private final SystemEventHandler handler;
+        private final int capacity;
+        private final Overflow overflow;
+        private final Set<DcpEvent.Type> coalesced;
+        private final Queue<Pending> queue = new ArrayDeque<>();
+        // (type, partition) -> queued event, per coalesced type
+        private final Map<DcpEvent.Type, Map<Object, Pending>> queuedByPartition = new IdentityHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong overflowed = new AtomicLong();
+        private final AtomicLong coalescedCount = new AtomicLong();
+
+        private Subscription(SystemEventHandler handler, int capacity, Overflow overflow,
+                Set<DcpEvent.Type> coalesced) {
+            this.handler = handler;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.coalesced = coalesced.isEmpty() ? EnumSet.noneOf(DcpEvent.Type.class) : EnumSet.copyOf(coalesced);
+            for (DcpEvent.Type type : this.coalesced) {
+                queuedByPartition.put(type, new IdentityHashMap<>());
+            }
+        }
+
+        private void offer(DcpEvent event) {
+            final Object key = coalesced.contains(event.getType()) ? partitionKey(event) : null;
+            synchronized (this) {
+                if (key != null) {
+                    Pending queued = queuedByPartition.get(event.getType()).get(key);
+                    if (queued != null) {
+                        queued.event = event;
+                        coalescedCount.incrementAndGet();
+                        return;
+                    }
+                }
+                while (queue.size() >= capacity) {
+                    if (overflow == Overflow.DROP) {
+                        if (dropped.getAndIncrement() == 0) {
+                            LOGGER.warn("event queue of {} is full, dropping events", handler);
+                        }
+                        return;
+                    }
+                    if (overflow == Overflow.GROW || Thread.currentThread() instanceof FastThreadLocalThread) {
+                        if (queue.size() == capacity) {
+                            LOGGER.warn("event queue of {} is full, queueing beyond its capacity of {}", handler,
+                                    capacity);
+                        }
+                        overflowed.incrementAndGet();
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        LOGGER.warn("interrupted while waiting to queue {} for {}, dropping it", event, handler);
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                }
+                Pending pending = new Pending(key, event);
+                queue.add(pending);
+                if (key != null) {
+                    queuedByPartition.get(event.getType()).put(key, pending);
+                }
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_EVENTS_PER_DRAIN; i++) {
+                DcpEvent event;
+                synchronized (this) {
+                    Pending pending = queue.poll();
+                    if (pending == null) {
+                        break;
+                    }
+                    if (pending.key != null) {
+                        queuedByPartition.get(pending.event.getType()).remove(pending.key);
+                    }
+                    event = pending.event;
+                    notifyAll();
+                }
+                try {
+                    handler.onEvent(event);
+                } catch (Exception e) {
+                    LOGGER.error("{} failed handling {}", handler, event, e);
+                }
+            }
+            scheduled.set(false);
+            boolean more;
+            synchronized (this) {
+                more = !queue.isEmpty();
+            }
+            if (more && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        public synchronized int queued() {
+            return queue.size();
+        }
+
+        public long dropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Returns the number of events which were queued beyond the capacity.
+         */
+        public long overflowed() {
+            return overflowed.get();
+        }
+
+        public long coalesced() {
+            return coalescedCount.get();
+        }
+    }
+
+    private static class Pending {
+        private final Object key;
+        private DcpEvent event;
+
+        private Pending(Object key, DcpEvent event) {
+            this.key = key;
+            this.event = event;
+        }
+    }
+}
@@ -5,12 +5,15 @@ package com.couchbase.client.dcp.events;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.hyracks.util.Span;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.couchbase.client.dcp.conductor.DcpChannel;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
 
 public class ChannelDroppedEvent implements DcpEvent {
@@ -19,20 +22,44 @@ public class ChannelDroppedEvent implements DcpEvent {
     private final DcpChannel channel;
     private final Throwable cause;
     private int fixAttempts = 0;
+    private RetryPolicy.Backoff backoff;
+    private Span delay = Span.ELAPSED;
 
     public ChannelDroppedEvent(DcpChannel channel, Throwable cause) {
         this.channel = channel;
         this.cause = cause;
     }
 
+    /**
+     * Counts a failed fix attempt, without delaying the next one.
+     *
+     * @deprecated use {@link #incrementAttempts(RetryPolicy)}.
+     */
+    @Deprecated
     public void incrementAttempts() {
+        incrementAttempts(RetryPolicy.IMMEDIATE);
+    }
+
+    /**
+     * Counts a failed fix attempt and delays the next one according to the policy.
+     */
+    public void incrementAttempts(RetryPolicy retryPolicy) {
         fixAttempts++;
+        if (backoff == null) {
+            backoff = retryPolicy.backoff();
+        }
+        delay = Span.start(backoff.nextDelayNanos(), TimeUnit.NANOSECONDS);
     }
 
     public int getAttempts() {
         return fixAttempts;
     }
 
+    @Override
+    public Span delay() {
+        return delay;
+    }
+
     @Override
     public Type getType() {
         return Type.CHANNEL_DROPPED;
@@ -9,15 +9,15 @@ import org.apache.hyracks.util.Span;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.dcp.conductor.Conductor;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 
 public class DeadConnectionDetection {
 
     private static final Logger LOGGER = LogManager.getLogger();
     private static final int ATTEMPT_TIMEOUT = 2000;
     private static final int TOTAL_TIMEOUT = 0;
-    private static final Delay DELAY = Delay.fixed(0, TimeUnit.MILLISECONDS);
+    private static final RetryPolicy SINGLE_ATTEMPT = RetryPolicy.IMMEDIATE;
 
     private final Conductor conductor;
     private final long interval;
@@ -33,7 +33,7 @@ public class DeadConnectionDetection {
         if (span.elapsed()) {
             span = Span.start(interval, TimeUnit.MILLISECONDS);
             LOGGER.info("Running dead connection detection");
-            conductor.reviveDeadConnections(ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, DELAY);
+            conductor.reviveDeadConnections(ATTEMPT_TIMEOUT, TOTAL_TIMEOUT, SINGLE_ATTEMPT);
         }
     }
 
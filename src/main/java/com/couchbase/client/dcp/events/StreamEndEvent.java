@@ -3,9 +3,14 @@
  */
 package com.couchbase.client.dcp.events;
 
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hyracks.util.Span;
+
 import com.couchbase.client.dcp.message.StreamEndReason;
 import com.couchbase.client.dcp.state.StreamPartitionState;
 import com.couchbase.client.dcp.state.StreamState;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 
 /**
  * Event published when stream has stopped activity.
@@ -17,6 +22,8 @@ public class StreamEndEvent implements PartitionDcpEvent {
     private boolean failoverLogsRequested;
     private boolean seqRequested;
     private int attempts = 0;
+    private RetryPolicy.Backoff backoff;
+    private Span delay = Span.ELAPSED;
 
     public StreamEndEvent(StreamPartitionState state, StreamState stream, StreamEndReason reason) {
         this.state = state;
@@ -42,6 +49,8 @@ public class StreamEndEvent implements PartitionDcpEvent {
         setFailoverLogsRequested(false);
         setSeqRequested(false);
         attempts = 0;
+        backoff = null;
+        delay = Span.ELAPSED;
     }
 
     public void setReason(StreamEndReason reason) {
@@ -77,8 +86,30 @@ public class StreamEndEvent implements PartitionDcpEvent {
         this.seqRequested = seqRequested;
     }
 
+    /**
+     * Counts a failed fix attempt, without delaying the next one.
+     *
+     * @deprecated use {@link #incrementAttempts(RetryPolicy)}.
+     */
+    @Deprecated
     public void incrementAttempts() {
+        incrementAttempts(RetryPolicy.IMMEDIATE);
+    }
+
+    /**
+     * Counts a failed fix attempt and delays the next one according to the policy.
+     */
+    public void incrementAttempts(RetryPolicy retryPolicy) {
         attempts++;
+        if (backoff == null) {
+            backoff = retryPolicy.backoff();
+        }
+        delay = Span.start(backoff.nextDelayNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Span delay() {
+        return delay;
     }
 
     public int getAttempts() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.jfr;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.events.DcpEvent;
+import com.couchbase.client.dcp.message.StreamEndReason;
+
+/**
+ * Records the lifecycle of the client as JDK Flight Recorder events, so that stalls can be investigated from a
+ * continuous recording instead of from logs.
+ *
+ * This class is the no-op shim used when JFR is not available, e.g. on Java 8 or in jars built with -Dno-jfr: every
+ * method does nothing. Otherwise {@link #get()} returns the JFR backed recorder, whose events are only committed when
+ * they are enabled in the running recording. The JFR recorder can be turned off with the system property
+ * {@value #DISABLE_PROPERTY}.
+ *
+ * The timings are given as {@link System#nanoTime()} starts and the peers as objects, so that callers neither
+ * compute durations nor build strings for events which are not recorded.
+ */
+public class DcpFlightRecorder {
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final String DISABLE_PROPERTY = "com.couchbase.client.dcp.jfr.disabled";
+    private static final String JFR_RECORDER = "com.couchbase.client.dcp.jfr.JfrFlightRecorder";
+    private static final DcpFlightRecorder INSTANCE = load();
+
+    protected DcpFlightRecorder() {
+    }
+
+    /**
+     * Returns the recorder of the JVM.
+     */
+    public static DcpFlightRecorder get() {
+        return INSTANCE;
+    }
+
+    private static DcpFlightRecorder load() {
+        if (Boolean.getBoolean(DISABLE_PROPERTY)) {
+            return new DcpFlightRecorder();
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (DcpFlightRecorder) Class.forName(JFR_RECORDER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.debug("JDK Flight Recorder events are not available", e);
+            return new DcpFlightRecorder();
+        }
+    }
+
+    /**
+     * Whether this recorder records anything at all.
+     */
+    public boolean enabled() {
+        return false;
+    }
+
+    public void channelConnected(Object peer, int attempts, long startNanos, boolean success) {
+        // no-op
+    }
+
+    public void channelDisconnected(Object peer, long startNanos) {
+        // no-op
+    }
+
+    /**
+     * Records the latency between an open stream request and its response.
+     */
+    public void streamOpened(Object peer, int streamId, short vbid, long requestNanos, short status) {
+        // no-op
+    }
+
+    public void rollback(Object peer, int streamId, short vbid, long rollbackSeqno) {
+        // no-op
+    }
+
+    public void streamEnded(Object peer, int streamId, short vbid, StreamEndReason reason) {
+        // no-op
+    }
+
+    public void bufferAckSent(Object peer, int bytes) {
+        // no-op
+    }
+
+    public void configRefreshed(String bucket, long startNanos, boolean success) {
+        // no-op
+    }
+
+    public void fixerEventHandled(String client, DcpEvent.Type type, long startNanos) {
+        // no-op
+    }
+
+    /**
+     * Whether the dispatch latency of the data events is recorded; callers time only a sample of the events.
+     */
+    public boolean dispatchRecorded() {
+        return false;
+    }
+
+    public void dataEventDispatched(Object peer, short vbid, int bytes, long startNanos) {
+        // no-op
+    }
+}
@@ -46,4 +46,12 @@ public abstract class DcpDataMessage {
     public static long revisionSeqno(final ByteBuf buffer) {
         return buffer.getLong(MessageUtil.getHeaderSize(buffer) + 8);
     }
+
+    /**
+     * Whether the event carries a value. Events streamed with {@link com.couchbase.client.dcp.ValueMode#KEY_ONLY}
+     * have none, even if their datatype still flags the document as JSON or compressed.
+     */
+    public static boolean hasContent(final ByteBuf buffer) {
+        return MessageUtil.getContentLength(buffer) > 0;
+    }
 }
@@ -7,6 +7,7 @@ import static com.couchbase.client.dcp.message.MessageUtil.DCP_MUTATION_OPCODE;
 
 import com.couchbase.client.dcp.util.CollectionsUtil;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
 
 public class DcpMutationMessage extends DcpDataMessage {
 
@@ -24,10 +25,16 @@ public class DcpMutationMessage extends DcpDataMessage {
         return MessageUtil.getContent(buffer);
     }
 
+    /**
+     * Returns the uncompressed content, see {@link MessageUtil#getUncompressedContent(ByteBuf, ByteBufAllocator)}.
+     * The returned buffer must be released by the caller.
+     */
+    public static ByteBuf uncompressedContent(final ByteBuf buffer, final ByteBufAllocator alloc) {
+        return MessageUtil.getUncompressedContent(buffer, alloc);
+    }
+
     public static byte[] contentBytes(final ByteBuf buffer) {
-        byte[] bytes = new byte[buffer.readableBytes()];
-        content(buffer).getBytes(0, bytes);
-        return bytes;
+        return MessageUtil.getContentAsByteArray(buffer);
     }
 
     public static int flags(final ByteBuf buffer) {
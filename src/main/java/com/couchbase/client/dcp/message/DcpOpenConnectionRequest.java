@@ -11,6 +11,17 @@ import com.couchbase.client.deps.io.netty.buffer.Unpooled;
 public enum DcpOpenConnectionRequest {
     ;
 
+    /**
+     * Asks the producer to include the extended attributes in the document values.
+     */
+    public static final int INCLUDE_XATTRS = 0x04;
+
+    /**
+     * Asks the producer to send the data events without the document values; combined with
+     * {@link #INCLUDE_XATTRS} the values only hold the extended attributes.
+     */
+    public static final int NO_VALUE = 0x08;
+
     /**
      * If the given buffer is a {@link DcpOpenConnectionRequest} message.
      */
@@ -24,9 +35,17 @@ public enum DcpOpenConnectionRequest {
      * Note that this will implicitly set the flags to "consumer".
      */
     public static void init(final ByteBuf buffer) {
+        init(buffer, 0);
+    }
+
+    /**
+     * Initialize the buffer with all the values needed and the given flags (e.g. {@link #INCLUDE_XATTRS}) in
+     * addition to the type flag.
+     */
+    public static void init(final ByteBuf buffer, final int flags) {
         MessageUtil.initRequest(OPEN_CONNECTION_OPCODE, buffer);
         ByteBuf extras = Unpooled.buffer(8);
-        MessageUtil.setExtras(extras.writeInt(0).writeInt(Type.PRODUCER.value), buffer);
+        MessageUtil.setExtras(extras.writeInt(0).writeInt(Type.PRODUCER.value | flags), buffer);
         extras.release();
     }
 
@@ -11,6 +11,8 @@ import com.couchbase.client.deps.io.netty.buffer.Unpooled;
 public enum DcpOpenStreamRequest {
     ;
 
+    private static final int EXTRAS_LENGTH = 48;
+
     /**
      * If the given buffer is a {@link DcpOpenStreamRequest} message.
      */
@@ -39,6 +41,36 @@ public enum DcpOpenStreamRequest {
                 buffer);
     }
 
+    /**
+     * Writes a complete open stream request into the given buffer in a single pass: header, the 48 byte extras
+     * and the (possibly empty) value. Unlike {@link #init(ByteBuf, short)} no intermediate buffers are allocated,
+     * so the target buffer can come straight from a pooled allocator.
+     */
+    public static void write(final ByteBuf buffer, short vbucket, int streamId, long vbuuid, long startSeqno,
+            long endSeqno, long snapshotStartSeqno, long snapshotEndSeqno, byte[] value) {
+        buffer.writeByte(MessageUtil.MAGIC_REQ);
+        buffer.writeByte(DCP_STREAM_REQUEST_OPCODE);
+        buffer.writeShort(0); // key length
+        buffer.writeByte(EXTRAS_LENGTH);
+        buffer.writeByte(0); // data type
+        buffer.writeShort(vbucket);
+        buffer.writeInt(EXTRAS_LENGTH + value.length);
+        buffer.writeInt(streamId << 16 | vbucket);
+        buffer.writeLong(0); // cas
+        buffer.writeInt(0); // flags
+        buffer.writeInt(0); // reserved
+        buffer.writeLong(startSeqno);
+        buffer.writeLong(endSeqno);
+        buffer.writeLong(vbuuid);
+        buffer.writeLong(snapshotStartSeqno);
+        buffer.writeLong(snapshotEndSeqno);
+        buffer.writeBytes(value);
+    }
+
+    public static int length(byte[] value) {
+        return MessageUtil.HEADER_SIZE + EXTRAS_LENGTH + value.length;
+    }
+
     public static void startSeqno(final ByteBuf buffer, long seqnoStart) {
         MessageUtil.getExtras(buffer).setLong(8, seqnoStart);
     }
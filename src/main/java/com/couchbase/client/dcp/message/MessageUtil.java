@@ -9,7 +9,10 @@ import com.couchbase.client.dcp.conductor.DcpChannel;
 import com.couchbase.client.dcp.state.SessionState;
 import com.couchbase.client.dcp.state.StreamState;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufAllocator;
 import com.couchbase.client.deps.io.netty.buffer.ByteBufUtil;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.deps.io.netty.handler.codec.compression.Snappy;
 
 public class MessageUtil {
 
@@ -17,7 +20,7 @@ public class MessageUtil {
      * this does not take flex framing into account; consumers should instead use
      * {@link MessageUtil#getHeaderSize(ByteBuf)}
      */
-    private static final int HEADER_SIZE = 24;
+    public static final int HEADER_SIZE = 24;
 
     public static final byte MAGIC_INT = (byte) 0x79;
     public static final byte MAGIC_REQ = (byte) 0x80;
@@ -30,6 +33,11 @@ public class MessageUtil {
     public static final short BODY_LENGTH_OFFSET = 8;
     public static final short OPAQUE_OFFSET = 12;
     public static final short CAS_OFFSET = 16;
+    public static final short DATATYPE_OFFSET = 5;
+
+    public static final byte DATATYPE_JSON = 0x01;
+    public static final byte DATATYPE_SNAPPY = 0x02;
+    public static final byte DATATYPE_XATTR = 0x04;
 
     public static final short FLEX_FRAMING_EXTRAS_LENGTH_OFFSET = 2;
     public static final short FLEX_KEY_LENGTH_OFFSET = 3;
@@ -358,6 +366,26 @@ public class MessageUtil {
         return readLEB128(getKey(buffer, false));
     }
 
+    /**
+     * Hashes the raw key bytes (including the collection prefix, if any) in place, without slicing the buffer or
+     * decoding the key. Equal keys of the same collection always hash to the same value.
+     */
+    public static int keyHash(ByteBuf buffer) {
+        int offset = HEADER_SIZE + getFramingExtrasSize(buffer) + buffer.getByte(EXTRAS_LENGTH_OFFSET);
+        int end = offset + buffer.getUnsignedByte(FLEX_KEY_LENGTH_OFFSET);
+        int hash = 1;
+        for (int i = offset; i < end; i++) {
+            hash = 31 * hash + buffer.getByte(i);
+        }
+        // murmur3 finalizer, so that consecutive keys spread over all the low bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
     /**
      * Sets the content payload of the buffer, updating the content length as well.
      */
@@ -379,12 +407,21 @@ public class MessageUtil {
     }
 
     public static ByteBuf getContent(ByteBuf buffer) {
+        short framingExtrasLength = getFramingExtrasSize(buffer);
+        short keyLength = buffer.getUnsignedByte(FLEX_KEY_LENGTH_OFFSET);
+        byte extrasLength = buffer.getByte(EXTRAS_LENGTH_OFFSET);
+        return buffer.slice(HEADER_SIZE + framingExtrasLength + extrasLength + keyLength, getContentLength(buffer));
+    }
+
+    /**
+     * Returns the length of the (possibly compressed) value without slicing it; 0 for events sent without values.
+     */
+    public static int getContentLength(ByteBuf buffer) {
         short framingExtrasLength = getFramingExtrasSize(buffer);
         short keyLength = buffer.getUnsignedByte(FLEX_KEY_LENGTH_OFFSET);
         byte extrasLength = buffer.getByte(EXTRAS_LENGTH_OFFSET);
         // The size of the value is total body length - key length - extras length - framing extras
-        int contentLength = buffer.getInt(BODY_LENGTH_OFFSET) - keyLength - extrasLength - framingExtrasLength;
-        return buffer.slice(HEADER_SIZE + framingExtrasLength + extrasLength + keyLength, contentLength);
+        return buffer.getInt(BODY_LENGTH_OFFSET) - keyLength - extrasLength - framingExtrasLength;
     }
 
     public static short getStatus(ByteBuf buffer) {
@@ -468,7 +505,7 @@ public class MessageUtil {
      * Returns a new array containing the uncompressed content of the given message.
      */
     public static byte[] getContentAsByteArray(ByteBuf buffer) {
-        final ByteBuf rawContent = getRawContent(buffer);
+        final ByteBuf rawContent = getContent(buffer);
 
         // When OpenConnectionFlags.NO_VALUE is used, the content is always empty.
         // Documents can still be flagged as snappy compressed, so do this check before
@@ -478,8 +515,53 @@ public class MessageUtil {
             // Generate less garbage by reusing the same empty array.
             return EMPTY_BYTE_ARRAY;
         }
+        if (!isSnappyCompressed(buffer)) {
+            return ByteBufUtil.getBytes(rawContent);
+        }
+        ByteBuf uncompressed = Unpooled.wrappedBuffer(new byte[snappyUncompressedLength(rawContent)]);
+        uncompressed.clear();
+        new Snappy().decode(rawContent, uncompressed);
+        return uncompressed.array();
+    }
+
+    public static boolean isSnappyCompressed(ByteBuf buffer) {
+        return (buffer.getByte(DATATYPE_OFFSET) & DATATYPE_SNAPPY) != 0;
+    }
+
+    /**
+     * Returns the uncompressed content of the given message. Compressed content is only decompressed when this is
+     * called, into a buffer from the given allocator; otherwise a retained slice of the message is returned. Either
+     * way the caller owns the returned buffer and must release it.
+     */
+    public static ByteBuf getUncompressedContent(ByteBuf buffer, ByteBufAllocator alloc) {
+        final ByteBuf rawContent = getContent(buffer);
+        if (rawContent.readableBytes() == 0 || !isSnappyCompressed(buffer)) {
+            return rawContent.retain();
+        }
+        ByteBuf uncompressed = alloc.buffer(snappyUncompressedLength(rawContent));
+        try {
+            new Snappy().decode(rawContent, uncompressed);
+            return uncompressed;
+        } catch (RuntimeException e) {
+            uncompressed.release();
+            throw e;
+        }
+    }
 
-        return ByteBufUtil.getBytes(rawContent);
+    /**
+     * Reads the varint preamble of a raw snappy block without moving the reader index.
+     */
+    private static int snappyUncompressedLength(ByteBuf compressed) {
+        int length = 0;
+        int index = compressed.readerIndex();
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = compressed.getByte(index++);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("invalid snappy preamble");
     }
 
     public static int streamId(ByteBuf buffer) {
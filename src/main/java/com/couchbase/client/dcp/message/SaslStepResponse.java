@@ -17,4 +17,11 @@ public enum SaslStepResponse {
         return buffer.getByte(0) == MessageUtil.MAGIC_RES && buffer.getByte(1) == SASL_STEP_OPCODE;
     }
 
+    /**
+     * Returns the final server message.
+     */
+    public static ByteBuf challenge(final ByteBuf buffer) {
+        return MessageUtil.getContent(buffer);
+    }
+
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * A reusable flyweight over the value of a data event which carries extended attributes
+ * ({@link MessageUtil#DATATYPE_XATTR}). Nothing is copied: pairs are iterated in place, a single attribute is found
+ * by comparing its name with the raw bytes, and the document body is a slice of the event.
+ *
+ * The xattr section is laid out as a 4 byte total length followed by pairs, each a 4 byte length then the name and
+ * the value, both NUL terminated. A reader is not thread safe; keep one per thread and {@link #wrap(ByteBuf)} every
+ * event.
+ *
+ * <pre>
+ * private static final byte[] SYNC = XattrReader.name("_sync");
+ * ...
+ * if (reader.wrap(event).find(SYNC)) {
+ *     handleSync(reader.value());
+ * }
+ * handleBody(reader.body());
+ * </pre>
+ */
+public class XattrReader {
+    private static final byte NUL = 0;
+
+    private ByteBuf content;
+    private boolean hasXattrs;
+    // end of the xattr section, relative to the content
+    private int xattrsEnd;
+    // start of the next pair
+    private int next;
+    private int nameOffset;
+    private int nameLength;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Encodes an attribute name once so that it can be looked up without allocating.
+     */
+    public static byte[] name(String name) {
+        return name.getBytes(UTF_8);
+    }
+
+    /**
+     * Wraps the value of the given data event.
+     *
+     * @throws IllegalArgumentException
+     *             if the value is snappy compressed; wrap the result of
+     *             {@link MessageUtil#getUncompressedContent} with {@link #wrap(ByteBuf, boolean)} instead.
+     */
+    public XattrReader wrap(ByteBuf event) {
+        byte datatype = event.getByte(MessageUtil.DATATYPE_OFFSET);
+        // an event without a value may still be flagged as compressed
+        if ((datatype & MessageUtil.DATATYPE_SNAPPY) != 0 && MessageUtil.getContentLength(event) > 0) {
+            throw new IllegalArgumentException("value is snappy compressed, decompress it first");
+        }
+        return wrap(MessageUtil.getContent(event), (datatype & MessageUtil.DATATYPE_XATTR) != 0);
+    }
+
+    /**
+     * Wraps an uncompressed value.
+     *
+     * @param hasXattrs
+     *            whether the value starts with an xattr section.
+     */
+    public XattrReader wrap(ByteBuf content, boolean hasXattrs) {
+        this.content = content;
+        this.hasXattrs = hasXattrs && content.readableBytes() >= 4;
+        this.xattrsEnd = this.hasXattrs ? 4 + content.getInt(content.readerIndex()) : 0;
+        if (xattrsEnd < 0 || xattrsEnd > content.readableBytes()) {
+            throw new IllegalArgumentException("xattr section length " + (xattrsEnd - 4) + " exceeds the value length "
+                    + content.readableBytes());
+        }
+        rewind();
+        return this;
+    }
+
+    public boolean hasXattrs() {
+        return hasXattrs;
+    }
+
+    /**
+     * Returns the document body, i.e. the value without the xattr section, as a slice sharing the event memory.
+     */
+    public ByteBuf body() {
+        return content.slice(content.readerIndex() + xattrsEnd, content.readableBytes() - xattrsEnd);
+    }
+
+    /**
+     * Whether there is a document body after the xattr section; there is none when the events are streamed with
+     * {@link com.couchbase.client.dcp.ValueMode#XATTRS_ONLY} or without values.
+     */
+    public boolean hasBody() {
+        return content.readableBytes() > xattrsEnd;
+    }
+
+    /**
+     * Restarts the iteration over the pairs.
+     */
+    public void rewind() {
+        next = hasXattrs ? 4 : xattrsEnd;
+        nameLength = -1;
+    }
+
+    /**
+     * Moves to the next pair.
+     *
+     * @return false if there are no more pairs
+     */
+    public boolean next() {
+        if (next >= xattrsEnd) {
+            nameLength = -1;
+            return false;
+        }
+        final int base = content.readerIndex();
+        final int pairLength = content.getInt(base + next);
+        nameOffset = next + 4;
+        final int pairEnd = nameOffset + pairLength;
+        if (pairLength < 2 || pairEnd > xattrsEnd || content.getByte(base + pairEnd - 1) != NUL) {
+            throw new IllegalStateException("malformed xattr pair at offset " + next);
+        }
+        int nameEnd = content.indexOf(base + nameOffset, base + pairEnd, NUL) - base;
+        if (nameEnd < nameOffset || nameEnd == pairEnd - 1) {
+            throw new IllegalStateException("malformed xattr pair at offset " + next);
+        }
+        nameLength = nameEnd - nameOffset;
+        valueOffset = nameEnd + 1;
+        // the pair length covers both NUL terminators
+        valueLength = pairLength - nameLength - 2;
+        next = pairEnd;
+        return true;
+    }
+
+    /**
+     * Positions the reader on the attribute with the given name, see {@link #name(String)}.
+     *
+     * @return false if the value has no such attribute
+     */
+    public boolean find(byte[] name) {
+        rewind();
+        while (next()) {
+            if (nameEquals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the name of the current pair equals the given encoded name.
+     */
+    public boolean nameEquals(byte[] name) {
+        checkPositioned();
+        if (name.length != nameLength) {
+            return false;
+        }
+        final int offset = content.readerIndex() + nameOffset;
+        for (int i = 0; i < nameLength; i++) {
+            if (content.getByte(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of the current pair as a slice sharing the event memory.
+     */
+    public ByteBuf name() {
+        checkPositioned();
+        return content.slice(content.readerIndex() + nameOffset, nameLength);
+    }
+
+    /**
+     * Returns the value of the current pair (usually JSON) as a slice sharing the event memory.
+     */
+    public ByteBuf value() {
+        checkPositioned();
+        return content.slice(content.readerIndex() + valueOffset, valueLength);
+    }
+
+    /**
+     * The offset of the value of the current pair in the wrapped content, to read it without a slice.
+     */
+    public int valueOffset() {
+        checkPositioned();
+        return content.readerIndex() + valueOffset;
+    }
+
+    public int valueLength() {
+        checkPositioned();
+        return valueLength;
+    }
+
+    private void checkPositioned() {
+        if (nameLength < 0) {
+            throw new IllegalStateException("not positioned on an xattr pair");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.message.StreamEndReason;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * The instruments of a single {@link com.couchbase.client.dcp.conductor.DcpChannel}, kept in flat arrays so that
+ * the IO thread never looks anything up by name. Contributed to the registry as a {@link MetricSet} under
+ * {@code dcp.channel.<host:port>.}.
+ */
+public class ChannelMetrics implements MetricSet {
+    private static final StreamEndReason[] END_REASONS = StreamEndReason.values();
+
+    private final String prefix;
+    private final AtomicLongArray messagesByOpcode = new AtomicLongArray(256);
+    private final AtomicLongArray bytesByOpcode = new AtomicLongArray(256);
+    private final AtomicLongArray streamEnds = new AtomicLongArray(END_REASONS.length);
+    private final Counter ackableBytes = new Counter();
+    private final Counter consumerAckedBytes = new Counter();
+    private final Counter bufferAckBytes = new Counter();
+    private final Counter bufferAcks = new Counter();
+    private final Counter streamOpens = new Counter();
+    private final Counter rollbacks = new Counter();
+    private final LatencyRecorder bufferAckFlushLatency = new LatencyRecorder();
+
+    public ChannelMetrics(String hostPort) {
+        this.prefix = "dcp.channel." + hostPort + ".";
+    }
+
+    public void received(ByteBuf message) {
+        final int opcode = message.getByte(1) & 0xff;
+        final int bytes = message.readableBytes();
+        messagesByOpcode.incrementAndGet(opcode);
+        bytesByOpcode.addAndGet(opcode, bytes);
+        final byte magic = message.getByte(0);
+        if ((magic == MessageUtil.MAGIC_REQ || magic == MessageUtil.MAGIC_REQ_FLEX)
+                && opcode != MessageUtil.DCP_NOOP_OPCODE) {
+            ackableBytes.add(bytes);
+        }
+    }
+
+    public void acked(int bytes) {
+        consumerAckedBytes.add(bytes);
+    }
+
+    public void bufferAckSent(int bytes) {
+        bufferAcks.increment();
+        bufferAckBytes.add(bytes);
+    }
+
+    public void bufferAckFlushed(long startNanos) {
+        bufferAckFlushLatency.recordSince(startNanos);
+    }
+
+    public void streamOpened() {
+        streamOpens.increment();
+    }
+
+    public void rollback() {
+        rollbacks.increment();
+    }
+
+    public void streamEnded(StreamEndReason reason) {
+        streamEnds.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Bytes of received requests which the consumer did not ack yet.
+     */
+    public long unackedBytes() {
+        return ackableBytes.get() - consumerAckedBytes.get();
+    }
+
+    @Override
+    public void collect(BiConsumer<String, Number> sink) {
+        for (int opcode = 0; opcode < 256; opcode++) {
+            long messages = messagesByOpcode.get(opcode);
+            if (messages > 0) {
+                String opcodeName = MessageUtil.humanizeOpcode((byte) opcode);
+                sink.accept(prefix + "messages." + opcodeName, messages);
+                sink.accept(prefix + "bytes." + opcodeName, bytesByOpcode.get(opcode));
+            }
+        }
+        for (StreamEndReason reason : END_REASONS) {
+            long ends = streamEnds.get(reason.ordinal());
+            if (ends > 0) {
+                sink.accept(prefix + "streamEnds." + reason, ends);
+            }
+        }
+        sink.accept(prefix + "unackedBytes", unackedBytes());
+        sink.accept(prefix + "bufferAcks", bufferAcks.get());
+        sink.accept(prefix + "bufferAckBytes", bufferAckBytes.get());
+        sink.accept(prefix + "streamOpens", streamOpens.get());
+        sink.accept(prefix + "rollbacks", rollbacks.get());
+        sink.accept(prefix + "bufferAckFlushLatency.count", bufferAckFlushLatency.count());
+        sink.accept(prefix + "bufferAckFlushLatency.p99", bufferAckFlushLatency.percentile(99));
+        sink.accept(prefix + "bufferAckFlushLatency.max", bufferAckFlushLatency.max());
+    }
+}
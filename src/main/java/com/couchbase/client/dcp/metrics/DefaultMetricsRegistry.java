@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-memory {@link MetricsRegistry}; expose it with {@link JmxMetricsBinding} or poll {@link #snapshot()}.
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { ".p50", ".p90", ".p99", ".p999" };
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<MetricSet> metricSets = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    @Override
+    public LatencyRecorder latency(String name) {
+        return latencies.computeIfAbsent(name, n -> new LatencyRecorder());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    @Override
+    public void register(MetricSet metricSet) {
+        metricSets.addIfAbsent(metricSet);
+    }
+
+    @Override
+    public void unregister(MetricSet metricSet) {
+        metricSets.remove(metricSet);
+    }
+
+    @Override
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        latencies.forEach((name, latency) -> {
+            snapshot.put(name + ".count", latency.count());
+            snapshot.put(name + ".max", latency.max());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                snapshot.put(name + PERCENTILE_NAMES[i], latency.percentile(PERCENTILES[i]));
+            }
+        });
+        for (MetricSet metricSet : metricSets) {
+            metricSet.collect(snapshot::put);
+        }
+        return snapshot;
+    }
+}
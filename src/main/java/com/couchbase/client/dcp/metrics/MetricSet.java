@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.metrics;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A group of metrics whose names are only known when they are read.
+ */
+@FunctionalInterface
+public interface MetricSet {
+    void collect(BiConsumer<String, Number> sink);
+}
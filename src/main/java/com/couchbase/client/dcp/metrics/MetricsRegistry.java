@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.metrics;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of a client. Instruments are looked up by name and created on first use; the same name always
+ * returns the same instrument. Metrics which are only known when read (e.g. one per stream) are contributed by a
+ * {@link MetricSet}.
+ *
+ * Names are dot separated, starting with {@code dcp.}; latencies are in nanoseconds.
+ */
+public interface MetricsRegistry {
+
+    Counter counter(String name);
+
+    LatencyRecorder latency(String name);
+
+    void gauge(String name, LongSupplier value);
+
+    void register(MetricSet metricSet);
+
+    void unregister(MetricSet metricSet);
+
+    /**
+     * Returns the current value of every metric, by name. A latency recorder contributes its count, max and
+     * percentiles.
+     */
+    Map<String, Number> snapshot();
+}
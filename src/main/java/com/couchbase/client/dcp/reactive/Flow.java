@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.reactive;
+
+/**
+ * Java 8 compatible mirror of the {@code java.util.concurrent.Flow} interfaces (Reactive Streams). The method
+ * signatures are identical, so on Java 9+ an adapter to the JDK (or org.reactivestreams) types is a one-liner.
+ */
+public final class Flow {
+
+    private Flow() {
+        throw new AssertionError("do not instantiate");
+    }
+
+    @FunctionalInterface
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+}
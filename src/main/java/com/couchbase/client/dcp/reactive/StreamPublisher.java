@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.reactive;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.DcpAckHandle;
+import com.couchbase.client.dcp.conductor.DcpChannel;
+import com.couchbase.client.dcp.transport.netty.DcpMessageHandler;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * A single subscriber {@link Flow.Publisher} of the data events of one DCP stream.
+ *
+ * Events are acked to the producer when they are handed to the subscriber, i.e. subscriber demand drives the
+ * DCP buffer acks. Events which arrive without demand are queued; once the queue holds {@code capacity} events
+ * the channels feeding it stop reading until the subscriber has drained it to half of that, or until every other
+ * stream which paused them has resumed them too, see {@link DcpChannel#pauseReads(int)}.
+ *
+ * The subscriber owns the delivered buffers and must release them, it must not ack them.
+ */
+public class StreamPublisher implements Flow.Publisher<ByteBuf> {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Flow.Subscription REJECTED = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+            // no-op
+        }
+
+        @Override
+        public void cancel() {
+            // no-op
+        }
+    };
+
+    private final int streamId;
+    private final int capacity;
+    private final Function<ByteBuf, DcpChannel> channelLookup;
+    private final Deque<Pending> queue = new ArrayDeque<>();
+    private final Set<DcpChannel> paused = new LinkedHashSet<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private Flow.Subscriber<? super ByteBuf> subscriber;
+    private long demand;
+    private boolean cancelled;
+    private boolean completed;
+
+    StreamPublisher(int streamId, int capacity, Function<ByteBuf, DcpChannel> channelLookup) {
+        this.streamId = streamId;
+        this.capacity = capacity;
+        this.channelLookup = channelLookup;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuf> s) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = subscriber == null;
+            if (accepted) {
+                subscriber = s;
+            }
+        }
+        if (!accepted) {
+            s.onSubscribe(REJECTED);
+            s.onError(new IllegalStateException("stream " + streamId + " already has a subscriber"));
+            return;
+        }
+        s.onSubscribe(new StreamSubscription());
+        drain();
+    }
+
+    /**
+     * Called on the event loop for every data event of this stream.
+     */
+    void offer(DcpAckHandle ackHandle, ByteBuf event) {
+        synchronized (this) {
+            if (!cancelled) {
+                queue.add(new Pending(ackHandle, event));
+                if (queue.size() >= capacity) {
+                    pause(event);
+                }
+                event = null;
+            }
+        }
+        if (event != null) {
+            ackHandle.ack(event);
+            DcpMessageHandler.release(event);
+            return;
+        }
+        drain();
+    }
+
+    void complete() {
+        synchronized (this) {
+            completed = true;
+        }
+        drain();
+    }
+
+    private void pause(ByteBuf event) {
+        try {
+            DcpChannel channel = channelLookup.apply(event);
+            if (channel != null && paused.add(channel)) {
+                LOGGER.debug("pausing reads on {}, {} events are waiting for demand on stream {}", channel,
+                        queue.size(), streamId);
+                channel.pauseReads(streamId);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to find the channel to pause for stream {}", streamId, e);
+        }
+    }
+
+    private List<DcpChannel> resumable() {
+        if (paused.isEmpty() || queue.size() > capacity / 2) {
+            return null;
+        }
+        List<DcpChannel> resume = new ArrayList<>(paused);
+        paused.clear();
+        return resume;
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        try {
+            do {
+                drainQueue();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        } finally {
+            if (missed != 0) {
+                // failed unexpectedly: the next drain must not find the loop still owned
+                wip.set(0);
+            }
+        }
+    }
+
+    private void drainQueue() {
+        for (;;) {
+            Pending next;
+            Flow.Subscriber<? super ByteBuf> s;
+            List<DcpChannel> resume;
+            boolean done = false;
+            synchronized (this) {
+                s = subscriber;
+                if (s == null || cancelled) {
+                    return;
+                }
+                if (queue.isEmpty()) {
+                    if (!completed) {
+                        return;
+                    }
+                    cancelled = true;
+                    done = true;
+                }
+                if (!done && demand == 0) {
+                    return;
+                }
+                next = done ? null : queue.poll();
+                if (!done && demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                resume = resumable();
+            }
+            if (resume != null) {
+                resume.forEach(c -> c.resumeReads(streamId));
+            }
+            if (done) {
+                try {
+                    s.onComplete();
+                } catch (Throwable th) {
+                    LOGGER.warn("subscriber of stream {} failed handling completion", streamId, th);
+                }
+                return;
+            }
+            next.ackHandle.ack(next.event);
+            try {
+                s.onNext(next.event);
+            } catch (Throwable th) {
+                // the subscriber is broken: stop delivering and release what it will never see
+                LOGGER.warn("subscriber of stream {} failed handling an event, cancelling", streamId, th);
+                cancel();
+                try {
+                    s.onError(th);
+                } catch (Throwable e) {
+                    LOGGER.warn("subscriber of stream {} failed handling its failure", streamId, e);
+                }
+                return;
+            }
+        }
+    }
+
+    private void cancel() {
+        List<Pending> dropped;
+        List<DcpChannel> resume;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+            resume = new ArrayList<>(paused);
+            paused.clear();
+        }
+        for (Pending pending : dropped) {
+            pending.ackHandle.ack(pending.event);
+            DcpMessageHandler.release(pending.event);
+        }
+        resume.forEach(c -> c.resumeReads(streamId));
+    }
+
+    private class StreamSubscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                Flow.Subscriber<? super ByteBuf> s;
+                synchronized (StreamPublisher.this) {
+                    s = subscriber;
+                }
+                cancel();
+                if (s != null) {
+                    s.onError(new IllegalArgumentException("non-positive request: " + n));
+                }
+                return;
+            }
+            synchronized (StreamPublisher.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            StreamPublisher.this.cancel();
+        }
+    }
+
+    private static final class Pending {
+        private final DcpAckHandle ackHandle;
+        private final ByteBuf event;
+
+        private Pending(DcpAckHandle ackHandle, ByteBuf event) {
+            this.ackHandle = ackHandle;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.reactive;
+
+import com.couchbase.client.dcp.Client;
+import com.couchbase.client.dcp.ClientDataEventHandler;
+import com.couchbase.client.dcp.DcpAckHandle;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Exposes the data events of a {@link Client} as one {@link StreamPublisher} per stream id, so that subscriber
+ * demand drives the DCP buffer acks end to end.
+ *
+ * <pre>
+ * StreamPublishers publishers = new StreamPublishers(client, 1024);
+ * publishers.publisher(streamId).subscribe(subscriber);
+ * client.startStreaming(streamId);
+ * </pre>
+ */
+public class StreamPublishers implements ClientDataEventHandler {
+    private final Client client;
+    private final int capacity;
+    private final Int2ObjectMap<StreamPublisher> publishers =
+            Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<>());
+
+    /**
+     * Registers the publishers as the data event handler of the client.
+     *
+     * @param client
+     *            the client to publish the data events of.
+     * @param capacity
+     *            the number of events per stream buffered without demand before reads are paused.
+     */
+    public StreamPublishers(Client client, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.client = client;
+        this.capacity = capacity;
+        client.dataEventHandler(this);
+    }
+
+    public Flow.Publisher<ByteBuf> publisher(int streamId) {
+        return getOrCreate(streamId);
+    }
+
+    /**
+     * Completes the subscriber of the stream once the already received events are delivered.
+     */
+    public void complete(int streamId) {
+        getOrCreate(streamId).complete();
+    }
+
+    @Override
+    public void onEvent(DcpAckHandle ackHandle, ByteBuf event) {
+        getOrCreate(MessageUtil.streamId(event)).offer(ackHandle, event);
+    }
+
+    private StreamPublisher getOrCreate(int streamId) {
+        synchronized (publishers) {
+            StreamPublisher publisher = publishers.get(streamId);
+            if (publisher == null) {
+                publisher = new StreamPublisher(streamId, capacity,
+                        event -> client.getChannel(MessageUtil.getVbucket(event)));
+                publishers.put(streamId, publisher);
+            }
+            return publisher;
+        }
+    }
+}
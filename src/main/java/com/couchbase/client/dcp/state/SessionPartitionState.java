@@ -6,6 +6,7 @@ package com.couchbase.client.dcp.state;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -29,6 +30,8 @@ public class SessionPartitionState {
 
     private volatile Throwable failoverLogRequestFailure;
 
+    private volatile CompletableFuture<SessionPartitionState> failoverLogFuture = new CompletableFuture<>();
+
     private final FailoverLogUpdateEvent failoverLogUpdateEvent;
 
     public SessionPartitionState(short vbid) {
@@ -57,16 +60,37 @@ public class SessionPartitionState {
         return failoverLog.get(i);
     }
 
-    public synchronized void failoverUpdated() {
+    public void failoverUpdated() {
         LOGGER.trace("Failover log updated for {}", vbid);
-        failoverUpdated = true;
-        notifyAll();
+        final CompletableFuture<SessionPartitionState> future;
+        synchronized (this) {
+            failoverUpdated = true;
+            notifyAll();
+            future = failoverLogFuture;
+        }
+        // outside the monitor: dependent actions run on this thread
+        future.complete(this);
     }
 
-    public void failoverRequest() {
+    /**
+     * Resets the failover log request state and returns the future which is completed when the
+     * response to the new request arrives (or the request fails).
+     */
+    public synchronized CompletableFuture<SessionPartitionState> failoverRequest() {
         LOGGER.trace("Failover log requested for {}", vbid);
         failoverUpdated = false;
         failoverLogRequestFailure = null;
+        if (failoverLogFuture.isDone()) {
+            failoverLogFuture = new CompletableFuture<>();
+        }
+        return failoverLogFuture;
+    }
+
+    /**
+     * Returns the future of the most recent failover log request.
+     */
+    public CompletableFuture<SessionPartitionState> failoverLogFuture() {
+        return failoverLogFuture;
     }
 
     /**
@@ -110,9 +134,14 @@ public class SessionPartitionState {
         return failoverLogUpdateEvent;
     }
 
-    public synchronized void failoverLogsRequestFailed(Throwable t) {
-        failoverLogRequestFailure = t;
-        notifyAll();
+    public void failoverLogsRequestFailed(Throwable t) {
+        final CompletableFuture<SessionPartitionState> future;
+        synchronized (this) {
+            failoverLogRequestFailure = t;
+            notifyAll();
+            future = failoverLogFuture;
+        }
+        future.completeExceptionally(t);
     }
 
     public short vbid() {
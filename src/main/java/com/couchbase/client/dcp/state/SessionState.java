@@ -6,6 +6,8 @@ package com.couchbase.client.dcp.state;
 import static it.unimi.dsi.fastutil.objects.ObjectArrays.ensureCapacity;
 
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReferenceArray;
@@ -40,6 +42,9 @@ public class SessionState {
 
     private Throwable collectionsManifestFailure;
 
+    private CompletableFuture<CollectionsManifest> collectionsManifestFuture =
+            CompletableFuture.completedFuture(collectionsManifest);
+
     private final AtomicReferenceArray<SessionPartitionState> sessionPartitionState;
 
     private volatile StreamState[] streams = new StreamState[0];
@@ -85,16 +90,40 @@ public class SessionState {
     public void setDisconnected() {
         LOGGER.debug("{} (0x{}): disconnected", this, Integer.toHexString(System.identityHashCode(this)));
         connected = false;
+        failPendingRequests(new CancellationException("Client disconnected while waiting for reply"));
+    }
+
+    /**
+     * Fails all outstanding asynchronous partition, seqnos and manifest requests with the supplied cause.
+     */
+    private void failPendingRequests(Throwable cause) {
+        final CompletableFuture<CollectionsManifest> manifestFuture;
+        synchronized (this) {
+            manifestFuture = collectionsManifestFuture;
+        }
+        manifestFuture.completeExceptionally(cause);
+        for (int i = 0; i < numPartitions; i++) {
+            SessionPartitionState ps = sessionPartitionState.get(i);
+            if (ps != null && !ps.failoverLogFuture().isDone()) {
+                ps.failoverLogsRequestFailed(cause);
+            }
+        }
+        streamStream().forEach(ss -> ss.currentSeqFuture().completeExceptionally(cause));
     }
 
     public String getUuid() {
         return uuid;
     }
 
-    public synchronized void requestCollectionsManifest(DcpChannel channel) {
+    public synchronized CompletableFuture<CollectionsManifest> requestCollectionsManifest(DcpChannel channel) {
         collectionsManifest = null;
         collectionsManifestFailure = null;
+        if (collectionsManifestFuture.isDone()) {
+            collectionsManifestFuture = new CompletableFuture<>();
+        }
+        final CompletableFuture<CollectionsManifest> future = collectionsManifestFuture;
         channel.requestCollectionsManifest();
+        return future;
     }
 
     public synchronized CollectionsManifest waitForCollectionsManifest(long timeout)
@@ -115,16 +144,27 @@ public class SessionState {
         return collectionsManifest;
     }
 
-    public synchronized void onCollectionsManifest(CollectionsManifest collectionsManifest) {
-        this.collectionsManifest = collectionsManifest;
-        this.collectionsManifestFailure = null;
-        notifyAll();
+    public void onCollectionsManifest(CollectionsManifest collectionsManifest) {
+        final CompletableFuture<CollectionsManifest> future;
+        synchronized (this) {
+            this.collectionsManifest = collectionsManifest;
+            this.collectionsManifestFailure = null;
+            notifyAll();
+            future = collectionsManifestFuture;
+        }
+        // outside the monitor: dependent actions run on this thread
+        future.complete(collectionsManifest);
     }
 
-    public synchronized void onCollectionsManifestFailure(Throwable failure) {
-        this.collectionsManifest = null;
-        this.collectionsManifestFailure = failure;
-        notifyAll();
+    public void onCollectionsManifestFailure(Throwable failure) {
+        final CompletableFuture<CollectionsManifest> future;
+        synchronized (this) {
+            this.collectionsManifest = null;
+            this.collectionsManifestFailure = failure;
+            notifyAll();
+            future = collectionsManifestFuture;
+        }
+        future.completeExceptionally(failure);
     }
 
     public synchronized CollectionsManifest getCollectionsManifest() {
@@ -18,6 +18,7 @@ import org.apache.logging.log4j.Logger;
 
 import com.couchbase.client.dcp.message.DcpSystemEvent;
 import com.couchbase.client.dcp.util.MemcachedStatus;
+import com.couchbase.client.dcp.util.retry.RetryPolicy;
 import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
@@ -32,6 +33,8 @@ public class StreamPartitionState {
     public static final byte DISCONNECTING = 0x04;
     public static final byte CONNECTED_OSO = 0x05;
     public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // backoff between the open stream attempts of a partition the server answered with a temporary failure
+    private static final RetryPolicy OPEN_STREAM_RETRY_POLICY = RetryPolicy.jittered(1, 64, TimeUnit.SECONDS);
 
     private volatile long currentVBucketSeqnoInMaster = INVALID_SEQNO;
 
@@ -60,6 +63,16 @@ public class StreamPartitionState {
 
     private Span delay;
 
+    private RetryPolicy.Backoff openStreamBackoff;
+
+    // when the last open stream request was written, 0 if not recorded
+    private volatile long streamRequestNanos;
+
+    private volatile StreamState.LagTotals lagTotals;
+
+    // whether the stream holds a backfill admission slot of its channel
+    private volatile boolean admitted;
+
     /**
      * Initialize a new partition state.
      */
@@ -83,6 +96,7 @@ public class StreamPartitionState {
     public void setSnapshotEndSeqno(long snapshotEndSeqno) {
         this.snapshotEndSeqno = snapshotEndSeqno;
         currentVBucketSeqnoInMaster = maxUnsigned(currentVBucketSeqnoInMaster, snapshotEndSeqno);
+        accountLag();
     }
 
     /**
@@ -109,6 +123,7 @@ public class StreamPartitionState {
                 LOGGER.trace("setting seqno to {} for vbid {} on setSeqno", seqno, vbid);
             }
             this.seqno = seqno;
+            accountLag();
         }
     }
 
@@ -125,6 +140,22 @@ public class StreamPartitionState {
         return state;
     }
 
+    public long getStreamRequestNanos() {
+        return streamRequestNanos;
+    }
+
+    public void setStreamRequestNanos(long streamRequestNanos) {
+        this.streamRequestNanos = streamRequestNanos;
+    }
+
+    public boolean isAdmitted() {
+        return admitted;
+    }
+
+    public void setAdmitted(boolean admitted) {
+        this.admitted = admitted;
+    }
+
     public synchronized void setState(byte state) {
         this.state = state;
         notifyAll();
@@ -157,6 +188,7 @@ public class StreamPartitionState {
         snapshotStartSeqno = streamRequest.getSnapshotStartSeqno();
         snapshotEndSeqno = streamRequest.getSnapshotEndSeqno();
         manifestUid = streamRequest.getManifestUid();
+        accountLag();
     }
 
     public void prepareNextStreamRequest(SessionState sessionState, StreamState streamState) {
@@ -183,6 +215,20 @@ public class StreamPartitionState {
 
     public void setCurrentVBucketSeqnoInMaster(long currentVBucketSeqnoInMaster) {
         this.currentVBucketSeqnoInMaster = currentVBucketSeqnoInMaster;
+        accountLag();
+    }
+
+    void setLagTotals(StreamState.LagTotals lagTotals) {
+        this.lagTotals = lagTotals;
+        accountLag();
+    }
+
+    private void accountLag() {
+        final StreamState.LagTotals totals = lagTotals;
+        if (totals != null) {
+            final long current = seqno;
+            totals.update(vbid, current, Math.max(0, currentVBucketSeqnoInMaster - current));
+        }
     }
 
     public void useStreamRequest() {
@@ -249,15 +295,12 @@ public class StreamPartitionState {
     public void calculateNextDelay(short status) {
         if (status == MemcachedStatus.SUCCESS) {
             delay = ELAPSED;
+            openStreamBackoff = null;
         } else {
-            if (delay.getSpanNanos() == 0) {
-                // start with 1s
-                delay = Span.start(1, TimeUnit.SECONDS);
-            } else {
-                // double the delay, capping at 64s
-                delay = Span.start(Long.min(delay.getSpanNanos() * 2, TimeUnit.SECONDS.toNanos(64)),
-                        TimeUnit.NANOSECONDS);
+            if (openStreamBackoff == null) {
+                openStreamBackoff = OPEN_STREAM_RETRY_POLICY.backoff();
             }
+            delay = Span.start(openStreamBackoff.nextDelayNanos(), TimeUnit.NANOSECONDS);
         }
     }
 
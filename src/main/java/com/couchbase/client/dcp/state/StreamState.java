@@ -5,9 +5,12 @@ package com.couchbase.client.dcp.state;
 
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 import org.apache.hyracks.util.Span;
@@ -31,9 +34,12 @@ public class StreamState {
      */
     private final StreamPartitionState[] partitionStates;
 
-    private volatile CountDownLatch currentSeqLatch = new CountDownLatch(0);
+    private volatile SeqnosRequest currentSeqRequest = new SeqnosRequest(0);
 
-    private volatile Throwable seqsRequestFailure;
+    private final LongAdder dataEvents = new LongAdder();
+    private final LongAdder dataBytes = new LongAdder();
+
+    private final LagTotals lagTotals;
 
     /**
      * Initializes a StreamState
@@ -43,13 +49,14 @@ public class StreamState {
         this.cid = cid;
         this.sessionState = sessionState;
         this.partitionStates = new StreamPartitionState[sessionState.getNumOfPartitions()];
+        this.lagTotals = new LagTotals(partitionStates.length);
         if (vbuckets.length > 0) {
             for (short vbid : vbuckets) {
-                partitionStates[vbid] = new StreamPartitionState(vbid);
+                set(vbid, new StreamPartitionState(vbid));
             }
         } else {
             for (short vbid = 0; vbid < partitionStates.length; vbid++) {
-                partitionStates[vbid] = new StreamPartitionState(vbid);
+                set(vbid, new StreamPartitionState(vbid));
             }
         }
     }
@@ -78,6 +85,11 @@ public class StreamState {
      */
     public void set(int partition, StreamPartitionState partitionState) {
         partitionStates[partition] = partitionState;
+        if (partitionState == null) {
+            lagTotals.update(partition, 0, 0);
+        } else {
+            partitionState.setLagTotals(lagTotals);
+        }
     }
 
     /**
@@ -100,40 +112,175 @@ public class StreamState {
         return streamId;
     }
 
-    public void currentSeqRequest(int length) {
-        currentSeqLatch = new CountDownLatch(length);
-        seqsRequestFailure = null;
+    /**
+     * Resets the current seqnos request state and returns the future which is completed once the
+     * seqnos of all requested vbuckets have been received (or the request fails).
+     */
+    public synchronized CompletableFuture<StreamState> currentSeqRequest(int length) {
+        currentSeqRequest = new SeqnosRequest(length);
+        return currentSeqRequest.future();
+    }
+
+    /**
+     * Returns the most recent current seqnos request, the one {@link #waitTillCurrentSeqUpdated} waits for.
+     */
+    public SeqnosRequest currentSeqRequest() {
+        return currentSeqRequest;
+    }
+
+    /**
+     * Returns the future of the most recent current seqnos request.
+     */
+    public CompletableFuture<StreamState> currentSeqFuture() {
+        return currentSeqRequest.future();
+    }
+
+    /**
+     * Creates a seqnos request which is not the current one: its replies are counted on its own, so it neither
+     * disturbs nor is disturbed by the waiters of the current request.
+     */
+    public SeqnosRequest newSeqRequest(int length) {
+        return new SeqnosRequest(length);
     }
 
     public void waitTillCurrentSeqUpdated(long timeout) throws Throwable {
-        Span span = Span.start(timeout, TimeUnit.MILLISECONDS);
-        LOGGER.debug("Waiting until current seq updated for all vbuckets");
-        if (!currentSeqLatch.await(span.getSpanNanos(), TimeUnit.NANOSECONDS)) {
-            throw new TimeoutException(timeout / 1000.0 + "s passed before obtaining current seqnos ("
-                    + currentSeqLatch.getCount() + " remaining)");
-        }
-        if (seqsRequestFailure != null) {
-            throw seqsRequestFailure;
-        }
+        currentSeqRequest.await(timeout);
     }
 
     public void seqsRequestFailed(Throwable t) {
-        seqsRequestFailure = t;
-        // drain countdown latch
-        for (long i = currentSeqLatch.getCount(); i > 0; i--) {
-            currentSeqLatch.countDown();
-        }
+        currentSeqRequest.failed(t);
     }
 
-    public void setCurrentVBucketSeqnoInMaster(short vbid, long seqno) {
+    /**
+     * Updates the master seqno of a vbucket of the stream.
+     *
+     * @return whether the vbucket is part of the stream
+     */
+    public boolean setCurrentVBucketSeqnoInMaster(short vbid, long seqno) {
         final StreamPartitionState ps = get(vbid);
         if (ps != null) {
             ps.setCurrentVBucketSeqnoInMaster(seqno);
-            currentSeqLatch.countDown();
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Returns the number of seqnos between the current seqnos and the master seqnos of the stream, maintained as
+     * the seqnos of its partitions change.
+     */
+    public long pendingSeqnos() {
+        return lagTotals.pending.sum();
+    }
+
+    /**
+     * Returns the sum of the current seqnos of the partitions of the stream.
+     */
+    public long seqnosSum() {
+        return lagTotals.seqnos.sum();
+    }
+
+    /**
+     * Returns the number of pending seqnos of a vbucket as last accounted by its partition.
+     */
+    public long pendingSeqnos(int vbid) {
+        return lagTotals.pendingByVbucket.get(vbid);
     }
 
     public int collectionId() {
         return cid;
     }
+
+    public void dataEventReceived(int bytes) {
+        dataEvents.increment();
+        dataBytes.add(bytes);
+    }
+
+    /**
+     * Returns the number of data events received on this stream since it was created.
+     */
+    public long dataEventsReceived() {
+        return dataEvents.sum();
+    }
+
+    /**
+     * Returns the number of bytes of the data events received on this stream since it was created.
+     */
+    public long dataBytesReceived() {
+        return dataBytes.sum();
+    }
+
+    /**
+     * The replies expected by one get-all-vb-seqnos request of the stream. Every request counts its own replies, so
+     * that concurrent requests of the same stream never complete each other.
+     */
+    public class SeqnosRequest {
+        private final CountDownLatch latch;
+        private final CompletableFuture<StreamState> future;
+        private volatile Throwable failure;
+
+        private SeqnosRequest(int length) {
+            latch = new CountDownLatch(length);
+            future = length == 0 ? CompletableFuture.completedFuture(StreamState.this) : new CompletableFuture<>();
+        }
+
+        /**
+         * Completed once the seqnos of all the requested vbuckets have been received, or failed.
+         */
+        public CompletableFuture<StreamState> future() {
+            return future;
+        }
+
+        /**
+         * Counts the reply for one vbucket.
+         */
+        public void received() {
+            latch.countDown();
+            if (latch.getCount() == 0) {
+                future.complete(StreamState.this);
+            }
+        }
+
+        public void failed(Throwable t) {
+            failure = t;
+            // drain countdown latch
+            for (long i = latch.getCount(); i > 0; i--) {
+                latch.countDown();
+            }
+            future.completeExceptionally(t);
+        }
+
+        public void await(long timeout) throws Throwable {
+            Span span = Span.start(timeout, TimeUnit.MILLISECONDS);
+            LOGGER.debug("Waiting until current seq updated for all vbuckets");
+            if (!latch.await(span.getSpanNanos(), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException(timeout / 1000.0 + "s passed before obtaining current seqnos ("
+                        + latch.getCount() + " remaining)");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * The lag of the stream, kept up to date by its partitions on every change of their current or master seqno so
+     * that reading it never walks the partitions. Each partition adds the difference with what it accounted last.
+     */
+    static class LagTotals {
+        private final LongAdder pending = new LongAdder();
+        private final LongAdder seqnos = new LongAdder();
+        private final AtomicLongArray pendingByVbucket;
+        private final AtomicLongArray seqnoByVbucket;
+
+        private LagTotals(int numPartitions) {
+            pendingByVbucket = new AtomicLongArray(numPartitions);
+            seqnoByVbucket = new AtomicLongArray(numPartitions);
+        }
+
+        void update(int vbid, long seqno, long pendingSeqnos) {
+            pending.add(pendingSeqnos - pendingByVbucket.getAndSet(vbid, pendingSeqnos));
+            seqnos.add(seqno - seqnoByVbucket.getAndSet(vbid, seqno));
+        }
+    }
 }
@@ -4,6 +4,8 @@
 package com.couchbase.client.dcp.transport.netty;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -23,6 +25,7 @@ import com.couchbase.client.dcp.message.SaslListMechsRequest;
 import com.couchbase.client.dcp.message.SaslListMechsResponse;
 import com.couchbase.client.dcp.message.SaslStepRequest;
 import com.couchbase.client.dcp.message.SaslStepResponse;
+import com.couchbase.client.dcp.util.MemcachedStatus;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.client.deps.io.netty.buffer.Unpooled;
 import com.couchbase.client.deps.io.netty.channel.ChannelFuture;
@@ -49,11 +52,22 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
      */
     private static final byte AUTH_ERROR = 0x20;
 
+    /**
+     * Indicates the SASL auth needs another step.
+     */
+    private static final byte AUTH_CONTINUE = 0x21;
+
     /**
      * The logger used for the auth handler.
      */
     private static final CouchbaseLogger LOGGER = CouchbaseLoggerFactory.getInstance(AuthHandler.class);
 
+    /**
+     * The SASL mechanisms of the nodes authenticated against, so that reconnects skip listing them. An entry is
+     * dropped when authentication against its node fails.
+     */
+    private static final ConcurrentMap<String, String[]> MECHANISMS_BY_NODE = new ConcurrentHashMap<>();
+
     /**
      * Username used to authenticate against the bucket (likely to be the bucket name itself).
      */
@@ -65,8 +79,8 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
     private final String password;
 
     /**
-     * The SASL client reused from core-io since it has our SCRAM-* additions that are not
-     * provided by the vanilla JDK implementation.
+     * The SASL client: a {@link ScramSaslClient}, which caches the keys derived from the password, if the server
+     * supports SCRAM, otherwise the one of core-io.
      */
     private SaslClient saslClient;
 
@@ -93,6 +107,11 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
      */
     @Override
     public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        String[] mechanisms = MECHANISMS_BY_NODE.get(ctx.channel().remoteAddress().toString());
+        if (mechanisms != null) {
+            authenticate(ctx, mechanisms);
+            return;
+        }
         ByteBuf request = ctx.alloc().buffer();
         SaslListMechsRequest.init(request);
         ctx.writeAndFlush(request);
@@ -109,7 +128,15 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
         } else if (SaslAuthResponse.is(msg)) {
             handleAuthResponse(ctx, msg);
         } else if (SaslStepResponse.is(msg)) {
-            checkIsAuthed(ctx, MessageUtil.getStatus(msg));
+            short status = MessageUtil.getStatus(msg);
+            if (status == AUTH_SUCCESS && saslClient instanceof ScramSaslClient) {
+                // verify the server signature
+                ByteBuf serverFinal = SaslStepResponse.challenge(msg);
+                byte[] signature = new byte[serverFinal.readableBytes()];
+                serverFinal.readBytes(signature);
+                saslClient.evaluateChallenge(signature);
+            }
+            checkIsAuthed(ctx, status);
         } else {
             throw new IllegalStateException("Received unexpected SASL response! " + MessageUtil.humanize(msg));
         }
@@ -119,8 +146,9 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
      * Runs the SASL challenge protocol and dispatches the next step if required.
      */
     private void handleAuthResponse(final ChannelHandlerContext ctx, final ByteBuf msg) throws Exception {
-        if (saslClient.isComplete()) {
-            checkIsAuthed(ctx, MessageUtil.getStatus(msg));
+        short status = MessageUtil.getStatus(msg);
+        if (saslClient.isComplete() || status != AUTH_CONTINUE) {
+            checkIsAuthed(ctx, status);
             return;
         }
 
@@ -178,10 +206,13 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
                 ctx.fireChannelActive();
                 break;
             case AUTH_ERROR:
+                MECHANISMS_BY_NODE.remove(ctx.channel().remoteAddress().toString());
                 originalPromise().setFailure(new AuthenticationException("SASL Authentication Failure"));
                 break;
             default:
-                originalPromise().setFailure(new AuthenticationException("Unhandled SASL auth status: " + status));
+                MECHANISMS_BY_NODE.remove(ctx.channel().remoteAddress().toString());
+                originalPromise().setFailure(new AuthenticationException(
+                        "Unhandled SASL auth status: " + MemcachedStatus.toString(status)));
         }
     }
 
@@ -194,8 +225,19 @@ class AuthHandler extends ConnectInterceptingHandler<ByteBuf> implements Callbac
         if (supportedMechanisms == null || supportedMechanisms.length == 0) {
             throw new AuthenticationException("Received empty SASL mechanisms list from server: " + remote);
         }
+        MECHANISMS_BY_NODE.put(remote, supportedMechanisms);
+        authenticate(ctx, supportedMechanisms);
+    }
 
-        saslClient = Sasl.createSaslClient(supportedMechanisms, null, "couchbase", remote, null, this);
+    /**
+     * Selects the mechanism and dispatches the initial auth request.
+     */
+    private void authenticate(final ChannelHandlerContext ctx, final String[] supportedMechanisms) throws Exception {
+        String remote = ctx.channel().remoteAddress().toString();
+        saslClient = ScramSaslClient.create(supportedMechanisms, username, password);
+        if (saslClient == null) {
+            saslClient = Sasl.createSaslClient(supportedMechanisms, null, "couchbase", remote, null, this);
+        }
         selectedMechanism = saslClient.getMechanismName();
 
         byte[] bytePayload = saslClient.hasInitialResponse() ? saslClient.evaluateChallenge(new byte[] {}) : null;
@@ -45,6 +45,8 @@ public class DcpConnectHandler extends ConnectInterceptingHandler<ByteBuf> {
      */
     private final ByteBuf connectionName;
     private final String bucket;
+    private final boolean snappy;
+    private final int openConnectionFlags;
     private byte step = VERSION;
 
     /**
@@ -52,10 +54,20 @@ public class DcpConnectHandler extends ConnectInterceptingHandler<ByteBuf> {
      *
      * @param environment
      *            the generator of the connection names.
+     * @param connectionIndex
+     *            the index of the connection among those against the node, appended to the generated name when
+     *            there are several so that they never share a name.
      */
-    DcpConnectHandler(final ClientEnvironment environment) {
+    DcpConnectHandler(final ClientEnvironment environment, int connectionIndex) {
         bucket = environment.bucket();
-        connectionName = Unpooled.copiedBuffer(environment.connectionNameGenerator().name(), CharsetUtil.UTF_8);
+        snappy = environment.dcpControl().compressionEnabled();
+        openConnectionFlags = environment.valueMode().openConnectionFlags()
+                | (environment.xattrsEnabled() ? DcpOpenConnectionRequest.INCLUDE_XATTRS : 0);
+        String name = environment.connectionNameGenerator().name();
+        if (environment.connectionsPerNode() > 1) {
+            name += "/" + connectionIndex;
+        }
+        connectionName = Unpooled.copiedBuffer(name, CharsetUtil.UTF_8);
     }
 
     /**
@@ -82,14 +94,15 @@ public class DcpConnectHandler extends ConnectInterceptingHandler<ByteBuf> {
                     helo(ctx, msg);
                     break;
                 case SELECT:
-                    // Select bucket
+                    // Select bucket and open the connection in a single round trip: the server handles the requests
+                    // of a connection in order, so the open connection request runs against the selected bucket
                     ByteBuf request = ctx.alloc().buffer();
                     BucketSelectionRequest.init(request, bucket);
-                    ctx.writeAndFlush(request);
+                    ctx.write(request);
+                    openConnection(ctx);
                     break;
                 case OPEN:
-                    // Open Connection
-                    openConnection(ctx);
+                    // bucket selected, the open connection response follows
                     break;
                 case REMOVE:
                     remove(ctx);
@@ -99,7 +112,8 @@ public class DcpConnectHandler extends ConnectInterceptingHandler<ByteBuf> {
                     break;
             }
         } else {
-            originalPromise().setFailure(new IllegalStateException("Could not open DCP Connection: Failed in the "
+            // with pipelined requests, the response to the next request may fail too; report the first failure
+            originalPromise().tryFailure(new IllegalStateException("Could not open DCP Connection: Failed in the "
                     + toString(step) + " step, response status is " + MemcachedStatus.toString(status)));
         }
     }
@@ -134,13 +148,13 @@ public class DcpConnectHandler extends ConnectInterceptingHandler<ByteBuf> {
 
     private void helo(ChannelHandlerContext ctx) {
         ByteBuf request = ctx.alloc().buffer();
-        Hello.init(request, connectionName);
+        Hello.init(request, connectionName, snappy);
         ctx.writeAndFlush(request);
     }
 
     private void openConnection(ChannelHandlerContext ctx) {
         ByteBuf request = ctx.alloc().buffer();
-        DcpOpenConnectionRequest.init(request);
+        DcpOpenConnectionRequest.init(request, openConnectionFlags);
         connectionName.resetReaderIndex();
         DcpOpenConnectionRequest.connectionName(request, connectionName);
         ctx.writeAndFlush(request);
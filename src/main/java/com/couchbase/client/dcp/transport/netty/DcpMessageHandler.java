@@ -45,17 +45,20 @@ import com.couchbase.client.core.logging.CouchbaseLogLevel;
 import com.couchbase.client.core.logging.CouchbaseLogger;
 import com.couchbase.client.core.logging.CouchbaseLoggerFactory;
 import com.couchbase.client.dcp.ControlEventHandler;
+import com.couchbase.client.dcp.DataEventFilter;
 import com.couchbase.client.dcp.DataEventHandler;
 import com.couchbase.client.dcp.DcpAckHandle;
 import com.couchbase.client.dcp.conductor.DcpChannel;
 import com.couchbase.client.dcp.config.ClientEnvironment;
 import com.couchbase.client.dcp.config.DcpControl;
+import com.couchbase.client.dcp.jfr.DcpFlightRecorder;
 import com.couchbase.client.dcp.message.DcpBufferAckRequest;
 import com.couchbase.client.dcp.message.DcpDataMessage;
 import com.couchbase.client.dcp.message.DcpNoopResponse;
 import com.couchbase.client.dcp.message.DcpOpenStreamResponse;
 import com.couchbase.client.dcp.message.DcpOsoSnapshotMarkerMessage;
 import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.dcp.metrics.ChannelMetrics;
 import com.couchbase.client.dcp.util.CollectionsUtil;
 import com.couchbase.client.dcp.util.MemcachedStatus;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
@@ -81,10 +84,16 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
      */
     private static final CouchbaseLogger LOGGER = CouchbaseLoggerFactory.getInstance(DcpMessageHandler.class);
 
+    /**
+     * One in every {@code DISPATCH_SAMPLE_MASK + 1} data events is timed when the flight recorder records dispatches.
+     */
+    private static final int DISPATCH_SAMPLE_MASK = 127;
+
     /**
      * The data callback where the events are fed to the user.
      */
     private final DataEventHandler dataEventHandler;
+    private final DataEventFilter dataEventFilter;
     private final Channel channel;
 
     /**
@@ -97,6 +106,11 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
     private final int ackWatermark;
     private final DcpChannel dcpChannel;
     private final ChannelFutureListener ackListener;
+    private final ChannelMetrics metrics;
+    private final DcpFlightRecorder recorder = DcpFlightRecorder.get();
+    // null if the event loop is not watched
+    private final EventLoopMonitor.Probe probe;
+    private int dispatchCount;
 
     private static boolean ackSanity;
     private static final Set<AckKey> globalPendingAck = Collections.newSetFromMap(new ConcurrentHashMap<>());
@@ -116,10 +130,13 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
     DcpMessageHandler(DcpChannel dcpChannel, Channel ch, ClientEnvironment env, final DataEventHandler dataEventHandler,
             final ControlEventHandler controlEventHandler) {
         this.dcpChannel = dcpChannel;
+        this.metrics = dcpChannel.metrics();
         this.channel = ch;
         this.env = env;
         this.dataEventHandler = dataEventHandler;
+        this.dataEventFilter = env.dataEventFilter();
         this.controlEventHandler = controlEventHandler;
+        this.probe = env.eventLoopMonitor() != null ? env.eventLoopMonitor().probe(ch.eventLoop()) : null;
         this.ackEnabled = env.dcpControl().ackEnabled();
         this.ackCounter = 0;
         if (ackEnabled) {
@@ -154,9 +171,24 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
         dcpChannel.newMessageRecieved();
         ByteBuf message = (ByteBuf) msg;
+        metrics.received(message);
         if (LOGGER.isTraceEnabled()) {
             trace(message);
         }
+        if (probe == null) {
+            dispatch(ctx, message);
+            return;
+        }
+        // the message is released by the time the handling returns
+        probe.enter(dcpChannel, message.getByte(1));
+        try {
+            dispatch(ctx, message);
+        } finally {
+            probe.exit();
+        }
+    }
+
+    private void dispatch(final ChannelHandlerContext ctx, final ByteBuf message) {
         switch (message.getShort(0)) {
             case REQ_DCP_MUTATION:
             case REQ_DCP_DELETION:
@@ -167,7 +199,18 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
                 if (ackSanity && ackEnabled) {
                     globalPendingAck.add(AckKey.from(message));
                 }
-                dataEventHandler.onEvent(ackHandle, message);
+                if (dataEventFilter != null && !dataEventFilter.accept(message, dcpChannel.isCollectionCapable())) {
+                    filter(message);
+                } else if ((++dispatchCount & DISPATCH_SAMPLE_MASK) == 0 && recorder.dispatchRecorded()) {
+                    // the handler releases the message, read what is recorded before dispatching it
+                    short vbid = MessageUtil.getVbucket(message);
+                    int bytes = message.readableBytes();
+                    long start = System.nanoTime();
+                    dataEventHandler.onEvent(ackHandle, message);
+                    recorder.dataEventDispatched(channel.remoteAddress(), vbid, bytes, start);
+                } else {
+                    dataEventHandler.onEvent(ackHandle, message);
+                }
                 break;
 
             case REQ_STREAM_END:
@@ -200,7 +243,10 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
                     ByteBuf buffer = ctx.alloc().buffer();
                     DcpNoopResponse.init(buffer);
                     MessageUtil.setOpaque(MessageUtil.getOpaque(message), buffer);
-                    LOGGER.info("Sending back a NoOp response" + dcpChannel + ". Current ack counter = " + ackCounter);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Sending back a NoOp response {}. Current ack counter = {}", dcpChannel,
+                                ackCounter);
+                    }
                     ctx.writeAndFlush(buffer);
                 } finally {
                     ReferenceCountUtil.release(message);
@@ -219,6 +265,20 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
         }
     }
 
+    /**
+     * Drops a data event which was not accepted by the filter; its seqno is still recorded so that a restarted
+     * stream does not go over it again.
+     */
+    private void filter(final ByteBuf message) {
+        try {
+            MessageUtil.streamState(message, dcpChannel).get(MessageUtil.getVbucket(message))
+                    .setSeqno(DcpDataMessage.bySeqno(message));
+            ackHandle.ack(message);
+        } finally {
+            release(message);
+        }
+    }
+
     private void trace(final ByteBuf message) {
         switch (message.getShort(0)) {
             case FLEX_REQ_DCP_MUTATION:
@@ -268,7 +328,7 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
                 LOGGER.trace("{} vbid {}", MessageUtil.humanizeOpcode(message), MessageUtil.getVbucket(message));
                 break;
             case RES_FAILOVER_LOG:
-                LOGGER.trace("{} vbid {} status {}", MessageUtil.humanizeOpcode(message),
+                LOGGER.trace("{} opaque {} status {}", MessageUtil.humanizeOpcode(message),
                         MessageUtil.getOpaque(message), MemcachedStatus.toString(MessageUtil.getStatus(message)));
                 break;
             case REQ_DCP_NOOP:
@@ -311,6 +371,7 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
                 throw new IllegalStateException("ack() called on NOOP");
             }
             final int ackBytes = message.readableBytes();
+            metrics.acked(ackBytes);
             synchronized (ackHandle) {
                 ackCounter += ackBytes;
                 if (LOGGER.isTraceEnabled()) {
@@ -325,8 +386,12 @@ public class DcpMessageHandler extends ChannelDuplexHandler implements DcpAckHan
                     ByteBuf buffer = channel.alloc().buffer();
                     DcpBufferAckRequest.init(buffer);
                     DcpBufferAckRequest.ackBytes(buffer, ackCounter);
+                    metrics.bufferAckSent(ackCounter);
+                    recorder.bufferAckSent(channel.remoteAddress(), ackCounter);
+                    final long start = System.nanoTime();
                     ChannelFuture future = channel.writeAndFlush(buffer);
                     future.addListener(ackListener);
+                    future.addListener(f -> metrics.bufferAckFlushed(start));
                     ackCounter = 0;
                 }
             }
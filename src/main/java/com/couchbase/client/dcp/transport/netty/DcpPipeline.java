@@ -84,7 +84,7 @@ public class DcpPipeline extends ChannelInitializer<Channel> {
         ChannelPipeline pipeline = ch.pipeline();
 
         if (environment.sslEnabled()) {
-            pipeline.addLast(new SslHandler(sslEngineFactory.get()));
+            pipeline.addLast(new SslHandler(sslEngineFactory.get(host, port, ch.alloc())));
         }
         pipeline.addLast(
                 new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, MessageUtil.BODY_LENGTH_OFFSET, 4, 12, 0, false));
@@ -98,7 +98,7 @@ public class DcpPipeline extends ChannelInitializer<Channel> {
         if (pair != null && pair.getLeft() != null) {
             pipeline.addLast(new AuthHandler(pair.getLeft(), pair.getRight()));
         }
-        pipeline.addLast(new DcpConnectHandler(environment))
+        pipeline.addLast(new DcpConnectHandler(environment, dcpChannel.getConnectionIndex()))
                 .addLast(new DcpNegotiationHandler(environment.dcpControl())).addLast(new DcpMessageHandler(dcpChannel,
                         ch, environment, environment.dataEventHandler(), controlHandler));
     }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.transport.netty;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.conductor.DcpChannel;
+import com.couchbase.client.dcp.metrics.LatencyRecorder;
+import com.couchbase.client.dcp.metrics.MetricsRegistry;
+import com.couchbase.client.dcp.util.StallListener;
+import com.couchbase.client.deps.io.netty.channel.EventLoop;
+
+/**
+ * Watches the responsiveness of the event loops the channels of a client are registered with.
+ *
+ * Every watched loop runs a probe task every {@link #PROBE_INTERVAL_MILLIS}ms which records how late it runs, and
+ * the {@link DcpMessageHandler}s of the loop record how long the handling of every message blocks it. A watchdog
+ * thread checks both against the threshold and, the first time one is crossed, captures the stack of the stalled IO
+ * thread and reports it to the {@link StallListener}. Watching costs two clock reads per message.
+ */
+public class EventLoopMonitor implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    public static final long PROBE_INTERVAL_MILLIS = 100;
+    private static final long MIN_WATCHDOG_PERIOD_MILLIS = 10;
+
+    private final StallListener listener;
+    private final long thresholdNanos;
+    private final long probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL_MILLIS);
+    private final LatencyRecorder lag;
+    private final LatencyRecorder handlerTime;
+    private final Map<EventLoop, Probe> probes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog;
+    private volatile boolean closed;
+
+    /**
+     * @param listener
+     *            receives the stalls.
+     * @param thresholdMillis
+     *            how long an event loop can be unresponsive before it is reported.
+     * @param metricsRegistry
+     *            where the probe lag and the handling time of the messages are recorded.
+     */
+    public EventLoopMonitor(StallListener listener, long thresholdMillis, MetricsRegistry metricsRegistry) {
+        if (thresholdMillis <= 0) {
+            throw new IllegalArgumentException("thresholdMillis must be positive");
+        }
+        this.listener = listener;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.lag = metricsRegistry.latency("dcp.eventLoop.lag");
+        this.handlerTime = metricsRegistry.latency("dcp.eventLoop.handlerTime");
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dcp-stall-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(MIN_WATCHDOG_PERIOD_MILLIS, Math.min(PROBE_INTERVAL_MILLIS, thresholdMillis / 2));
+        watchdog.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the probe of an event loop, starting to watch the loop if it is not watched yet.
+     */
+    public Probe probe(EventLoop loop) {
+        return probes.computeIfAbsent(loop, l -> {
+            Probe probe = new Probe(l);
+            if (l.inEventLoop()) {
+                probe.thread = Thread.currentThread();
+            }
+            probe.schedule(System.nanoTime());
+            return probe;
+        });
+    }
+
+    /**
+     * Whether the event loop is watched and currently stalled beyond the threshold.
+     */
+    public boolean stalled(EventLoop loop) {
+        Probe probe = probes.get(loop);
+        return probe != null && probe.stalledFor(System.nanoTime()) > thresholdNanos;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        probes.clear();
+    }
+
+    private void check() {
+        final long now = System.nanoTime();
+        for (Probe probe : probes.values()) {
+            try {
+                probe.check(now);
+            } catch (Exception e) {
+                LOGGER.warn("Failure reporting a stall of {}", probe.loop, e);
+            }
+        }
+    }
+
+    /**
+     * The state of one watched event loop. The handling of a message is bracketed by {@link #enter} and
+     * {@link #exit}, which must be called on the thread of the loop.
+     */
+    public final class Probe implements Runnable {
+        private final EventLoop loop;
+        private volatile Thread thread;
+        private volatile long dueNanos;
+        // start of the handling of the current message, 0 when not handling one
+        private volatile long enteredNanos;
+        private volatile DcpChannel channel;
+        private volatile byte opcode;
+        // accessed by the watchdog only
+        private long reportedDue;
+        private long reportedEntered;
+
+        private Probe(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        public void enter(DcpChannel channel, byte opcode) {
+            this.channel = channel;
+            this.opcode = opcode;
+            long now = System.nanoTime();
+            // never 0, which means idle
+            enteredNanos = now == 0 ? 1 : now;
+        }
+
+        public void exit() {
+            handlerTime.recordSince(enteredNanos);
+            enteredNanos = 0;
+        }
+
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            thread = Thread.currentThread();
+            lag.record(now - dueNanos);
+            schedule(now);
+        }
+
+        private void schedule(long now) {
+            if (closed || loop.isShuttingDown()) {
+                probes.remove(loop, this);
+                return;
+            }
+            dueNanos = now + probeIntervalNanos;
+            try {
+                loop.schedule(this, probeIntervalNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                probes.remove(loop, this);
+            }
+        }
+
+        private long stalledFor(long now) {
+            long entered = enteredNanos;
+            return Math.max(now - dueNanos, entered == 0 ? 0 : now - entered);
+        }
+
+        private void check(long now) {
+            final Thread t = thread;
+            if (t == null) {
+                return;
+            }
+            final long due = dueNanos;
+            final long entered = enteredNanos;
+            if (entered != 0 && now - entered > thresholdNanos) {
+                final DcpChannel blockedChannel = channel;
+                final byte blockedOpcode = opcode;
+                // the probe of the loop is held up by the same stall
+                reportedDue = due;
+                if (entered != reportedEntered) {
+                    reportedEntered = entered;
+                    StackTraceElement[] stack = t.getStackTrace();
+                    // the stack is only meaningful if the handling is still the same
+                    if (enteredNanos == entered) {
+                        listener.handlerBlocked(blockedChannel, blockedOpcode, now - entered, stack);
+                    }
+                }
+            } else if (now - due > thresholdNanos && due != reportedDue) {
+                reportedDue = due;
+                StackTraceElement[] stack = t.getStackTrace();
+                if (dueNanos == due) {
+                    listener.eventLoopStalled(t, now - due, stack);
+                }
+            }
+        }
+    }
+}
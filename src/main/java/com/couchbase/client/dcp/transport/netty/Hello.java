@@ -16,14 +16,26 @@ public class Hello {
     public static final short XATTR = 0x06;
     public static final short XERROR = 0x07;
     public static final short SELECT = 0x08;
+    public static final short SNAPPY = 0x0a;
     public static final short COLLECTIONS = 0x12;
 
     private Hello() {
     }
 
     public static void init(ByteBuf buffer, ByteBuf connectionName) {
+        init(buffer, connectionName, false);
+    }
+
+    /**
+     * @param snappy
+     *            whether to negotiate snappy, which allows the producer to send compressed values (flagged with
+     *            {@link MessageUtil#DATATYPE_SNAPPY}).
+     */
+    public static void init(ByteBuf buffer, ByteBuf connectionName, boolean snappy) {
         MessageUtil.initRequest(MessageUtil.HELO_OPCODE, buffer);
         MessageUtil.setKey(connectionName, buffer);
-        MessageUtil.setContent(Unpooled.copyShort(XERROR, SELECT, COLLECTIONS), buffer);
+        ByteBuf features = snappy ? Unpooled.copyShort(XERROR, SELECT, COLLECTIONS, SNAPPY)
+                : Unpooled.copyShort(XERROR, SELECT, COLLECTIONS);
+        MessageUtil.setContent(features, buffer);
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.transport.netty;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslException;
+
+/**
+ * A SCRAM-SHA1/256/512 (RFC 5802) client which keeps the keys derived from the salted password, so that the
+ * thousands of HMAC iterations of the derivation are paid once per user, salt and iteration count instead of once
+ * per connection. The server always sends the same salt and iteration count for a user until the password changes,
+ * so every connect and reconnect to every node after the first one reuses the keys. The keys are cached by mechanism,
+ * user, salt, iteration count and the digest of the password, never by the password itself.
+ */
+class ScramSaslClient implements SaslClient {
+    private static final String[] MECHANISMS = { "SCRAM-SHA512", "SCRAM-SHA256", "SCRAM-SHA1" };
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MAX_CACHED_KEYS = 64;
+    private static final Map<List<Object>, Keys> KEYS = new ConcurrentHashMap<>();
+
+    private final String mechanism;
+    private final String hmacAlgorithm;
+    private final String digestAlgorithm;
+    private final String username;
+    private final String password;
+    private final String clientFirstBare;
+    private final String clientNonce;
+    private byte[] expectedServerSignature;
+    private boolean complete;
+
+    private ScramSaslClient(String mechanism, String username, String password) {
+        this(mechanism, username, password, newNonce());
+    }
+
+    // the client nonce is given by tests only
+    ScramSaslClient(String mechanism, String username, String password, String clientNonce) {
+        this.mechanism = mechanism;
+        String sha = mechanism.substring("SCRAM-".length());
+        this.hmacAlgorithm = "Hmac" + sha;
+        this.digestAlgorithm = sha.replace("SHA", "SHA-");
+        this.username = username;
+        this.password = password;
+        this.clientNonce = clientNonce;
+        this.clientFirstBare = "n=" + username.replace("=", "=3D").replace(",", "=2C") + ",r=" + clientNonce;
+    }
+
+    /**
+     * Returns a client for the strongest SCRAM mechanism the server supports, or null if it supports none.
+     */
+    static ScramSaslClient create(String[] supportedMechanisms, String username, String password) {
+        for (String mechanism : MECHANISMS) {
+            for (String supported : supportedMechanisms) {
+                if (mechanism.equals(supported)) {
+                    return new ScramSaslClient(mechanism, username, password);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String newNonce() {
+        byte[] nonce = new byte[24];
+        RANDOM.nextBytes(nonce);
+        return Base64.getEncoder().encodeToString(nonce);
+    }
+
+    @Override
+    public String getMechanismName() {
+        return mechanism;
+    }
+
+    @Override
+    public boolean hasInitialResponse() {
+        return true;
+    }
+
+    @Override
+    public byte[] evaluateChallenge(byte[] challenge) throws SaslException {
+        if (challenge.length == 0) {
+            return ("n,," + clientFirstBare).getBytes(UTF_8);
+        }
+        String message = new String(challenge, UTF_8);
+        if (expectedServerSignature == null) {
+            return clientFinal(message);
+        }
+        verifyServerFinal(message);
+        return null;
+    }
+
+    private byte[] clientFinal(String serverFirst) throws SaslException {
+        String nonce = attribute(serverFirst, 'r');
+        String salt = attribute(serverFirst, 's');
+        int iterations;
+        try {
+            iterations = Integer.parseInt(attribute(serverFirst, 'i'));
+        } catch (NumberFormatException e) {
+            throw new SaslException("Invalid iteration count in " + serverFirst, e);
+        }
+        if (!nonce.startsWith(clientNonce)) {
+            throw new SaslException("Server nonce does not extend the client nonce");
+        }
+        try {
+            Keys keys = keys(Base64.getDecoder().decode(salt), salt, iterations);
+            String clientFinalWithoutProof = "c=biws,r=" + nonce;
+            byte[] authMessage = (clientFirstBare + "," + serverFirst + "," + clientFinalWithoutProof).getBytes(UTF_8);
+            byte[] clientSignature = hmac(keys.storedKey, authMessage);
+            byte[] proof = keys.clientKey.clone();
+            for (int i = 0; i < proof.length; i++) {
+                proof[i] ^= clientSignature[i];
+            }
+            expectedServerSignature = hmac(keys.serverKey, authMessage);
+            return (clientFinalWithoutProof + ",p=" + Base64.getEncoder().encodeToString(proof)).getBytes(UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SaslException("Could not compute the SCRAM client proof", e);
+        }
+    }
+
+    private void verifyServerFinal(String serverFinal) throws SaslException {
+        byte[] signature;
+        try {
+            signature = Base64.getDecoder().decode(attribute(serverFinal, 'v'));
+        } catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid server signature in " + serverFinal, e);
+        }
+        if (!MessageDigest.isEqual(signature, expectedServerSignature)) {
+            throw new SaslException("Server signature does not match, the server does not know the password");
+        }
+        complete = true;
+    }
+
+    private Keys keys(byte[] salt, String saltBase64, int iterations) throws GeneralSecurityException {
+        byte[] passwordBytes = password.getBytes(UTF_8);
+        String passwordDigest =
+                Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(passwordBytes));
+        List<Object> key = Arrays.asList(mechanism, username, passwordDigest, saltBase64, iterations);
+        Keys keys = KEYS.get(key);
+        if (keys == null) {
+            byte[] saltedPassword = hi(passwordBytes, salt, iterations);
+            byte[] clientKey = hmac(saltedPassword, "Client Key".getBytes(UTF_8));
+            keys = new Keys(clientKey, MessageDigest.getInstance(digestAlgorithm).digest(clientKey),
+                    hmac(saltedPassword, "Server Key".getBytes(UTF_8)));
+            if (KEYS.size() >= MAX_CACHED_KEYS) {
+                KEYS.clear();
+            }
+            KEYS.put(key, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * The PBKDF2 function of RFC 5802, with the HMAC of the mechanism as pseudo random function.
+     */
+    private byte[] hi(byte[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmacAlgorithm);
+        mac.init(new SecretKeySpec(password, hmacAlgorithm));
+        mac.update(salt);
+        mac.update(new byte[] { 0, 0, 0, 1 });
+        byte[] u = mac.doFinal();
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            u = mac.doFinal(u);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        return result;
+    }
+
+    private byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmacAlgorithm);
+        mac.init(new SecretKeySpec(key, hmacAlgorithm));
+        return mac.doFinal(data);
+    }
+
+    private static String attribute(String message, char name) throws SaslException {
+        for (String attribute : message.split(",")) {
+            if (attribute.length() > 1 && attribute.charAt(0) == name && attribute.charAt(1) == '=') {
+                return attribute.substring(2);
+            }
+        }
+        throw new SaslException("Missing attribute " + name + " in " + message);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public byte[] unwrap(byte[] incoming, int offset, int len) {
+        throw new IllegalStateException("SCRAM supports neither integrity nor privacy");
+    }
+
+    @Override
+    public byte[] wrap(byte[] outgoing, int offset, int len) {
+        throw new IllegalStateException("SCRAM supports neither integrity nor privacy");
+    }
+
+    @Override
+    public Object getNegotiatedProperty(String propName) {
+        return null;
+    }
+
+    @Override
+    public void dispose() {
+        // nothing to dispose
+    }
+
+    private static class Keys {
+        private final byte[] clientKey;
+        private final byte[] storedKey;
+        private final byte[] serverKey;
+
+        private Keys(byte[] clientKey, byte[] storedKey, byte[] serverKey) {
+            this.clientKey = clientKey;
+            this.storedKey = storedKey;
+            this.serverKey = serverKey;
+        }
+    }
+}
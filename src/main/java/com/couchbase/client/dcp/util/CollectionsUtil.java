@@ -4,6 +4,8 @@
 package com.couchbase.client.dcp.util;
 
 public class CollectionsUtil {
+    public static final int DEFAULT_COLLECTION_ID = 0;
+
     private CollectionsUtil() {
         throw new AssertionError("do not instantiate");
     }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * Finds the values of a fixed set of JSON paths (dot separated object field names, e.g. {@code "address.city"})
+ * by scanning the raw bytes of a JSON object once. No tree and no strings are built: the result of each path is the
+ * position of its raw JSON value in the scanned buffer. Scanning stops as soon as every path is found.
+ *
+ * Field names are compared with the raw bytes between the quotes, so names containing escape sequences never
+ * match. A projector is reusable but not thread safe.
+ */
+public class JsonFieldProjector {
+    private final String[] paths;
+    private final Node root = new Node(null);
+    private final int[] offsets;
+    private final int[] lengths;
+    private int found;
+    private ByteBuf json;
+    private int pos;
+    private int end;
+
+    public JsonFieldProjector(List<String> paths) {
+        this.paths = paths.toArray(new String[0]);
+        offsets = new int[this.paths.length];
+        lengths = new int[this.paths.length];
+        for (int i = 0; i < this.paths.length; i++) {
+            Node node = root;
+            for (String name : this.paths[i].split("\\.")) {
+                node = node.childOrCreate(name.getBytes(UTF_8));
+            }
+            node.index = i;
+        }
+        root.freeze();
+        clear();
+    }
+
+    /**
+     * Scans the readable bytes of the given buffer, which must hold a JSON object.
+     *
+     * @return false if the buffer does not hold a JSON object, in which case no path is found
+     * @throws IllegalArgumentException
+     *             if the JSON is malformed
+     */
+    public boolean project(ByteBuf json) {
+        clear();
+        this.json = json;
+        pos = json.readerIndex();
+        end = json.writerIndex();
+        skipWhitespace();
+        if (pos >= end || json.getByte(pos) != '{') {
+            return false;
+        }
+        scanObject(root, true);
+        return true;
+    }
+
+    /**
+     * Forgets the result of the last scan.
+     */
+    public void clear() {
+        json = null;
+        found = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = -1;
+            lengths[i] = 0;
+        }
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public String path(int i) {
+        return paths[i];
+    }
+
+    public boolean has(int i) {
+        return offsets[i] >= 0;
+    }
+
+    /**
+     * Returns the raw JSON value of the path as a slice of the scanned buffer, or null if it was not found.
+     */
+    public ByteBuf field(int i) {
+        return has(i) ? json.slice(offsets[i], lengths[i]) : null;
+    }
+
+    /**
+     * The absolute offset of the value of the path in the scanned buffer, or -1 if it was not found.
+     */
+    public int offset(int i) {
+        return offsets[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * @param mayStop
+     *            whether the scan may stop once all the paths are found, which is not the case inside an object
+     *            whose value is projected itself, as its end must be known.
+     */
+    private void scanObject(Node node, boolean mayStop) {
+        // at '{'
+        pos++;
+        skipWhitespace();
+        if (byteAt(pos) == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            if (byteAt(pos) != '"') {
+                throw malformed();
+            }
+            final int nameStart = pos + 1;
+            skipString();
+            final Node child = node.child(json, nameStart, pos - 1 - nameStart);
+            skipWhitespace();
+            if (byteAt(pos++) != ':') {
+                throw malformed();
+            }
+            skipWhitespace();
+            if (child == null) {
+                skipValue();
+            } else {
+                final int start = pos;
+                if (child.children.length > 0 && byteAt(pos) == '{') {
+                    scanObject(child, mayStop && child.index < 0);
+                } else {
+                    skipValue();
+                }
+                if (child.index >= 0 && offsets[child.index] < 0) {
+                    offsets[child.index] = start;
+                    lengths[child.index] = pos - start;
+                    found++;
+                }
+                if (mayStop && found == offsets.length) {
+                    return;
+                }
+            }
+            skipWhitespace();
+            final byte b = byteAt(pos++);
+            if (b == '}') {
+                return;
+            } else if (b != ',') {
+                throw malformed();
+            }
+        }
+    }
+
+    private void skipValue() {
+        switch (byteAt(pos)) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            default:
+                // number, true, false or null; not validated, but it must not be empty nor end the input, or a
+                // truncated value would be taken for a complete one
+                final int start = pos;
+                while (pos < end) {
+                    final byte b = json.getByte(pos);
+                    if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == start || pos >= end) {
+                    throw malformed();
+                }
+                break;
+        }
+    }
+
+    private void skipString() {
+        // at '"'
+        pos++;
+        while (true) {
+            final byte b = byteAt(pos++);
+            if (b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                return;
+            }
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            final byte b = byteAt(pos);
+            if (b == '"') {
+                skipString();
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+            pos++;
+        } while (depth > 0);
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(json.getByte(pos))) {
+            pos++;
+        }
+    }
+
+    private byte byteAt(int index) {
+        if (index >= end) {
+            throw malformed();
+        }
+        return json.getByte(index);
+    }
+
+    private IllegalArgumentException malformed() {
+        return new IllegalArgumentException("malformed JSON at offset " + (pos - json.readerIndex()));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static class Node {
+        private final byte[] name;
+        private Node[] children;
+        private List<Node> building = new ArrayList<>();
+        private int index = -1;
+
+        private Node(byte[] name) {
+            this.name = name;
+        }
+
+        private Node childOrCreate(byte[] name) {
+            for (Node child : building) {
+                if (Arrays.equals(child.name, name)) {
+                    return child;
+                }
+            }
+            Node child = new Node(name);
+            building.add(child);
+            return child;
+        }
+
+        private void freeze() {
+            children = building.toArray(new Node[0]);
+            building = null;
+            for (Node child : children) {
+                child.freeze();
+            }
+        }
+
+        private Node child(ByteBuf json, int offset, int length) {
+            for (Node child : children) {
+                if (child.matches(json, offset, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(ByteBuf json, int offset, int length) {
+            if (name.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (json.getByte(offset + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.couchbase.client.dcp.conductor.DcpChannel;
+
+/**
+ * Receives the stalls of the IO threads detected by the
+ * {@link com.couchbase.client.dcp.transport.netty.EventLoopMonitor}. The data and control event handlers run on the
+ * IO threads, so a handler which blocks stops the reads of every channel of its event loop, and the silent channels
+ * end up looking dead to the dead connection detection.
+ *
+ * The stacks are captured from the stalled thread while it is still stalled; the listener is called on the thread of
+ * the monitor and must not block either.
+ */
+public interface StallListener {
+
+    final StallListener LOGGING = new StallListener() {
+        private final Logger logger = LogManager.getLogger(StallListener.class);
+
+        @Override
+        public void eventLoopStalled(Thread thread, long lateNanos, StackTraceElement[] stack) {
+            logger.warn("Event loop thread {} has not run its tasks for {}ms{}", thread.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(lateNanos), format(stack));
+        }
+
+        @Override
+        public void handlerBlocked(DcpChannel channel, byte opcode, long blockedNanos, StackTraceElement[] stack) {
+            logger.warn("Handling of a message with opcode 0x{} from {} has been blocking its IO thread for {}ms{}",
+                    Integer.toHexString(opcode & 0xff), channel, TimeUnit.NANOSECONDS.toMillis(blockedNanos),
+                    format(stack));
+        }
+
+        private String format(StackTraceElement[] stack) {
+            StringBuilder sb = new StringBuilder();
+            for (StackTraceElement element : stack) {
+                sb.append("\n\tat ").append(element);
+            }
+            return sb.toString();
+        }
+    };
+
+    /**
+     * Called when a periodic task of an event loop is late by more than the threshold, whatever blocks the loop.
+     *
+     * @param thread
+     *            the thread of the event loop.
+     * @param lateNanos
+     *            how late the task is so far.
+     * @param stack
+     *            the stack of the thread when the stall was detected.
+     */
+    void eventLoopStalled(Thread thread, long lateNanos, StackTraceElement[] stack);
+
+    /**
+     * Called when the handling of a message read from a channel has blocked its IO thread for more than the
+     * threshold. The same stall is not reported again as an event loop stall.
+     *
+     * @param channel
+     *            the channel the message was read from.
+     * @param opcode
+     *            the opcode of the message.
+     * @param blockedNanos
+     *            how long the handling has blocked so far.
+     * @param stack
+     *            the stack of the IO thread when the stall was detected.
+     */
+    void handlerBlocked(DcpChannel channel, byte opcode, long blockedNanos, StackTraceElement[] stack);
+}
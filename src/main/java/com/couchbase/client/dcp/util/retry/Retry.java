@@ -19,7 +19,9 @@ import rx.functions.Func2;
  *
  * @author Simon Baslé
  * @since 1.0.0
+ * @deprecated unused by the client, which retries through {@link RetryPolicy}.
  */
+@Deprecated
 @InterfaceStability.Committed
 @InterfaceAudience.Public
 public class Retry {
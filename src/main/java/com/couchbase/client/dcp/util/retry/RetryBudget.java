@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util.retry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rationing the retries of all the channels, config providers and partitions sharing it. A retry
+ * which finds the bucket empty is not refused: it reserves the next token and is told how long to wait for it, so
+ * that when a node bounces the retries of every client in the JVM drain at the budget rate instead of all at once.
+ *
+ * The debt is capped at {@code maxDelay}: once the reserved tokens reach that far ahead, further retries wait the
+ * maximum delay without adding to the debt, so that a retry storm in one client delays the retries of the others
+ * sharing the budget by at most that much.
+ */
+public class RetryBudget {
+    public static final double DEFAULT_RETRIES_PER_SECOND = 50;
+    public static final int DEFAULT_BURST = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    public static final RetryBudget UNLIMITED = new RetryBudget(Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+    private static final RetryBudget SHARED = new RetryBudget(DEFAULT_RETRIES_PER_SECOND, DEFAULT_BURST);
+
+    private final double nanosPerToken;
+    private final int burst;
+    private final double maxDebt;
+    // may go negative, down to -maxDebt; the retries which reserved tokens ahead of time form the debt
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param retriesPerSecond
+     *            the rate tokens are added at.
+     * @param burst
+     *            the number of retries allowed at once after a quiet period.
+     */
+    public RetryBudget(double retriesPerSecond, int burst) {
+        this(retriesPerSecond, burst, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param retriesPerSecond
+     *            the rate tokens are added at.
+     * @param burst
+     *            the number of retries allowed at once after a quiet period.
+     * @param maxDelay
+     *            the longest a retry waits for its token.
+     */
+    public RetryBudget(double retriesPerSecond, int burst, long maxDelay, TimeUnit unit) {
+        if (retriesPerSecond <= 0 || burst <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("retriesPerSecond and burst must be positive, maxDelay not negative");
+        }
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / retriesPerSecond;
+        this.maxDebt = nanosPerToken == 0 ? 0 : unit.toNanos(maxDelay) / nanosPerToken;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * The budget shared by everything in the JVM which does not configure its own.
+     */
+    public static RetryBudget shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a token for a retry.
+     *
+     * @return the nanoseconds to wait before the token is actually available, 0 if it is available now
+     */
+    public synchronized long reserve() {
+        if (nanosPerToken == 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) / nanosPerToken);
+        lastRefill = now;
+        if (tokens - 1 < -maxDebt) {
+            // the debt is at its cap: wait the maximum delay without reserving further ahead
+            return (long) (maxDebt * nanosPerToken);
+        }
+        tokens--;
+        return tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{retriesPerSecond=" + TimeUnit.SECONDS.toNanos(1) / nanosPerToken + ", burst=" + burst
+                + ", maxDelayMillis=" + TimeUnit.NANOSECONDS.toMillis((long) (maxDebt * nanosPerToken)) + '}';
+    }
+}
@@ -28,7 +28,9 @@ import rx.functions.Func1;
  *
  * @author Simon Baslé
  * @since 1.0.0
+ * @deprecated unused by the client, which retries through {@link RetryPolicy}.
  */
+@Deprecated
 @InterfaceStability.Committed
 @InterfaceAudience.Public
 public class RetryBuilder {
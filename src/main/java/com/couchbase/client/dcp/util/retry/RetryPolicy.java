@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.core.time.Delay;
+
+/**
+ * Exponential backoff with decorrelated jitter: every delay is drawn uniformly between the base delay and three
+ * times the previous delay, capped. Unlike a fixed or plain exponential delay, channels and partitions failing at
+ * the same moment spread their retries out instead of retrying in lockstep. Every retry also takes a token from a
+ * {@link RetryBudget}, shared by default by all the clients in the JVM, and waits longer when the budget is spent.
+ *
+ * The policy is immutable and shared; the state of a sequence of retries is kept in a {@link Backoff}.
+ */
+public class RetryPolicy {
+    /**
+     * Retries right away and without budget; for callers which make a single attempt.
+     */
+    public static final RetryPolicy IMMEDIATE = new RetryPolicy(0, 0, TimeUnit.NANOSECONDS, RetryBudget.UNLIMITED);
+
+    private final long baseNanos;
+    private final long capNanos;
+    private final RetryBudget budget;
+    // the delay strategy the policy adapts, null for the jittered backoff
+    private final Delay delay;
+
+    public RetryPolicy(long base, long cap, TimeUnit unit, RetryBudget budget) {
+        this(base, cap, unit, budget, null);
+    }
+
+    private RetryPolicy(long base, long cap, TimeUnit unit, RetryBudget budget, Delay delay) {
+        if (base < 0 || cap < base) {
+            throw new IllegalArgumentException("expected 0 <= base <= cap, got base=" + base + ", cap=" + cap);
+        }
+        this.baseNanos = unit.toNanos(base);
+        this.capNanos = unit.toNanos(cap);
+        this.budget = budget;
+        this.delay = delay;
+    }
+
+    /**
+     * Creates a policy drawing from the {@link RetryBudget#shared() shared} budget.
+     */
+    public static RetryPolicy jittered(long base, long cap, TimeUnit unit) {
+        return new RetryPolicy(base, cap, unit, RetryBudget.shared());
+    }
+
+    /**
+     * Adapts a delay strategy: the delays are the ones of the strategy, without jitter, and still draw from the
+     * {@link RetryBudget#shared() shared} budget.
+     *
+     * @deprecated for the callers of the former {@link Delay} based options; use {@link #jittered}.
+     */
+    @Deprecated
+    public static RetryPolicy of(Delay delay) {
+        return new RetryPolicy(0, 0, TimeUnit.NANOSECONDS, RetryBudget.shared(), delay);
+    }
+
+    public RetryPolicy withBudget(RetryBudget budget) {
+        return new RetryPolicy(baseNanos, capNanos, TimeUnit.NANOSECONDS, budget, delay);
+    }
+
+    /**
+     * Returns the delay strategy the policy was adapted from, null if it was not.
+     */
+    public Delay delay() {
+        return delay;
+    }
+
+    public RetryBudget budget() {
+        return budget;
+    }
+
+    /**
+     * Starts a new sequence of retries.
+     */
+    public Backoff backoff() {
+        return new Backoff();
+    }
+
+    @Override
+    public String toString() {
+        if (delay != null) {
+            return "RetryPolicy{delay=" + delay + ", budget=" + budget + '}';
+        }
+        return "RetryPolicy{baseMillis=" + TimeUnit.NANOSECONDS.toMillis(baseNanos) + ", capMillis="
+                + TimeUnit.NANOSECONDS.toMillis(capNanos) + ", budget=" + budget + '}';
+    }
+
+    public class Backoff {
+        private long previousNanos = baseNanos;
+        private int attempts;
+
+        /**
+         * Computes the delay before the next retry and takes its token from the budget.
+         */
+        public long nextDelayNanos() {
+            attempts++;
+            if (delay != null) {
+                return Math.max(delay.unit().toNanos(delay.calculate(attempts)), budget.reserve());
+            }
+            final long upper = Math.min(capNanos, Math.max(baseNanos, previousNanos * 3));
+            previousNanos = upper > baseNanos ? ThreadLocalRandom.current().nextLong(baseNanos, upper + 1) : baseNanos;
+            return Math.max(previousNanos, budget.reserve());
+        }
+
+        public void sleep() throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nextDelayNanos());
+        }
+
+        /**
+         * The number of delays computed so far.
+         */
+        public int attempts() {
+            return attempts;
+        }
+    }
+}
@@ -26,7 +26,9 @@ import rx.functions.Func1;
  *
  * @author Simon Baslé
  * @since 1.0.0
+ * @deprecated unused by the client, which retries through {@link RetryPolicy}.
  */
+@Deprecated
 @InterfaceStability.Committed
 @InterfaceAudience.Public
 public class RetryWithDelayHandler implements Func1<Tuple2<Integer, Throwable>, Observable<?>> {
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.jfr;
+
+import com.couchbase.client.dcp.events.DcpEvent;
+import com.couchbase.client.dcp.message.StreamEndReason;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The {@link DcpFlightRecorder} backed by JDK Flight Recorder events; compiled for Java 11 and loaded reflectively by
+ * {@link DcpFlightRecorder#get()}.
+ *
+ * The operations are timed by the callers from a {@link System#nanoTime()} start, and a JFR event cannot be given a
+ * start time other than the one taken by {@link Event#begin()}, so the events are committed without a JFR duration
+ * and their time is in their {@code elapsed} field. The {@code threshold} setting of a recording does not apply to
+ * them: it must be left at 0, which is the default, or every event would be dropped.
+ */
+class JfrFlightRecorder extends DcpFlightRecorder {
+    private static final EventType DISPATCH = EventType.getEventType(DataEventDispatch.class);
+
+    @Override
+    public boolean enabled() {
+        return true;
+    }
+
+    @Override
+    public void channelConnected(Object peer, int attempts, long startNanos, boolean success) {
+        ChannelConnect event = new ChannelConnect();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            if (event.shouldCommit()) {
+                event.peer = String.valueOf(peer);
+                event.attempts = attempts;
+                event.success = success;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void channelDisconnected(Object peer, long startNanos) {
+        ChannelDisconnect event = new ChannelDisconnect();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            if (event.shouldCommit()) {
+                event.peer = String.valueOf(peer);
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void streamOpened(Object peer, int streamId, short vbid, long requestNanos, short status) {
+        StreamOpen event = new StreamOpen();
+        if (event.isEnabled()) {
+            event.elapsed = requestNanos == 0 ? 0 : System.nanoTime() - requestNanos;
+            if (event.shouldCommit()) {
+                event.peer = String.valueOf(peer);
+                event.streamId = streamId;
+                event.vbid = vbid;
+                event.status = status;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void rollback(Object peer, int streamId, short vbid, long rollbackSeqno) {
+        Rollback event = new Rollback();
+        if (event.shouldCommit()) {
+            event.peer = String.valueOf(peer);
+            event.streamId = streamId;
+            event.vbid = vbid;
+            event.rollbackSeqno = rollbackSeqno;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void streamEnded(Object peer, int streamId, short vbid, StreamEndReason reason) {
+        StreamEnd event = new StreamEnd();
+        if (event.shouldCommit()) {
+            event.peer = String.valueOf(peer);
+            event.streamId = streamId;
+            event.vbid = vbid;
+            event.reason = String.valueOf(reason);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void bufferAckSent(Object peer, int bytes) {
+        BufferAck event = new BufferAck();
+        if (event.shouldCommit()) {
+            event.peer = String.valueOf(peer);
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void configRefreshed(String bucket, long startNanos, boolean success) {
+        ConfigRefresh event = new ConfigRefresh();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            if (event.shouldCommit()) {
+                event.bucket = bucket;
+                event.success = success;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void fixerEventHandled(String client, DcpEvent.Type type, long startNanos) {
+        FixerEvent event = new FixerEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            if (event.shouldCommit()) {
+                event.client = client;
+                event.type = String.valueOf(type);
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public boolean dispatchRecorded() {
+        return DISPATCH.isEnabled();
+    }
+
+    @Override
+    public void dataEventDispatched(Object peer, short vbid, int bytes, long startNanos) {
+        DataEventDispatch event = new DataEventDispatch();
+        event.elapsed = System.nanoTime() - startNanos;
+        if (event.shouldCommit()) {
+            event.peer = String.valueOf(peer);
+            event.vbid = vbid;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Category({ "Couchbase", "DCP" })
+    @StackTrace(false)
+    abstract static class DcpJfrEvent extends Event {
+        @Label("Peer")
+        String peer;
+    }
+
+    @Name("com.couchbase.dcp.ChannelConnect")
+    @Label("DCP Channel Connect")
+    static class ChannelConnect extends DcpJfrEvent {
+        @Label("Connect Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("Attempts")
+        int attempts;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.couchbase.dcp.ChannelDisconnect")
+    @Label("DCP Channel Disconnect")
+    static class ChannelDisconnect extends DcpJfrEvent {
+        @Label("Disconnect Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("com.couchbase.dcp.StreamOpen")
+    @Label("DCP Stream Open")
+    @Description("Latency between an open stream request and its response")
+    static class StreamOpen extends DcpJfrEvent {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("Stream Id")
+        int streamId;
+        @Label("VBucket")
+        short vbid;
+        @Label("Status")
+        short status;
+    }
+
+    @Name("com.couchbase.dcp.Rollback")
+    @Label("DCP Rollback")
+    static class Rollback extends DcpJfrEvent {
+        @Label("Stream Id")
+        int streamId;
+        @Label("VBucket")
+        short vbid;
+        @Label("Rollback Seqno")
+        long rollbackSeqno;
+    }
+
+    @Name("com.couchbase.dcp.StreamEnd")
+    @Label("DCP Stream End")
+    static class StreamEnd extends DcpJfrEvent {
+        @Label("Stream Id")
+        int streamId;
+        @Label("VBucket")
+        short vbid;
+        @Label("Reason")
+        String reason;
+    }
+
+    @Name("com.couchbase.dcp.BufferAck")
+    @Label("DCP Buffer Ack")
+    static class BufferAck extends DcpJfrEvent {
+        @Label("Acked Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("com.couchbase.dcp.ConfigRefresh")
+    @Label("DCP Config Refresh")
+    @Category({ "Couchbase", "DCP" })
+    @StackTrace(false)
+    static class ConfigRefresh extends Event {
+        @Label("Refresh Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("Bucket")
+        String bucket;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.couchbase.dcp.FixerEvent")
+    @Label("DCP Fixer Event")
+    @Description("Handling of a failure by the fixer of a client")
+    @Category({ "Couchbase", "DCP" })
+    @StackTrace(false)
+    static class FixerEvent extends Event {
+        @Label("Handling Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("Client")
+        String client;
+        @Label("Event Type")
+        String type;
+    }
+
+    @Name("com.couchbase.dcp.DataEventDispatch")
+    @Label("DCP Data Event Dispatch")
+    @Description("Time spent by the data event handler on a sampled data event, on the IO thread")
+    static class DataEventDispatch extends DcpJfrEvent {
+        @Label("Dispatch Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("VBucket")
+        short vbid;
+        @Label("Event Bytes")
+        @DataAmount
+        int bytes;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.conductor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.couchbase.client.core.state.NotConnectedException;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
+import com.couchbase.client.deps.io.netty.channel.nio.NioEventLoopGroup;
+
+public class InFlightRequestsTest {
+    private static final byte STREAM_REQUEST = MessageUtil.DCP_STREAM_REQUEST_OPCODE;
+    private static final byte CLOSE_STREAM = MessageUtil.DCP_STREAM_CLOSE_OPCODE;
+
+    private final EventLoopGroup timer = new NioEventLoopGroup(1);
+    // the failure callback of the requests which must not fail
+    private final AtomicReference<Throwable> unexpected = new AtomicReference<>();
+
+    @After
+    public void shutdown() {
+        timer.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+        assertNull(unexpected.get());
+    }
+
+    @Test
+    public void completesByOpaqueAndOpcode() {
+        InFlightRequests requests = new InFlightRequests(timer, 10000);
+        Object context = new Object();
+        InFlightRequests.Request first = requests.register(STREAM_REQUEST, 1, (short) 7, context, unexpected::set);
+        InFlightRequests.Request second = requests.register(STREAM_REQUEST, 1, (short) 7, unexpected::set);
+        assertNotEquals(first.opaque(), second.opaque());
+        assertEquals(2, requests.size());
+        assertSame(second, requests.complete(second.opaque(), STREAM_REQUEST));
+        assertNull(second.context());
+        InFlightRequests.Request completed = requests.complete(first.opaque(), STREAM_REQUEST);
+        assertSame(first, completed);
+        assertSame(context, completed.context());
+        assertEquals(1, completed.streamId());
+        assertEquals(7, completed.vbid());
+        assertEquals(0, requests.size());
+    }
+
+    @Test
+    public void ignoresUnknownResponses() {
+        InFlightRequests requests = new InFlightRequests(timer, 10000);
+        InFlightRequests.Request request = requests.register(STREAM_REQUEST, 0, (short) 0, unexpected::set);
+        assertNull(requests.complete(request.opaque() + 1, STREAM_REQUEST));
+        // an opcode mismatch leaves the request in flight
+        assertNull(requests.complete(request.opaque(), CLOSE_STREAM));
+        assertEquals(1, requests.size());
+        assertSame(request, requests.complete(request.opaque(), STREAM_REQUEST));
+        assertNull(requests.complete(request.opaque(), STREAM_REQUEST));
+    }
+
+    @Test
+    public void timesOut() throws InterruptedException {
+        InFlightRequests requests = new InFlightRequests(timer, 50);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        InFlightRequests.Request request = requests.register(CLOSE_STREAM, 0, (short) 3, failure::set);
+        Throwable cause = await(request.future());
+        assertTrue(cause instanceof TimeoutException);
+        // the callback runs before the future fails
+        assertSame(cause, failure.get());
+        assertEquals(0, requests.size());
+        // a late response is ignored
+        assertNull(requests.complete(request.opaque(), CLOSE_STREAM));
+    }
+
+    @Test
+    public void completedRequestsDoNotTimeOut() throws InterruptedException {
+        InFlightRequests requests = new InFlightRequests(timer, 20);
+        InFlightRequests.Request request = requests.register(CLOSE_STREAM, 0, (short) 0, unexpected::set);
+        requests.complete(request.opaque(), CLOSE_STREAM);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(request.future().isDone());
+    }
+
+    @Test
+    public void clearFailsPendingRequests() throws InterruptedException {
+        InFlightRequests requests = new InFlightRequests(timer, 50);
+        InFlightRequests.Request request = requests.register(STREAM_REQUEST, 0, (short) 0, unexpected::set);
+        requests.clear();
+        assertEquals(0, requests.size());
+        assertTrue(await(request.future()) instanceof NotConnectedException);
+        // the failure callback is for timeouts only
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    private static Throwable await(CompletableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected a failure");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new AssertionError("the future was not completed", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.conductor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StreamRequestValueEncoderTest {
+    private final StreamRequestValueEncoder encoder = new StreamRequestValueEncoder();
+
+    @Test
+    public void encodesCollectionsUidAndStreamId() {
+        assertEquals("{\"collections\":[\"8\",\"9\"],\"uid\":\"1a\",\"sid\":3}",
+                encode(new int[] { 8, 9 }, 0x1a, 3));
+    }
+
+    @Test
+    public void omitsUnsetUidAndStreamId() {
+        assertEquals("{\"collections\":[\"0\"]}", encode(new int[] { 0 }, 0, 0));
+        assertEquals("{\"collections\":[\"ff\"],\"sid\":1}", encode(new int[] { 0xff }, 0, 1));
+        assertEquals("{\"collections\":[],\"uid\":\"2\"}", encode(new int[0], 2, -1));
+    }
+
+    @Test
+    public void encodesUnsignedHex() {
+        assertEquals("{\"collections\":[\"ffffffff\"],\"uid\":\"ffffffffffffffff\"}",
+                encode(new int[] { -1 }, -1L, 0));
+    }
+
+    @Test
+    public void cachesPerCombination() {
+        int[] cids = { 8, 9 };
+        byte[] value = encoder.encode(cids, 5, 2);
+        assertSame(value, encoder.encode(new int[] { 8, 9 }, 5, 2));
+        assertNotSame(value, encoder.encode(cids, 5, 3));
+        assertNotSame(value, encoder.encode(cids, 6, 2));
+        assertNotSame(value, encoder.encode(new int[] { 9, 8 }, 5, 2));
+    }
+
+    @Test
+    public void cacheIsNotAffectedByCallerArrays() {
+        int[] cids = { 8 };
+        encoder.encode(cids, 0, 0);
+        cids[0] = 10;
+        assertEquals("{\"collections\":[\"a\"]}", encode(cids, 0, 0));
+        assertEquals("{\"collections\":[\"8\"]}", encode(new int[] { 8 }, 0, 0));
+    }
+
+    private String encode(int[] cids, long manifestUid, int streamId) {
+        return new String(encoder.encode(cids, manifestUid, streamId), UTF_8);
+    }
+}
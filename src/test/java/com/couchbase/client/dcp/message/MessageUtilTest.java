@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+public class MessageUtilTest {
+
+    @Test
+    public void keyHashDependsOnTheKeyOnly() {
+        int hash = MessageUtil.keyHash(mutation("doc::1", 31, "{\"a\":1}"));
+        assertEquals(hash, MessageUtil.keyHash(mutation("doc::1", 31, "{\"b\":[2]}")));
+        assertEquals(hash, MessageUtil.keyHash(mutation("doc::1", 18, "")));
+        assertNotEquals(hash, MessageUtil.keyHash(mutation("doc::2", 31, "{\"a\":1}")));
+    }
+
+    @Test
+    public void keyHashSkipsFlexFramingExtras() {
+        ByteBuf flex = mutation("doc::1", 31, "{}");
+        // insert a stream id framing extra (id 2, length 2) after the header
+        ByteBuf framed = Unpooled.buffer();
+        framed.writeBytes(flex.slice(0, MessageUtil.HEADER_SIZE));
+        framed.writeByte(0x22).writeShort(7);
+        framed.writeBytes(flex.slice(MessageUtil.HEADER_SIZE, flex.readableBytes() - MessageUtil.HEADER_SIZE));
+        framed.setByte(0, MessageUtil.MAGIC_REQ_FLEX);
+        framed.setByte(MessageUtil.FLEX_FRAMING_EXTRAS_LENGTH_OFFSET, 3);
+        framed.setInt(MessageUtil.BODY_LENGTH_OFFSET, framed.getInt(MessageUtil.BODY_LENGTH_OFFSET) + 3);
+        assertEquals("doc::1", MessageUtil.getKeyAsString(framed, false));
+        assertEquals(7, MessageUtil.streamId(framed));
+        assertEquals(MessageUtil.keyHash(flex), MessageUtil.keyHash(framed));
+    }
+
+    @Test
+    public void keyHashSpreadsSequentialKeys() {
+        int[] buckets = new int[16];
+        for (int i = 0; i < 1600; i++) {
+            buckets[MessageUtil.keyHash(mutation("key" + i, 31, "")) & 15]++;
+        }
+        for (int count : buckets) {
+            assertTrue("uneven spread " + count, count > 50 && count < 150);
+        }
+    }
+
+    private static ByteBuf mutation(String key, int extrasLength, String value) {
+        ByteBuf buffer = Unpooled.buffer();
+        MessageUtil.initRequest(MessageUtil.DCP_MUTATION_OPCODE, buffer);
+        MessageUtil.setExtras(Unpooled.buffer(extrasLength).writeZero(extrasLength), buffer);
+        MessageUtil.setKey(Unpooled.copiedBuffer(key, UTF_8), buffer);
+        MessageUtil.setContent(Unpooled.copiedBuffer(value, UTF_8), buffer);
+        return buffer;
+    }
+}
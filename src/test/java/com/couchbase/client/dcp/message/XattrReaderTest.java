@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+public class XattrReaderTest {
+    private static final byte[] SYNC = XattrReader.name("_sync");
+    private static final byte[] META = XattrReader.name("meta");
+
+    @Test
+    public void iteratesPairs() {
+        XattrReader reader = new XattrReader().wrap(value("{\"a\":1}", "_sync", "{\"rev\":2}", "meta", ""), true);
+        assertTrue(reader.hasXattrs());
+        assertTrue(reader.next());
+        assertEquals("_sync", reader.name().toString(UTF_8));
+        assertEquals("{\"rev\":2}", reader.value().toString(UTF_8));
+        assertTrue(reader.nameEquals(SYNC));
+        assertFalse(reader.nameEquals(META));
+        assertTrue(reader.next());
+        assertEquals("meta", reader.name().toString(UTF_8));
+        assertEquals(0, reader.valueLength());
+        assertFalse(reader.next());
+        assertTrue(reader.hasBody());
+        assertEquals("{\"a\":1}", reader.body().toString(UTF_8));
+    }
+
+    @Test
+    public void findsByName() {
+        ByteBuf content = value("", "_sync", "1", "meta", "22");
+        XattrReader reader = new XattrReader().wrap(content, true);
+        assertTrue(reader.find(META));
+        assertEquals("22", reader.value().toString(UTF_8));
+        assertTrue(reader.find(SYNC));
+        assertEquals("1", reader.value().toString(UTF_8));
+        assertFalse(reader.find(XattrReader.name("_syn")));
+        assertFalse(reader.hasBody());
+        assertEquals(0, reader.body().readableBytes());
+    }
+
+    @Test
+    public void honoursReaderIndex() {
+        ByteBuf content = Unpooled.buffer();
+        content.writeBytes(new byte[] { 9, 9, 9 });
+        content.writeBytes(value("body", "k", "v"));
+        content.readerIndex(3);
+        XattrReader reader = new XattrReader().wrap(content, true);
+        assertTrue(reader.find(XattrReader.name("k")));
+        assertEquals('v', content.getByte(reader.valueOffset()));
+        assertEquals("body", reader.body().toString(UTF_8));
+    }
+
+    @Test
+    public void readsValueWithoutXattrs() {
+        XattrReader reader = new XattrReader().wrap(Unpooled.copiedBuffer("{}", UTF_8), false);
+        assertFalse(reader.hasXattrs());
+        assertFalse(reader.next());
+        assertFalse(reader.find(SYNC));
+        assertEquals("{}", reader.body().toString(UTF_8));
+    }
+
+    @Test
+    public void wrapsEvents() {
+        ByteBuf event = Unpooled.buffer();
+        MessageUtil.initRequest(MessageUtil.DCP_MUTATION_OPCODE, event);
+        MessageUtil.setExtras(Unpooled.buffer(31).writeZero(31), event);
+        MessageUtil.setKey(Unpooled.copiedBuffer("key", UTF_8), event);
+        MessageUtil.setContent(value("{}", "_sync", "x"), event);
+        event.setByte(MessageUtil.DATATYPE_OFFSET, MessageUtil.DATATYPE_JSON | MessageUtil.DATATYPE_XATTR);
+        XattrReader reader = new XattrReader().wrap(event);
+        assertTrue(reader.find(SYNC));
+        assertEquals("x", reader.value().toString(UTF_8));
+        assertEquals("{}", reader.body().toString(UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCompressedEvents() {
+        ByteBuf event = Unpooled.buffer();
+        MessageUtil.initRequest(MessageUtil.DCP_MUTATION_OPCODE, event);
+        MessageUtil.setContent(Unpooled.copiedBuffer("compressed", UTF_8), event);
+        event.setByte(MessageUtil.DATATYPE_OFFSET, MessageUtil.DATATYPE_SNAPPY);
+        new XattrReader().wrap(event);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresPosition() {
+        new XattrReader().wrap(value("", "k", "v"), true).value();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresPositionAfterLastPair() {
+        XattrReader reader = new XattrReader().wrap(value("", "k", "v"), true);
+        while (reader.next()) {
+            // drain
+        }
+        reader.name();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedSection() {
+        ByteBuf content = value("", "k", "v");
+        new XattrReader().wrap(content.slice(0, content.readableBytes() - 1), true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPairWithoutValue() {
+        ByteBuf content = Unpooled.buffer();
+        content.writeInt(6).writeInt(2).writeByte('k').writeByte(0);
+        new XattrReader().wrap(content, true).next();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPairOverrunningSection() {
+        ByteBuf content = Unpooled.buffer();
+        content.writeInt(8).writeInt(5).writeByte('k').writeByte(0).writeByte('v').writeByte(0);
+        content.writeBytes("body".getBytes(UTF_8));
+        new XattrReader().wrap(content, true).next();
+    }
+
+    /**
+     * Encodes the value of an event with xattrs, given the body then the names and values of the pairs.
+     */
+    private static ByteBuf value(String body, String... pairs) {
+        ByteBuf xattrs = Unpooled.buffer();
+        for (int i = 0; i < pairs.length; i += 2) {
+            byte[] name = pairs[i].getBytes(UTF_8);
+            byte[] value = pairs[i + 1].getBytes(UTF_8);
+            xattrs.writeInt(name.length + value.length + 2);
+            xattrs.writeBytes(name).writeByte(0).writeBytes(value).writeByte(0);
+        }
+        ByteBuf content = Unpooled.buffer();
+        content.writeInt(xattrs.readableBytes()).writeBytes(xattrs).writeBytes(body.getBytes(UTF_8));
+        return content;
+    }
+}
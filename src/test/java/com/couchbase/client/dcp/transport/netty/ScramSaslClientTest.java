@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.transport.netty;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.security.sasl.SaslException;
+
+import org.junit.Test;
+
+/**
+ * Replays the example exchanges of RFC 5802 (SCRAM-SHA-1) and RFC 7677 (SCRAM-SHA-256).
+ */
+public class ScramSaslClientTest {
+    private static final String SHA1_NONCE = "fyko+d2lbbFgONRv9qkxdawL";
+    private static final String SHA1_SERVER_FIRST =
+            "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=QSXCR+Q6sek8bf92,i=4096";
+    private static final String SHA1_CLIENT_FINAL =
+            "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=";
+    private static final String SHA1_SERVER_FINAL = "v=rmF9pqV8S7suAoZWja4dJRkFsKQ=";
+
+    private static final String SHA256_NONCE = "rOprNGfwEbeRWgbNEkqO";
+    private static final String SHA256_SERVER_FIRST =
+            "r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,s=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096";
+    private static final String SHA256_CLIENT_FINAL = "c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,"
+            + "p=dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=";
+    private static final String SHA256_SERVER_FINAL = "v=6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=";
+
+    @Test
+    public void sha1Rfc5802Example() throws SaslException {
+        replay("SCRAM-SHA1", SHA1_NONCE, SHA1_SERVER_FIRST, SHA1_CLIENT_FINAL, SHA1_SERVER_FINAL);
+    }
+
+    @Test
+    public void sha256Rfc7677Example() throws SaslException {
+        replay("SCRAM-SHA256", SHA256_NONCE, SHA256_SERVER_FIRST, SHA256_CLIENT_FINAL, SHA256_SERVER_FINAL);
+    }
+
+    @Test
+    public void cachedKeysGiveTheSameProof() throws SaslException {
+        // the second exchange uses the keys derived by the first one
+        replay("SCRAM-SHA256", SHA256_NONCE, SHA256_SERVER_FIRST, SHA256_CLIENT_FINAL, SHA256_SERVER_FINAL);
+        replay("SCRAM-SHA256", SHA256_NONCE, SHA256_SERVER_FIRST, SHA256_CLIENT_FINAL, SHA256_SERVER_FINAL);
+    }
+
+    @Test
+    public void otherPasswordDoesNotReuseTheCachedKeys() throws SaslException {
+        replay("SCRAM-SHA1", SHA1_NONCE, SHA1_SERVER_FIRST, SHA1_CLIENT_FINAL, SHA1_SERVER_FINAL);
+        ScramSaslClient client = new ScramSaslClient("SCRAM-SHA1", "user", "pencil2", SHA1_NONCE);
+        client.evaluateChallenge(new byte[0]);
+        byte[] clientFinal = client.evaluateChallenge(SHA1_SERVER_FIRST.getBytes(UTF_8));
+        assertFalse(SHA1_CLIENT_FINAL.equals(new String(clientFinal, UTF_8)));
+    }
+
+    @Test
+    public void wrongServerSignatureIsRejected() throws SaslException {
+        ScramSaslClient client = new ScramSaslClient("SCRAM-SHA1", "user", "pencil", SHA1_NONCE);
+        client.evaluateChallenge(new byte[0]);
+        client.evaluateChallenge(SHA1_SERVER_FIRST.getBytes(UTF_8));
+        try {
+            client.evaluateChallenge("v=rmF9pqV8S7suAoZWja4dJRkFsKA=".getBytes(UTF_8));
+            fail("the server signature should not match");
+        } catch (SaslException e) {
+            assertFalse(client.isComplete());
+        }
+    }
+
+    @Test
+    public void serverNonceMustExtendTheClientNonce() throws SaslException {
+        ScramSaslClient client = new ScramSaslClient("SCRAM-SHA1", "user", "pencil", SHA1_NONCE);
+        client.evaluateChallenge(new byte[0]);
+        try {
+            client.evaluateChallenge("r=other,s=QSXCR+Q6sek8bf92,i=4096".getBytes(UTF_8));
+            fail("the server nonce should be rejected");
+        } catch (SaslException e) {
+            assertFalse(client.isComplete());
+        }
+    }
+
+    @Test
+    public void createPicksTheStrongestSupportedMechanism() {
+        assertEquals("SCRAM-SHA512", ScramSaslClient
+                .create(new String[] { "PLAIN", "SCRAM-SHA1", "SCRAM-SHA512", "SCRAM-SHA256" }, "user", "pencil")
+                .getMechanismName());
+        assertEquals("SCRAM-SHA1",
+                ScramSaslClient.create(new String[] { "PLAIN", "SCRAM-SHA1" }, "user", "pencil").getMechanismName());
+        assertNull(ScramSaslClient.create(new String[] { "PLAIN" }, "user", "pencil"));
+    }
+
+    private static void replay(String mechanism, String clientNonce, String serverFirst, String clientFinal,
+            String serverFinal) throws SaslException {
+        ScramSaslClient client = new ScramSaslClient(mechanism, "user", "pencil", clientNonce);
+        assertTrue(client.hasInitialResponse());
+        assertArrayEquals(("n,,n=user,r=" + clientNonce).getBytes(UTF_8), client.evaluateChallenge(new byte[0]));
+        assertEquals(clientFinal, new String(client.evaluateChallenge(serverFirst.getBytes(UTF_8)), UTF_8));
+        assertFalse(client.isComplete());
+        assertNull(client.evaluateChallenge(serverFinal.getBytes(UTF_8)));
+        assertTrue(client.isComplete());
+    }
+}
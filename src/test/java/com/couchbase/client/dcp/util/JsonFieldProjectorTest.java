@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+public class JsonFieldProjectorTest {
+
+    @Test
+    public void projectsTopLevelFields() {
+        JsonFieldProjector projector = projector("name", "age", "missing");
+        assertTrue(projector.project(json("{\"name\": \"bob\", \"age\" : 42 , \"tags\":[1,{\"x\":2}]}")));
+        assertEquals(3, projector.size());
+        assertEquals("\"bob\"", field(projector, 0));
+        assertEquals("42", field(projector, 1));
+        assertFalse(projector.has(2));
+        assertNull(projector.field(2));
+        assertEquals(-1, projector.offset(2));
+    }
+
+    @Test
+    public void projectsNestedPaths() {
+        JsonFieldProjector projector = projector("address.city", "address.geo.lat", "address.zip");
+        assertTrue(projector.project(
+                json("{\"address\":{\"zip\":null,\"geo\":{\"lat\":1.5,\"lon\":-2},\"city\":\"Paris\"},\"city\":1}")));
+        assertEquals("\"Paris\"", field(projector, 0));
+        assertEquals("1.5", field(projector, 1));
+        assertEquals("null", field(projector, 2));
+    }
+
+    @Test
+    public void projectsParentAndChild() {
+        JsonFieldProjector projector = projector("a.b", "a");
+        assertTrue(projector.project(json("{\"a\":{\"b\":true,\"c\":[\"}\"]},\"d\":0}")));
+        assertEquals("true", field(projector, 0));
+        // the parent is complete although all the paths are found once its child is
+        assertEquals("{\"b\":true,\"c\":[\"}\"]}", field(projector, 1));
+    }
+
+    @Test
+    public void skipsNestedPathWhenParentIsNotAnObject() {
+        JsonFieldProjector projector = projector("a.b", "c");
+        assertTrue(projector.project(json("{\"a\":[{\"b\":1}],\"c\":\"x\"}")));
+        assertFalse(projector.has(0));
+        assertEquals("\"x\"", field(projector, 1));
+    }
+
+    @Test
+    public void handlesEscapes() {
+        JsonFieldProjector projector = projector("a", "b\"c", "d");
+        assertTrue(projector.project(json("{\"x\":\"\\\"a\\\\\",\"b\\\"c\":1,\"a\":\"q\\\"}\",\"d\":\"\\\\\"}")));
+        assertEquals("\"q\\\"}\"", field(projector, 0));
+        // names are compared unescaped
+        assertFalse(projector.has(1));
+        assertEquals("\"\\\\\"", field(projector, 2));
+    }
+
+    @Test
+    public void firstDuplicateWins() {
+        JsonFieldProjector projector = projector("a");
+        assertTrue(projector.project(json("{\"a\":1,\"a\":2}")));
+        assertEquals("1", field(projector, 0));
+    }
+
+    @Test
+    public void stopsOnceAllPathsAreFound() {
+        JsonFieldProjector projector = projector("a", "b.c");
+        // the garbage after the last path is never read
+        assertTrue(projector.project(json("{\"b\":{\"c\":2,\"x\":1},\"a\":\"v\",}}garbage")));
+        assertEquals("\"v\"", field(projector, 0));
+        assertEquals("2", field(projector, 1));
+        projector = projector("b.c");
+        assertTrue(projector.project(json("{\"b\":{\"c\":2,!")));
+        assertEquals("2", field(projector, 0));
+    }
+
+    @Test
+    public void offsetsAreAbsolute() {
+        ByteBuf buf = json("xx{\"a\":7}");
+        buf.readerIndex(2);
+        JsonFieldProjector projector = projector("a");
+        assertTrue(projector.project(buf));
+        assertEquals(7, projector.offset(0));
+        assertEquals(1, projector.length(0));
+        assertEquals(2, buf.readerIndex());
+    }
+
+    @Test
+    public void rejectsNonObjects() {
+        JsonFieldProjector projector = projector("a");
+        assertFalse(projector.project(json("[{\"a\":1}]")));
+        assertFalse(projector.project(json("\"a\"")));
+        assertFalse(projector.project(json("  ")));
+        assertFalse(projector.has(0));
+    }
+
+    @Test
+    public void rejectsTruncatedInput() {
+        JsonFieldProjector projector = projector("z");
+        for (String truncated : Arrays.asList("{", "{\"a", "{\"a\"", "{\"a\":", "{\"a\":1", "{\"a\":\"x",
+                "{\"a\":\"x\\", "{\"a\":[1,", "{\"a\":{\"b\":1}", "{\"a\":1,")) {
+            assertMalformed(projector, truncated);
+        }
+        // a scalar ending the input may be cut short, even when it is the last path to find
+        assertMalformed(projector("a"), "{\"a\":12");
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        JsonFieldProjector projector = projector("z");
+        for (String malformed : Arrays.asList("{a:1}", "{\"a\" 1}", "{\"a\":1 \"b\":2}", "{\"a\":}", "{\"a\":,}")) {
+            assertMalformed(projector, malformed);
+        }
+    }
+
+    @Test
+    public void isReusable() {
+        JsonFieldProjector projector = projector("a", "b");
+        assertTrue(projector.project(json("{\"a\":1,\"b\":2}")));
+        assertTrue(projector.project(json("{\"b\":3}")));
+        assertFalse(projector.has(0));
+        assertEquals("3", field(projector, 1));
+        projector.clear();
+        assertFalse(projector.has(1));
+        assertEquals("b", projector.path(1));
+    }
+
+    private static JsonFieldProjector projector(String... paths) {
+        return new JsonFieldProjector(Arrays.asList(paths));
+    }
+
+    private static ByteBuf json(String json) {
+        return Unpooled.copiedBuffer(json, UTF_8);
+    }
+
+    private static String field(JsonFieldProjector projector, int i) {
+        return projector.field(i).toString(UTF_8);
+    }
+
+    private static void assertMalformed(JsonFieldProjector projector, String json) {
+        try {
+            projector.project(json(json));
+            fail("accepted " + json);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
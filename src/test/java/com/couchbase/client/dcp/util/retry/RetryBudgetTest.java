@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryBudgetTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    // the refill between two reservations of a test
+    private static final long SLACK = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void burstIsFree() {
+        RetryBudget budget = new RetryBudget(1, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, budget.reserve());
+        }
+    }
+
+    @Test
+    public void reservesAheadOnceSpent() {
+        RetryBudget budget = new RetryBudget(1, 1, 10, TimeUnit.SECONDS);
+        assertEquals(0, budget.reserve());
+        assertBetween(SECOND - SLACK, SECOND, budget.reserve());
+        assertBetween(2 * SECOND - SLACK, 2 * SECOND, budget.reserve());
+    }
+
+    @Test
+    public void capsTheDelay() {
+        RetryBudget budget = new RetryBudget(1, 1, 2, TimeUnit.SECONDS);
+        budget.reserve();
+        budget.reserve();
+        assertBetween(2 * SECOND - SLACK, 2 * SECOND, budget.reserve());
+        // the debt no longer grows
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2 * SECOND, budget.reserve());
+        }
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(100, 1);
+        assertEquals(0, budget.reserve());
+        assertTrue(budget.reserve() > 0);
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(0, budget.reserve());
+    }
+
+    @Test
+    public void unlimitedNeverWaits() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, RetryBudget.UNLIMITED.reserve());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new RetryBudget(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroBurst() {
+        new RetryBudget(1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMaxDelay() {
+        new RetryBudget(1, 1, -1, TimeUnit.SECONDS);
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ */
+package com.couchbase.client.dcp.util.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void delaysStayWithinBaseAndThreeTimesThePrevious() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED);
+        for (int run = 0; run < 100; run++) {
+            RetryPolicy.Backoff backoff = policy.backoff();
+            long previous = 10 * MILLI;
+            for (int i = 1; i <= 20; i++) {
+                long delay = backoff.nextDelayNanos();
+                assertTrue(delay + " below base", delay >= 10 * MILLI);
+                assertTrue(delay + " above " + previous + " * 3", delay <= Math.min(1000 * MILLI, 3 * previous));
+                assertEquals(i, backoff.attempts());
+                previous = delay;
+            }
+        }
+    }
+
+    @Test
+    public void delaysGrowAndReachTheCap() {
+        RetryPolicy policy = new RetryPolicy(1, 100, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED);
+        long max = 0;
+        for (int run = 0; run < 100; run++) {
+            RetryPolicy.Backoff backoff = policy.backoff();
+            for (int i = 0; i < 50; i++) {
+                max = Math.max(max, backoff.nextDelayNanos());
+            }
+        }
+        assertTrue(max > 50 * MILLI);
+        assertTrue(max <= 100 * MILLI);
+    }
+
+    @Test
+    public void fixedWhenBaseIsCap() {
+        RetryPolicy.Backoff backoff =
+                new RetryPolicy(5, 5, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED).backoff();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5 * MILLI, backoff.nextDelayNanos());
+        }
+    }
+
+    @Test
+    public void immediateNeverWaits() {
+        RetryPolicy.Backoff backoff = RetryPolicy.IMMEDIATE.backoff();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, backoff.nextDelayNanos());
+        }
+    }
+
+    @Test
+    public void spentBudgetExtendsTheDelay() {
+        RetryBudget budget = new RetryBudget(1, 1);
+        RetryPolicy.Backoff backoff = RetryPolicy.IMMEDIATE.withBudget(budget).backoff();
+        assertEquals(0, backoff.nextDelayNanos());
+        assertTrue(backoff.nextDelayNanos() > 500 * MILLI);
+    }
+
+    @Test
+    public void withBudgetKeepsTheDelays() {
+        RetryBudget budget = new RetryBudget(1, 1);
+        RetryPolicy policy = new RetryPolicy(5, 5, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED).withBudget(budget);
+        assertSame(budget, policy.budget());
+        assertNull(policy.delay());
+        assertEquals(5 * MILLI, policy.backoff().nextDelayNanos());
+    }
+
+    @Test
+    public void jitteredUsesTheSharedBudget() {
+        assertSame(RetryBudget.shared(), RetryPolicy.jittered(1, 2, TimeUnit.SECONDS).budget());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeBase() {
+        new RetryPolicy(-1, 1, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapBelowBase() {
+        new RetryPolicy(2, 1, TimeUnit.MILLISECONDS, RetryBudget.UNLIMITED);
+    }
+}